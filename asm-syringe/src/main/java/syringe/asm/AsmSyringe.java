@@ -19,45 +19,411 @@ package syringe.asm;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.util.TraceClassVisitor;
 import syringe.Syringe;
 import syringe.asm.util.OpenClassLoader;
+import syringe.callbacks.clazz.ClassAnnotationCallback;
+import syringe.callbacks.clazz.ClassDefinitionCallback;
 import syringe.util.CallbackCollector;
+import syringe.util.ClassHeader;
+import syringe.util.ClassFiles;
+import syringe.util.ClassWeave;
+import syringe.util.InstrumentationSwitches;
+import syringe.util.RegistryRecipes;
+import syringe.util.SyntheticNames;
+import syringe.util.WeaveCache;
+import syringe.util.WeaveMetrics;
+import syringe.util.WeavingPolicy;
 import syringe.visitor.ClassVisitor;
 import syringe.visitor.MethodVisitor;
 
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.HashSet;
-import java.util.Set;
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
 
 public class AsmSyringe implements Syringe { //TODO
 
-    private final Set<ClassVisitor> classVisitors = new HashSet<>();
-    private final Set<MethodVisitor> methodVisitors = new HashSet<>();
+    private final Set<ClassVisitor> classVisitors = new LinkedHashSet<>();
+    private final Set<MethodVisitor> methodVisitors = new LinkedHashSet<>();
 
     private final OpenClassLoader ocl;
+    private final DispatchMode dispatchMode;
+    private final InstrumentationSwitches switches = new InstrumentationSwitches();
+    private final WeaveMetrics metrics = new WeaveMetrics();
+    private volatile WeavingPolicy policy = new WeavingPolicy();
+    @Nullable
+    private volatile WeaveCache cache;
+    private volatile String cacheVersion = "";
+    private final Set<Path> classpath = new LinkedHashSet<>();
+    private volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+    @Nullable
+    private volatile Weave snapshot;
 
     public AsmSyringe(OpenClassLoader ocl) {
+        this(ocl, DispatchMode.STATIC_FIELD);
+    }
+
+    public AsmSyringe(OpenClassLoader ocl, DispatchMode dispatchMode) {
         this.ocl = ocl;
+        this.dispatchMode = dispatchMode;
     }
 
+    /**
+     * Weaves every class of the classpath added through {@link #addClasspath(Path)} and defines the outcome in the
+     * {@link OpenClassLoader}.
+     */
     @Override
     public void inject() {
-        CallbackCollector cc = new CallbackCollector(classVisitors, methodVisitors);
-        ClassReader reader = null;
-        try {
-            reader = new ClassReader("syringe.asm.test.Test2");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-        SyringeClassVisitor scv = new SyringeClassVisitor(new TraceClassVisitor(writer, new PrintWriter(System.out)), cc, () -> {
-            return new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-        });
+        SortedMap<String, Map<String, byte[]>> woven = weave(new ArrayList<>(classpath));
+        Set<String> defined = new HashSet<>();
+        for (String name : woven.keySet()) {
+            define(name, woven, defined);
+        }
+    }
+
+    /**
+     * Defines a woven class after the woven classes it extends, as they would be loaded unwoven from the parent class
+     * loader otherwise.
+     */
+    private void define(String name, Map<String, Map<String, byte[]>> woven, Set<String> defined) {
+        Map<String, byte[]> classes = woven.get(name);
+        if (classes == null || !defined.add(name))
+            return;
+        ClassReader reader = new ClassReader(classes.get(name));
+        if (reader.getSuperName() != null)
+            define(reader.getSuperName().replace('/', '.'), woven, defined);
+        for (String i : reader.getInterfaces()) {
+            define(i.replace('/', '.'), woven, defined);
+        }
+        long start = System.nanoTime();
+        classes.forEach((generated, bytecode) -> ocl.define(generated, bytecode, !generated.equals(name)));
+        metrics.time(WeaveMetrics.Phase.CLASS_DEFINITION, System.nanoTime() - start);
+    }
+
+    /**
+     * Weaves every class in the given directories and jars, in parallel on the {@link ForkJoinPool} of this syringe.
+     * Classes found in more than one of them are taken from the first. The super classes of the types the woven code
+     * refers to are read from the given classes, then from the class files of the {@link OpenClassLoader}, so the roots
+     * need not be on the classpath of the syringe.
+     *
+     * @return The classes woven from each class by its binary name (see {@link #weave(byte[])}), or the class as is if
+     * no visitor applies to it, ordered by name.
+     */
+    public SortedMap<String, Map<String, byte[]>> weave(List<Path> roots) {
+        ForkJoinPool pool = this.pool;
+        List<ForkJoinTask<Map<String, byte[]>>> reads = new ArrayList<>();
+        for (Path root : roots) {
+            reads.add(pool.submit(() -> {
+                Map<String, byte[]> classes = new HashMap<>();
+                ClassFiles.read(root, classes::put);
+                return classes;
+            }));
+        }
+        Map<String, byte[]> classfiles = new TreeMap<>();
+        for (ForkJoinTask<Map<String, byte[]>> read : reads) {
+            read.join().forEach(classfiles::putIfAbsent);
+        }
+
+        String[] names = classfiles.keySet().toArray(new String[0]);
+        byte[][] inputs = classfiles.values().toArray(new byte[0][]);
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Map<String, byte[]>[] outputs = new Map[names.length];
+        Function<String, String> superNames = type -> {
+            byte[] classfile = classfiles.get(type.replace('/', '.'));
+            return classfile == null ? LoaderClassWriter.readSuperName(ocl, type)
+                    : new ClassReader(classfile).getSuperName();
+        };
+        pool.invoke(new WeaveTask(snapshot(), superNames, names, inputs, outputs, 0, names.length));
+
+        SortedMap<String, Map<String, byte[]>> woven = new TreeMap<>();
+        for (int i = 0; i < names.length; i++) {
+            woven.put(names[i], outputs[i]);
+        }
+        return woven;
+    }
+
+    /**
+     * Weaves a class file with the visitors added so far. If a {@link WeaveCache} is set and holds the outcome, the
+     * woven classes are copied from it, and only the values they expect in the {@link GlobalRegistry} are restored.
+     * Cached classes do not go through the {@link WeavingPolicy} again, so it does not report their excluded methods,
+     * and their instrumented methods are not counted in the {@link #getMetrics() metrics}.
+     *
+     * @return The woven class and the classes generated for it by binary name, in the order they must be defined.
+     */
+    public Map<String, byte[]> weave(byte[] classfile) {
+        return weave(classfile, snapshot(), null);
+    }
+
+    /**
+     * Weaves a class file which is about to be defined by the given class loader, see {@link #weave(byte[])}. The types
+     * the woven code refers to are looked up among the class files of the loader, without loading them.
+     */
+    public Map<String, byte[]> weave(byte[] classfile, @Nullable ClassLoader loader) {
+        return weave(classfile, snapshot(),
+                loader == null ? null : type -> LoaderClassWriter.readSuperName(loader, type));
+    }
+
+    /**
+     * @return Whether any visitor applies to the class, as a cheap check ahead of {@link #weave(byte[])}.
+     */
+    public boolean appliesTo(ClassHeader header) {
+        return snapshot().cc.appliesTo(header.getName(), header.getModifiers(), header.getAnnotationTypes());
+    }
+
+    /**
+     * @param superNames Returns the internal name of the super class of a type, or null to load the types involved.
+     */
+    private Map<String, byte[]> weave(byte[] classfile, Weave weave, @Nullable Function<String, String> superNames) {
+        long start = System.nanoTime();
+        String key = WeaveCache.key(classfile, weave.fingerprint);
+        if (weave.cache != null) {
+            WeaveCache.Entry entry = weave.cache.get(key);
+            if (entry != null && restore(classfile, entry, weave, start))
+                return entry.getClasses();
+        }
+
+        ClassReader reader = new ClassReader(classfile);
+        ClassWeave record = new ClassWeave(reader.getClassName().replace('/', '.'), classfile.length, start);
+        record.lap(WeaveMetrics.Phase.PARSING);
+        ClassWriter writer = superNames == null
+                ? new ClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS)
+                : new LoaderClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS, superNames);
+        SyringeClassVisitor scv = new SyringeClassVisitor(writer, weave.cc, () -> {
+            return superNames == null
+                    ? new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS)
+                    : new LoaderClassWriter(null, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS, superNames);
+        }, dispatchMode, switches, weave.policy);
+        scv.setRecord(record);
+        scv.setNamespace(key.substring(0, 16)); //Same class file and configuration, same keys
         reader.accept(scv, ClassReader.SKIP_FRAMES);
-        scv.getNeedsLoading().forEach((name, bytecode) -> ocl.define(name.replace("/", "."), bytecode, true));
-        ocl.define("syringe.asm.test.Test2", writer.toByteArray(), false);
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        scv.getNeedsLoading().forEach((name, bytecode) -> classes.put(name.replace('/', '.'), bytecode));
+        classes.put(reader.getClassName().replace('/', '.'), writer.toByteArray());
+        record.lap(WeaveMetrics.Phase.CODE_EMISSION);
+
+        if (weave.cache != null) {
+            byte[] metadata = weave.recipes.describe(scv.getRegistrations());
+            if (metadata != null)
+                weave.cache.put(key, new WeaveCache.Entry(classes, metadata));
+        }
+        record(metrics, record, classes);
+        return classes;
+    }
+
+    private static void record(WeaveMetrics metrics, ClassWeave record, Map<String, byte[]> classes) {
+        int size = 0;
+        for (byte[] bytecode : classes.values()) {
+            size += bytecode.length;
+        }
+        record.setBytesAfter(size);
+        metrics.woven(record);
+    }
+
+    /**
+     * Weaves a class which is already loaded by the given class loader, to be passed to
+     * {@link java.lang.instrument.Instrumentation#retransformClasses}. As retransformed classes may not add members,
+     * only the method invocation, return and exception callbacks of the given collector are woven, and class files
+     * older than Java 7 are returned as is. The classes generated for it are named after the generation, which must
+     * differ from that of any earlier weave of the class. The weave is recorded in the given metrics rather than in
+     * those of this syringe, which counts the class as it is loaded.
+     *
+     * @return The woven class and the classes generated for it by binary name, in the order they must be defined.
+     */
+    public Map<String, byte[]> retransform(byte[] classfile, ClassLoader loader, CallbackCollector cc,
+                                           String generation, WeaveMetrics metrics) {
+        long start = System.nanoTime();
+        ClassReader reader = new ClassReader(classfile);
+        String name = reader.getClassName().replace('/', '.');
+        if (reader.readUnsignedShort(6) < 51) {
+            metrics.skipped();
+            return Collections.singletonMap(name, classfile);
+        }
+        ClassWeave record = new ClassWeave(name, classfile.length, start);
+        record.lap(WeaveMetrics.Phase.PARSING);
+        ClassWriter writer = new LoaderClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS,
+                loader);
+        SyringeClassVisitor scv = new SyringeClassVisitor(writer, cc,
+                () -> new LoaderClassWriter(null, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS, loader),
+                dispatchMode, switches, policy, generation);
+        scv.setRecord(record);
+        scv.setNamespace(SyntheticNames.namespace(classfile, generation));
+        reader.accept(scv, ClassReader.SKIP_FRAMES);
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        scv.getNeedsLoading().forEach((generated, bytecode) -> classes.put(generated.replace('/', '.'), bytecode));
+        classes.put(name, writer.toByteArray());
+        record.lap(WeaveMetrics.Phase.CODE_EMISSION);
+        record(metrics, record, classes);
+        return classes;
+    }
+
+    /**
+     * Weaves a class file at compile time, so it is loaded as is. Its class initializer restores the values it expects
+     * in the {@link GlobalRegistry} through {@link Precompiled}, which instantiates the visitors by class name, so
+     * they must have a public constructor without parameters.
+     *
+     * @param superNames Returns the internal name of the super class of a type, given its internal name, as the types
+     * the woven code refers to may not be loadable while compiling.
+     * @return The woven class and the classes generated for it by binary name, or the class as is if no visitor
+     * applies to it.
+     */
+    public Map<String, byte[]> precompile(byte[] classfile, Function<String, String> superNames) {
+        long start = System.nanoTime();
+        Weave weave = snapshot();
+        ClassReader reader = new ClassReader(classfile);
+        String name = reader.getClassName().replace('/', '.');
+        ClassHeader header = ClassHeader.read(classfile);
+        if (header == null || !weave.cc.appliesTo(header.getName(), header.getModifiers(),
+                header.getAnnotationTypes())) {
+            metrics.skipped();
+            return Collections.singletonMap(name, classfile);
+        }
+        ClassWeave record = new ClassWeave(name, classfile.length, start);
+        record.lap(WeaveMetrics.Phase.PARSING);
+
+        ClassWriter writer = new LoaderClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS,
+                superNames);
+        SyringeClassVisitor scv = new SyringeClassVisitor(writer, weave.cc,
+                () -> new LoaderClassWriter(null, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS, superNames),
+                dispatchMode, switches, weave.policy);
+        scv.setRecord(record);
+        scv.setNamespace(SyntheticNames.namespace(classfile, weave.fingerprint));
+        reader.accept(scv, ClassReader.SKIP_FRAMES);
+        byte[] recipes = weave.recipes.describe(scv.getRegistrations());
+        if (recipes == null)
+            throw new IllegalStateException("The values woven into " + name + " cannot be restored when it is loaded");
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        scv.getNeedsLoading().forEach((generated, bytecode) -> classes.put(generated.replace('/', '.'), bytecode));
+        classes.put(name, Precompiled.restoreOnInit(writer.toByteArray(),
+                Precompiled.describe(weave.cvs, weave.mvs, recipes)));
+        record.lap(WeaveMetrics.Phase.CODE_EMISSION);
+        record(metrics, record, classes);
+        return classes;
+    }
+
+    /**
+     * Registers the values a cached class expects, and runs the callbacks which would have been called while weaving
+     * it. Only the declarations of the class are read, to rebuild its {@link syringe.info.ClassInfo}.
+     *
+     * @param start When weaving the class started, from {@link System#nanoTime()}.
+     * @return Whether the cached classes can be used.
+     */
+    private boolean restore(byte[] classfile, WeaveCache.Entry entry, Weave weave, long start) {
+        ClassInfoCollector info = new ClassInfoCollector(null);
+        new ClassReader(classfile).accept(info, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG
+                | ClassReader.SKIP_FRAMES);
+        ClassWeave record = new ClassWeave(info.getName().getFullyQualifiedName(), classfile.length, start);
+        record.lap(WeaveMetrics.Phase.PARSING);
+        Map<String, Object> values = weave.recipes.resolve(entry.getMetadata(), info::build);
+        if (values == null)
+            return false;
+        values.forEach(GlobalRegistry::register);
+
+        CallbackCollector scoped = weave.cc.forClass(info.getName(), info.getModifiers(), info.getAnnotationTypes());
+        record.lap(WeaveMetrics.Phase.CALLBACK_COLLECTION);
+        for (ClassAnnotationCallback cac : scoped.getClassAnnotationCallbacks()) {
+            cac.annotations(info.build(), info.getAnnotations());
+        }
+        for (ClassDefinitionCallback cdc : scoped.getClassDefinitionCallbacks()) {
+            cdc.construction(info.build());
+        }
+        record.lap(WeaveMetrics.Phase.CLASS_DEFINITION_CALLBACKS);
+        record(metrics, record, entry.getClasses());
+        return true;
+    }
+
+    /**
+     * @return The visitors and settings classes are currently woven with.
+     */
+    private Weave snapshot() {
+        Weave weave = snapshot;
+        if (weave == null) {
+            synchronized (this) {
+                weave = snapshot;
+                if (weave == null)
+                    snapshot = weave = new Weave();
+            }
+        }
+        return weave;
+    }
+
+    /**
+     * The visitors and settings classes are woven with, fixed for a batch of classes when it starts. It is kept until
+     * any of them changes.
+     */
+    private final class Weave {
+
+        final List<ClassVisitor> cvs = new ArrayList<>(classVisitors);
+        final List<MethodVisitor> mvs = new ArrayList<>(methodVisitors);
+        final CallbackCollector cc;
+        final RegistryRecipes recipes;
+        final WeavingPolicy policy = AsmSyringe.this.policy;
+        @Nullable
+        final WeaveCache cache = AsmSyringe.this.cache;
+        final String fingerprint; //What decides the outcome besides the class itself
+
+        Weave() {
+            this.cc = new CallbackCollector(cvs, mvs);
+            this.recipes = new RegistryRecipes(cvs, mvs, switches);
+            if (cache != null)
+                WeaveCache.checkFingerprints(cvs, mvs);
+            this.fingerprint = "asm;" + dispatchMode + ';' + policy + ';' + cacheVersion
+                    + WeaveCache.fingerprint(cvs, mvs);
+        }
+    }
+
+    /**
+     * Weaves a range of class files, splitting it in halves down to a few classes per task.
+     */
+    private final class WeaveTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private static final int CLASSES_PER_TASK = 4;
+
+        private final Weave weave;
+        private final Function<String, String> superNames;
+        private final String[] names;
+        private final byte[][] inputs;
+        private final Map<String, byte[]>[] outputs;
+        private final int from;
+        private final int to;
+
+        WeaveTask(Weave weave, Function<String, String> superNames, String[] names, byte[][] inputs,
+                  Map<String, byte[]>[] outputs, int from, int to) {
+            this.weave = weave;
+            this.superNames = superNames;
+            this.names = names;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CLASSES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new WeaveTask(weave, superNames, names, inputs, outputs, from, middle),
+                        new WeaveTask(weave, superNames, names, inputs, outputs, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                ClassHeader header = ClassHeader.read(inputs[i]);
+                if (header == null || !weave.cc.appliesTo(header.getName(), header.getModifiers(),
+                        header.getAnnotationTypes())) {
+                    metrics.skipped();
+                    outputs[i] = Collections.singletonMap(names[i], inputs[i]);
+                    continue;
+                }
+                try {
+                    outputs[i] = weave(inputs[i], weave, superNames);
+                } catch (RuntimeException e) {
+                    throw new RuntimeException("Could not weave " + names[i], e);
+                }
+            }
+        }
     }
 
     @Override
@@ -66,12 +432,98 @@ public class AsmSyringe implements Syringe { //TODO
     }
 
     @Override
-    public void addVisitor(ClassVisitor cv) {
+    public synchronized void addVisitor(ClassVisitor cv) {
         classVisitors.add(cv);
+        snapshot = null;
     }
 
     @Override
-    public void addVisitor(MethodVisitor mv) {
+    public synchronized void addVisitor(MethodVisitor mv) {
         methodVisitors.add(mv);
+        snapshot = null;
+    }
+
+    /**
+     * Adds a directory or jar to the classes {@link #inject()} weaves.
+     */
+    public void addClasspath(Path root) {
+        classpath.add(root);
+    }
+
+    /**
+     * Sets the pool classes are woven on, the common pool by default.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets the policy deciding which methods are too small to weave, see {@link WeavingPolicy}.
+     */
+    public synchronized void setWeavingPolicy(WeavingPolicy policy) {
+        this.policy = policy;
+        snapshot = null;
+    }
+
+    public WeavingPolicy getWeavingPolicy() {
+        return policy;
+    }
+
+    /**
+     * Sets the cache to reuse woven classes from, see {@link #weave(byte[])}. Entries are only reused for visitors
+     * with the same {@link ClassVisitor#fingerprint() fingerprints}, in the same order, and the same version. Weaving
+     * fails if a visitor of an anonymous class does not override its fingerprint.
+     *
+     * @param version Identifies whatever else decides how classes are woven, and must change whenever the visitors
+     * would weave a class differently under the same fingerprints (e.g. when their code changes).
+     */
+    public synchronized void setCache(@Nullable WeaveCache cache, String version) {
+        this.cache = cache;
+        this.cacheVersion = version;
+        snapshot = null;
+    }
+
+    @Nullable
+    public WeaveCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        switches.global().setEnabled(enabled);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return switches.global().isEnabled();
+    }
+
+    @Override
+    public void setEnabled(ClassVisitor cv, boolean enabled) {
+        switches.forVisitor(cv).setEnabled(enabled);
+    }
+
+    @Override
+    public void setEnabled(MethodVisitor mv, boolean enabled) {
+        switches.forVisitor(mv).setEnabled(enabled);
+    }
+
+    @Override
+    public boolean isEnabled(ClassVisitor cv) {
+        return switches.forVisitor(cv).isEnabled();
+    }
+
+    @Override
+    public boolean isEnabled(MethodVisitor mv) {
+        return switches.forVisitor(mv).isEnabled();
+    }
+
+    @Override
+    public WeaveMetrics getMetrics() {
+        return metrics;
     }
 }
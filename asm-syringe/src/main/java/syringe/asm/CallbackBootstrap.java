@@ -0,0 +1,91 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.asm;
+
+import syringe.util.InstrumentationSwitch;
+import syringe.util.Lazy;
+
+import java.lang.invoke.*;
+
+/**
+ * Bootstrap methods for the invokedynamic call sites emitted by {@link SyringeClassVisitor} when
+ * {@link DispatchMode#INVOKEDYNAMIC} is used or when a loaded class is rewoven, and for the guards emitted by
+ * {@link SwitchGuard}.
+ */
+public final class CallbackBootstrap {
+
+    private CallbackBootstrap() {}
+
+    /**
+     * Links a call site to the callback registered under the given key. The resulting call site is constant, so once
+     * it is linked the JIT sees a fixed receiver and is free to inline the callback.
+     *
+     * @param caller The lookup of the woven class.
+     * @param name The name of the callback interface method to invoke.
+     * @param type The type of the call site, which is the type of the interface method minus the receiver.
+     * @param callbackType The callback interface.
+     * @param key The {@link GlobalRegistry} key the callback was registered under.
+     * @return The linked call site.
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type, Class<?> callbackType,
+                                     String key) throws ReflectiveOperationException {
+        Object callback = GlobalRegistry.peek(key);
+        if (callback == null)
+            throw new BootstrapMethodError("No callback registered for " + key + " in " + caller.lookupClass());
+        MethodHandle target = MethodHandles.publicLookup()
+                .findVirtual(callbackType, name, type)
+                .bindTo(callback);
+        return new ConstantCallSite(target.asType(type));
+    }
+
+    /**
+     * Links a {@code ()boolean} call site to the state of the {@link InstrumentationSwitch} registered under the given
+     * key. The switch's own call site is returned, so flipping the switch relinks every guard reading it.
+     *
+     * @param caller The lookup of the woven class.
+     * @param name Ignored.
+     * @param type The type of the call site, {@code ()boolean}.
+     * @param key The {@link GlobalRegistry} key the switch was registered under.
+     * @return The linked call site.
+     */
+    public static CallSite guard(MethodHandles.Lookup caller, String name, MethodType type, String key) {
+        Object instrumentationSwitch = GlobalRegistry.peek(key);
+        if (!(instrumentationSwitch instanceof InstrumentationSwitch))
+            throw new BootstrapMethodError("No switch registered for " + key + " in " + caller.lookupClass());
+        return ((InstrumentationSwitch) instrumentationSwitch).getCallSite();
+    }
+
+    /**
+     * Links a call site returning the value registered under the given key, resolved on first use if it is
+     * {@link Lazy}. Rewoven classes load their metadata this way, as they may not add fields.
+     *
+     * @param caller The lookup of the woven class.
+     * @param name Ignored.
+     * @param type The type of the call site, which returns the type of the value.
+     * @param key The {@link GlobalRegistry} key the value was registered under.
+     * @return The linked call site.
+     */
+    public static CallSite constant(MethodHandles.Lookup caller, String name, MethodType type, String key) {
+        Object value = GlobalRegistry.peek(key);
+        if (value instanceof Lazy)
+            value = ((Lazy<?>) value).get();
+        if (value == null)
+            throw new BootstrapMethodError("No value registered for " + key + " in " + caller.lookupClass());
+        return new ConstantCallSite(MethodHandles.constant(type.returnType(), value));
+    }
+}
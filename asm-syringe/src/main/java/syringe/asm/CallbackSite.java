@@ -0,0 +1,83 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.asm;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import syringe.util.ClassName;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * A callback made reachable from woven code, either through a static field or an invokedynamic call site.
+ *
+ * @see SyringeClassVisitor#addCallback(Class, Object)
+ */
+public final class CallbackSite {
+
+    private final String holder;
+    private final Class<?> callbackType;
+    private final String location;
+    private final boolean dynamic;
+
+    /**
+     * @param holder The internal name of the class declaring the static field, if not dynamic.
+     * @param callbackType The callback interface which will be invoked.
+     * @param location The static field name, or the {@link GlobalRegistry} key if dynamic.
+     * @param dynamic Whether the callback is reached through {@link CallbackBootstrap}.
+     */
+    CallbackSite(String holder, Class<?> callbackType, String location, boolean dynamic) {
+        this.holder = holder;
+        this.callbackType = callbackType;
+        this.location = location;
+        this.dynamic = dynamic;
+    }
+
+    /**
+     * Pushes the callback receiver onto the stack, this must be called before the arguments are pushed.
+     */
+    public void loadReceiver(MethodVisitor mv) {
+        if (!dynamic) {
+            mv.visitFieldInsn(GETSTATIC, holder, location, ClassName.of(callbackType).getAsInternalTypeName());
+        }
+    }
+
+    /**
+     * Invokes the callback, this must be called after the arguments are pushed.
+     *
+     * @param name The callback interface method name.
+     * @param descriptor The callback interface method descriptor.
+     */
+    public void invoke(MethodVisitor mv, String name, String descriptor) {
+        String owner = ClassName.of(callbackType).getAsSlashNotation();
+        if (dynamic) {
+            mv.visitInvokeDynamicInsn(name, descriptor, new Handle(H_INVOKESTATIC,
+                    ClassName.of(CallbackBootstrap.class).getAsSlashNotation(),
+                    "bootstrap",
+                    MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class,
+                            MethodType.class, Class.class, String.class).toMethodDescriptorString(),
+                    false), Type.getType(callbackType), location);
+        } else {
+            mv.visitMethodInsn(INVOKEINTERFACE, owner, name, descriptor, true);
+        }
+    }
+}
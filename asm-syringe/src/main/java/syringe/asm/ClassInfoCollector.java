@@ -0,0 +1,343 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.asm;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import syringe.access.FieldAccessor;
+import syringe.access.MethodAccessor;
+import syringe.info.AnnotationInfo;
+import syringe.info.ClassInfo;
+import syringe.info.FieldInfo;
+import syringe.info.MethodInfo;
+import syringe.info.ParameterInfo;
+import syringe.util.ClassName;
+import syringe.util.Lazy;
+import syringe.util.LazyMap;
+
+import javax.annotation.Nullable;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Collects the {@link ClassInfo} of the class passing through it. Synthetic members, which include everything the
+ * weaver adds, are left out.
+ * <br>
+ * It sits behind the {@link SyringeClassVisitor} of a class, and can also run on its own over a class whose woven
+ * form is already known, see {@link AsmSyringe#weave(byte[])}.
+ */
+final class ClassInfoCollector extends ClassVisitor implements Opcodes {
+
+    private ClassName selfName;
+    private Lazy<Class> classTransformer;
+    private int modifiers;
+    private final Set<ClassName> annotationTypes = new HashSet<>();
+    private final Map<String, Lazy<FieldInfo>> fields = new HashMap<>();
+    private final Map<String, Lazy<MethodInfo>> methods = new HashMap<>();
+    private final List<Lazy<AnnotationInfo>> annotations = new ArrayList<>();
+    private final List<ClassName> extendsList = new ArrayList<>();
+
+    ClassInfoCollector(@Nullable ClassVisitor cv) {
+        super(ASM6, cv);
+    }
+
+    /**
+     * @return The key of the method in the {@link ClassInfo#getMethods()} map, i.e. {@code name(I[Ljava/lang/String;)}.
+     */
+    static String methodKey(String name, String descriptor) {
+        return name + descriptor.substring(0, descriptor.indexOf(')') + 1);
+    }
+
+    ClassName getName() {
+        return selfName;
+    }
+
+    int getModifiers() {
+        return modifiers;
+    }
+
+    Set<ClassName> getAnnotationTypes() {
+        return annotationTypes;
+    }
+
+    List<AnnotationInfo> getAnnotations() {
+        return annotations.stream().map(Lazy::get).collect(Collectors.toList());
+    }
+
+    /**
+     * @return The info of the class, from the members visited so far.
+     */
+    ClassInfo build() {
+        return new ClassInfo(selfName,
+                modifiers,
+                LazyMap.convert(fields),
+                LazyMap.convert(methods),
+                annotations.stream().map(Lazy::new).collect(Collectors.toList()),
+                extendsList,
+                classTransformer);
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.selfName = ClassName.of(name);
+        this.classTransformer = new Lazy<>(() -> {
+            try {
+                return Class.forName(selfName.getFullyQualifiedName());
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
+        });
+        this.modifiers = access;
+        if (superName != null) {
+            extendsList.add(ClassName.of(superName));
+        }
+        if (interfaces != null) {
+            for (String i : interfaces) {
+                extendsList.add(ClassName.of(i));
+            }
+        }
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        AnnotationVisitor av = super.visitAnnotation(descriptor, visible);
+        ClassName name = ClassName.of(descriptor);
+        annotationTypes.add(name);
+        return new AnnotationInfoVisitor(av, classTransformer, name, annotations);
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+        FieldVisitor fv = super.visitField(access, name, descriptor, signature, value);
+        FieldVisitor observer = new FieldVisitor(ASM6, fv) {
+            final List<Lazy<AnnotationInfo>> annotations = new ArrayList<>();
+            final Lazy<Field> transformer = new Lazy<>(() -> {
+                Class clazz = classTransformer.get();
+                if (clazz != null) {
+                    try {
+                        return clazz.getField(name);
+                    } catch (NoSuchFieldException ignored) {}
+                }
+                return null;
+            });
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                AnnotationVisitor av = super.visitAnnotation(descriptor, visible);
+                return new AnnotationInfoVisitor(av, transformer, ClassName.of(descriptor), annotations);
+            }
+
+            @Override
+            public void visitEnd() {
+                super.visitEnd();
+                if ((ACC_SYNTHETIC & access) == 0 && !name.contains("$") && !name.equals("this")) {
+                    FieldInfo fi = new FieldInfo(name,
+                            access,
+                            ClassName.of(descriptor),
+                            annotations.stream().map(Lazy::new).collect(Collectors.toList()),
+                            new FieldAccessor() {
+                                @Nullable
+                                @Override
+                                public Object get() {
+                                    throw new RuntimeException("Cannot access field before it is defined!");
+                                }
+                            }, transformer);
+                    fields.put(name, new Lazy<>(fi));
+                }
+            }
+        };
+        return observer;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[]
+            exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+        MethodVisitor observer = new MethodVisitor(ASM6, mv) {
+            final Lazy<Method> transformer = new Lazy<>(() -> {
+                Class clazz = classTransformer.get();
+                if (clazz != null) {
+                    for (Method m : clazz.getMethods()) {
+                        if (m.getName().equals(name)) {
+                            if (Type.getMethodDescriptor(m).equals(descriptor)) {
+                                return m;
+                            }
+                        }
+                    }
+                }
+                return null;
+            });
+
+            final List<Lazy<AnnotationInfo>> annotations = new ArrayList<>();
+            final List<String> paramNames = new ArrayList<>();
+            final Map<Integer, Integer> paramModifiers = new HashMap<>();
+
+            @Override
+            public void visitParameter(String name, int access) {
+                super.visitParameter(name, access);
+                paramModifiers.put(paramNames.size(), access);
+                paramNames.add(name);
+            }
+
+            @Override
+            public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+                return super.visitParameterAnnotation(parameter, descriptor, visible);
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                AnnotationVisitor av = super.visitAnnotation(descriptor, visible);
+                return new AnnotationInfoVisitor(av, transformer, ClassName.of(descriptor), annotations);
+            }
+
+            @Override
+            public void visitEnd() {
+                super.visitEnd();
+                if ((ACC_SYNTHETIC & access) == 0 && !name.contains("$") && !name.contains("<")) {
+                    Type[] argumentTypes = Type.getArgumentTypes(descriptor);
+                    List<ParameterInfo> params = new ArrayList<>();
+                    for (int i = 0; i < argumentTypes.length; i++) {
+                        params.add(new ParameterInfo(i < paramNames.size() && paramNames.get(i) != null ?
+                                paramNames.get(i) : "param" + i,
+                                paramModifiers.getOrDefault(i, 0),
+                                ClassName.of(argumentTypes[i].getDescriptor()),
+                                new ArrayList<>()));
+                    }
+                    MethodInfo mi = new MethodInfo(name,
+                            access,
+                            ClassName.of(Type.getReturnType(descriptor).getDescriptor()),
+                            annotations.stream().map(Lazy::new).collect(Collectors.toList()),
+                            params,
+                            new MethodAccessor() {
+                                @Nullable
+                                @Override
+                                public Object invoke(@Nullable Object... args) throws Throwable {
+                                    throw new RuntimeException("Cannot access method before it is defined!");
+                                }
+                            });
+                    methods.put(methodKey(name, descriptor), new Lazy<>(mi));
+                }
+            }
+        };
+        return observer;
+    }
+
+    private static final class AnnotationInfoVisitor extends AnnotationVisitor {
+
+        final Lazy<? extends AnnotatedElement> holder;
+        final ClassName name;
+        final List<Lazy<AnnotationInfo>> collector;
+        final Map<String, Object> values = new HashMap<>();
+        final List<Lazy<AnnotationInfo>> nested = new ArrayList<>();
+
+        public AnnotationInfoVisitor(AnnotationVisitor annotationVisitor, Lazy<? extends AnnotatedElement> holder, ClassName name, List<Lazy<AnnotationInfo>> collector) {
+            super(ASM6, annotationVisitor);
+            this.holder = holder;
+            this.name = name;
+            this.collector = collector;
+        }
+
+        @Override
+        public void visit(String name, Object value) {
+            super.visit(name, value);
+            values.put(name, value);
+        }
+
+        @Override
+        public void visitEnum(String name, String descriptor, String value) {
+            super.visitEnum(name, descriptor, value);
+            values.put(name, value);
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name) {
+            AnnotationVisitor av = super.visitArray(name);
+            return new AnnotationVisitor(ASM6, av) {
+                final List<Object> arrayCollection = new ArrayList<>();
+                @Override
+                public void visit(String name, Object value) {
+                    super.visit(name, value);
+                    arrayCollection.add(value);
+                }
+
+                @Override
+                public void visitEnum(String name, String descriptor, String value) {
+                    super.visitEnum(name, descriptor, value);
+                    arrayCollection.add(value);
+                }
+
+                @Override
+                public AnnotationVisitor visitArray(String name) {
+                    throw new RuntimeException("Nested annotation array? Report this stacktrace!");
+                }
+
+                @Override
+                public void visitEnd() {
+                    super.visitEnd();
+                    values.put(name, arrayCollection.toArray());
+                }
+            };
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+            AnnotationVisitor av = super.visitAnnotation(name, descriptor);
+            return new AnnotationInfoVisitor(av, new Lazy<AnnotatedElement>(new Supplier<AnnotatedElement>() {
+                @Override
+                public AnnotatedElement get() {
+                    try {
+                        return Class.forName(AnnotationInfoVisitor.this.name.getFullyQualifiedName());
+                    } catch (ClassNotFoundException e) {
+                        return null;
+                    }
+                }
+            }), ClassName.of(descriptor), nested);
+        }
+
+        @Override
+        public void visitEnd() {
+            super.visitEnd();
+            LazyMap<String, FieldAccessor> accessors = new LazyMap<>(new HashMap<>(), values.keySet(), (k) -> {
+                return () -> values.get(k);
+            });
+            collector.add(new Lazy<>(() -> {
+                return new AnnotationInfo(name, accessors, nested, new Lazy<>((Supplier<Annotation>) () -> {
+                    AnnotatedElement ae = holder.get();
+                    if (ae == null)
+                        return null;
+                    for (Annotation a : ae.getAnnotations()) {
+                        if (ClassName.of(a.getClass()).equals(name)) {
+                            return a;
+                        }
+                    }
+                    return null;
+                }));
+            }));
+        }
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.asm;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import syringe.callbacks.method.ExceptionThrownCallback;
+import syringe.callbacks.method.MethodInvocationCallback;
+import syringe.callbacks.method.MethodReturnCallback;
+import syringe.callbacks.method.PrimitiveMethodInvocationCallback;
+import syringe.callbacks.method.PrimitiveMethodReturnCallback;
+import syringe.util.CallbackCollector;
+import syringe.util.ClassName;
+import syringe.util.InstrumentationSwitch;
+import syringe.util.InstrumentationSwitches;
+import syringe.util.MethodCallbacks;
+import syringe.util.PrimitiveSpecialization;
+import syringe.util.SyntheticNames;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates a final class which fans the invocation, return and exceptions of woven methods out to an ordered set of
+ * callbacks.
+ * Woven methods make a single static call into it, so their size does not depend on the number of registered
+ * visitors. The dispatcher has one static method per (erased) method shape it is called with, and reaches each
+ * callback through its own {@link CallbackSite}.
+ * <p>
+ * Every dispatch is guarded by the global {@link InstrumentationSwitch} and each callback by the switch of the visitor
+ * which provided it, so a disabled dispatch is folded away once the woven method is compiled.
+ */
+final class CompositeDispatcher {
+
+    private static final String PREFIX = "(Lsyringe/info/ClassInfo;Lsyringe/info/MethodInfo;Ljava/lang/Object;";
+    private static final String ARGUMENTS = "syringe/util/Arguments";
+    private static final Type OBJECT = Type.getType(Object.class);
+
+    private final String name;
+    private final List<Object> invocationCallbacks = new ArrayList<>();
+    private final List<CallbackSite> invocationSites = new ArrayList<>();
+    private final List<InstrumentationSwitch> invocationSwitches = new ArrayList<>();
+    private final List<Object> returnCallbacks = new ArrayList<>();
+    private final List<CallbackSite> returnSites = new ArrayList<>();
+    private final List<InstrumentationSwitch> returnSwitches = new ArrayList<>();
+    private final List<CallbackSite> exceptionSites = new ArrayList<>();
+    private final List<InstrumentationSwitch> exceptionSwitches = new ArrayList<>();
+    private final InstrumentationSwitch globalSwitch;
+    private final SyntheticNames names;
+    private final Registrations registrations;
+    private final SwitchGuard guard;
+    private final Map<String, String> queuedInitializers = new LinkedHashMap<>();
+    private final Map<String, String> registryKeys = new HashMap<>();
+    private final Set<String> invocationShapes = new LinkedHashSet<>();
+    private final Set<String> returnShapes = new LinkedHashSet<>();
+    private final Set<String> exceptionShapes = new LinkedHashSet<>();
+
+    /**
+     * @param name The internal name of the dispatcher class.
+     * @param names The names of the members of the dispatcher, in the namespace of the woven class.
+     * @param cc The collector the callbacks were selected from.
+     */
+    CompositeDispatcher(String name, SyntheticNames names, DispatchMode dispatchMode, CallbackCollector cc, MethodCallbacks callbacks,
+                        InstrumentationSwitches switches, Registrations registrations) {
+        this.name = name;
+        this.registrations = registrations;
+        this.names = names;
+        this.guard = new SwitchGuard(names, registrations);
+        this.globalSwitch = switches.global();
+        for (MethodInvocationCallback mic : callbacks.getInvocationCallbacks()) {
+            invocationCallbacks.add(mic);
+            invocationSwitches.add(switches.forVisitor(cc.getVisitor(mic)));
+            invocationSites.add(addCallback(dispatchMode, mic instanceof PrimitiveMethodInvocationCallback ?
+                    PrimitiveMethodInvocationCallback.class : MethodInvocationCallback.class, mic));
+        }
+        for (MethodReturnCallback mrc : callbacks.getReturnCallbacks()) {
+            returnCallbacks.add(mrc);
+            returnSwitches.add(switches.forVisitor(cc.getVisitor(mrc)));
+            returnSites.add(addCallback(dispatchMode, mrc instanceof PrimitiveMethodReturnCallback ?
+                    PrimitiveMethodReturnCallback.class : MethodReturnCallback.class, mrc));
+        }
+        for (ExceptionThrownCallback etc : callbacks.getExceptionThrownCallbacks()) {
+            exceptionSwitches.add(switches.forVisitor(cc.getVisitor(etc)));
+            exceptionSites.add(addCallback(dispatchMode, ExceptionThrownCallback.class, etc));
+        }
+    }
+
+    private CallbackSite addCallback(DispatchMode dispatchMode, Class<?> callbackType, Object callback) {
+        String field = names.next(callbackType);
+        String key = registrations.register(names.key(field), callback);
+        if (dispatchMode == DispatchMode.INVOKEDYNAMIC)
+            return new CallbackSite(name, callbackType, key, true);
+        queuedInitializers.put(field, ClassName.of(callbackType).getAsInternalTypeName());
+        registryKeys.put(field, key);
+        return new CallbackSite(name, callbackType, field, false);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean hasInvocationCallbacks() {
+        return !invocationCallbacks.isEmpty();
+    }
+
+    boolean hasReturnCallbacks() {
+        return !returnCallbacks.isEmpty();
+    }
+
+    boolean hasExceptionCallbacks() {
+        return !exceptionSites.isEmpty();
+    }
+
+    private static Type erase(Type type) {
+        return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY ? OBJECT : type;
+    }
+
+    private static String parameters(Type[] argumentTypes) {
+        StringBuilder sb = new StringBuilder(PREFIX);
+        for (Type argumentType : argumentTypes) {
+            sb.append(erase(argumentType).getDescriptor());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Emits the call dispatching a method invocation. The class info, method info, instance (or null) and every
+     * argument of the woven method must be on the stack.
+     *
+     * @param descriptor The descriptor of the woven method.
+     */
+    void invokeInvocation(MethodVisitor mv, String descriptor) {
+        String shape = parameters(Type.getArgumentTypes(descriptor)) + ")V";
+        invocationShapes.add(shape);
+        mv.visitMethodInsn(INVOKESTATIC, name, "invoke", shape, false);
+    }
+
+    /**
+     * Emits the call dispatching a method return. The class info, method info, instance (or null), every argument of
+     * the woven method and its return value (if not void) must be on the stack. It is replaced by the return value
+     * provided by the callbacks.
+     *
+     * @param descriptor The descriptor of the woven method.
+     */
+    void invokeReturn(MethodVisitor mv, String descriptor) {
+        Type returnType = Type.getReturnType(descriptor);
+        Type erased = erase(returnType);
+        String shape = parameters(Type.getArgumentTypes(descriptor))
+                + (returnType.getSort() == Type.VOID ? "" : erased.getDescriptor()) + ")" + erased.getDescriptor();
+        returnShapes.add(shape);
+        mv.visitMethodInsn(INVOKESTATIC, name, "ret", shape, false);
+        if (erased != returnType && !returnType.equals(OBJECT)) {
+            mv.visitTypeInsn(CHECKCAST, returnType.getInternalName());
+        }
+    }
+
+    /**
+     * Emits the call dispatching an exception thrown out of a method. The class info, method info and exception must
+     * be on the stack. It is replaced by the value the method returns instead (if not void), or the exception is
+     * rethrown if no callback was called.
+     *
+     * @param descriptor The descriptor of the woven method.
+     */
+    void invokeException(MethodVisitor mv, String descriptor) {
+        Type returnType = Type.getReturnType(descriptor);
+        Type erased = erase(returnType);
+        String shape = "(Lsyringe/info/ClassInfo;Lsyringe/info/MethodInfo;Ljava/lang/Throwable;)"
+                + erased.getDescriptor();
+        exceptionShapes.add(shape);
+        mv.visitMethodInsn(INVOKESTATIC, name, "thrown", shape, false);
+        if (erased != returnType && !returnType.equals(OBJECT)) {
+            mv.visitTypeInsn(CHECKCAST, returnType.getInternalName());
+        }
+    }
+
+    byte[] generate(ClassWriter cw) {
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, name, null, "java/lang/Object", null);
+        cw.visitSource("DUMMY.java", null);
+
+        queuedInitializers.forEach((k, v) -> {
+            cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC, k, v, null, null).visitEnd();
+        });
+        if (!queuedInitializers.isEmpty()) {
+            MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+            mv.visitCode();
+            queuedInitializers.forEach((k, v) -> {
+                mv.visitLdcInsn(registryKeys.get(k));
+                mv.visitMethodInsn(INVOKESTATIC, ClassName.of(GlobalRegistry.class).getAsSlashNotation(), "get",
+                        "(Ljava/lang/String;)Ljava/lang/Object;", false);
+                mv.visitTypeInsn(CHECKCAST, v.substring(1, v.length() - 1)); //Strip L and ;
+                mv.visitFieldInsn(PUTSTATIC, name, k, v);
+            });
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        for (String shape : invocationShapes) {
+            generateInvocation(cw, shape);
+        }
+        for (String shape : returnShapes) {
+            generateReturn(cw, shape);
+        }
+        for (String shape : exceptionShapes) {
+            generateException(cw, shape);
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static List<ClassName> classNames(Type[] types) {
+        List<ClassName> names = new ArrayList<>();
+        for (Type type : types) {
+            names.add(ClassName.of(type.getDescriptor()));
+        }
+        return names;
+    }
+
+    private static void loadCommonArguments(MethodVisitor mv) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+    }
+
+    private static void loadArguments(MethodVisitor mv, Type[] argumentTypes) {
+        int slot = 3;
+        for (Type argumentType : argumentTypes) {
+            mv.visitVarInsn(argumentType.getOpcode(ILOAD), slot);
+            slot += argumentType.getSize();
+        }
+    }
+
+    /**
+     * @return The first local variable slot after the class info, method info, instance and the given arguments.
+     */
+    private static int nextLocal(Type[] argumentTypes) {
+        int slot = 3;
+        for (Type argumentType : argumentTypes) {
+            slot += argumentType.getSize();
+        }
+        return slot;
+    }
+
+    /**
+     * Stores an {@link syringe.util.Arguments} view of the woven method arguments, shared by every generic callback.
+     */
+    private static void storeArguments(MethodVisitor mv, Type[] argumentTypes, int local) {
+        if (argumentTypes.length == 0) {
+            mv.visitMethodInsn(INVOKESTATIC, ARGUMENTS, "empty", "()L" + ARGUMENTS + ";", false);
+            mv.visitVarInsn(ASTORE, local);
+            return;
+        }
+        mv.visitTypeInsn(NEW, ARGUMENTS);
+        mv.visitInsn(DUP);
+        mv.visitLdcInsn(argumentTypes.length);
+        mv.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+        int slot = 3;
+        for (int i = 0; i < argumentTypes.length; i++) {
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn(i);
+            mv.visitVarInsn(argumentTypes[i].getOpcode(ILOAD), slot);
+            box(mv, argumentTypes[i]);
+            mv.visitInsn(AASTORE);
+            slot += argumentTypes[i].getSize();
+        }
+        mv.visitMethodInsn(INVOKESPECIAL, ARGUMENTS, "<init>", "([Ljava/lang/Object;)V", false);
+        mv.visitVarInsn(ASTORE, local);
+    }
+
+    private void generateInvocation(ClassWriter cw, String shape) {
+        Type[] parameterTypes = Type.getArgumentTypes(shape);
+        Type[] argumentTypes = Arrays.copyOfRange(parameterTypes, 3, parameterTypes.length);
+        List<ClassName> params = classNames(argumentTypes);
+        boolean specializable = PrimitiveSpecialization.isInvocationSpecializable(params);
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "invoke", shape, null,
+                new String[]{"java/lang/Throwable"});
+        mv.visitCode();
+        Label end = new Label();
+        guard.jumpIfDisabled(mv, globalSwitch, end);
+        int argumentsLocal = nextLocal(argumentTypes);
+        if (!specializable || !invocationCallbacks.stream().allMatch(PrimitiveMethodInvocationCallback.class::isInstance)) {
+            storeArguments(mv, argumentTypes, argumentsLocal);
+        }
+        for (int i = 0; i < invocationCallbacks.size(); i++) {
+            CallbackSite site = invocationSites.get(i);
+            Label skip = new Label();
+            guard.jumpIfDisabled(mv, invocationSwitches.get(i), skip);
+            site.loadReceiver(mv);
+            loadCommonArguments(mv);
+            if (specializable && invocationCallbacks.get(i) instanceof PrimitiveMethodInvocationCallback) {
+                loadArguments(mv, argumentTypes);
+                site.invoke(mv, "call", PrimitiveSpecialization.invocationDescriptor(params));
+            } else {
+                mv.visitVarInsn(ALOAD, argumentsLocal);
+                site.invoke(mv, "call", PREFIX + "L" + ARGUMENTS + ";)Ljava/lang/Object;");
+                mv.visitInsn(POP);
+            }
+            mv.visitLabel(skip);
+        }
+        mv.visitLabel(end);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private void generateReturn(ClassWriter cw, String shape) {
+        Type[] parameterTypes = Type.getArgumentTypes(shape);
+        Type returnType = Type.getReturnType(shape);
+        boolean isVoid = returnType.getSort() == Type.VOID;
+        Type[] argumentTypes = Arrays.copyOfRange(parameterTypes, 3, parameterTypes.length - (isVoid ? 0 : 1));
+        List<ClassName> params = classNames(argumentTypes);
+        boolean specializable = PrimitiveSpecialization.isReturnSpecializable(params,
+                ClassName.of(returnType.getDescriptor()));
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "ret", shape, null,
+                new String[]{"java/lang/Throwable"});
+        mv.visitCode();
+        Label end = new Label();
+        guard.jumpIfDisabled(mv, globalSwitch, end);
+        int returnLocal = nextLocal(argumentTypes);
+        int argumentsLocal = returnLocal + returnType.getSize();
+        if (!specializable || !returnCallbacks.stream().allMatch(PrimitiveMethodReturnCallback.class::isInstance)) {
+            storeArguments(mv, argumentTypes, argumentsLocal);
+        }
+        for (int i = 0; i < returnCallbacks.size(); i++) {
+            CallbackSite site = returnSites.get(i);
+            Label skip = new Label();
+            guard.jumpIfDisabled(mv, returnSwitches.get(i), skip);
+            if (specializable && returnCallbacks.get(i) instanceof PrimitiveMethodReturnCallback) {
+                site.loadReceiver(mv);
+                loadCommonArguments(mv);
+                loadArguments(mv, argumentTypes);
+                mv.visitVarInsn(returnType.getOpcode(ILOAD), returnLocal);
+                site.invoke(mv, "call", PrimitiveSpecialization.returnDescriptor(params,
+                        ClassName.of(returnType.getDescriptor())));
+                mv.visitVarInsn(returnType.getOpcode(ISTORE), returnLocal);
+            } else {
+                site.loadReceiver(mv);
+                loadCommonArguments(mv);
+                mv.visitVarInsn(ALOAD, argumentsLocal);
+                if (isVoid) {
+                    mv.visitInsn(ACONST_NULL);
+                } else {
+                    mv.visitVarInsn(returnType.getOpcode(ILOAD), returnLocal);
+                    box(mv, returnType);
+                }
+                site.invoke(mv, "call", PREFIX + "L" + ARGUMENTS + ";Ljava/lang/Object;)Ljava/lang/Object;");
+                if (isVoid) {
+                    mv.visitInsn(POP);
+                } else if (wrapperFor(returnType) != null) { //Null keeps the original return value
+                    Label keep = new Label();
+                    Label stored = new Label();
+                    mv.visitInsn(DUP);
+                    mv.visitJumpInsn(IFNULL, keep);
+                    unbox(mv, returnType);
+                    mv.visitVarInsn(returnType.getOpcode(ISTORE), returnLocal);
+                    mv.visitJumpInsn(GOTO, stored);
+                    mv.visitLabel(keep);
+                    mv.visitInsn(POP);
+                    mv.visitLabel(stored);
+                } else {
+                    unbox(mv, returnType);
+                    mv.visitVarInsn(returnType.getOpcode(ISTORE), returnLocal);
+                }
+            }
+            mv.visitLabel(skip);
+        }
+        mv.visitLabel(end);
+        if (isVoid) {
+            mv.visitInsn(RETURN);
+        } else {
+            mv.visitVarInsn(returnType.getOpcode(ILOAD), returnLocal);
+            mv.visitInsn(returnType.getOpcode(IRETURN));
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * As with the Javassist backend, every callback is handed the exception, and the value returned by the last one
+     * replaces it.
+     */
+    private void generateException(ClassWriter cw, String shape) {
+        Type returnType = Type.getReturnType(shape);
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "thrown", shape, null,
+                new String[]{"java/lang/Throwable"});
+        mv.visitCode();
+        int resultLocal = 3;
+        int handledLocal = 4;
+        mv.visitInsn(ACONST_NULL);
+        mv.visitVarInsn(ASTORE, resultLocal);
+        mv.visitInsn(ICONST_0);
+        mv.visitVarInsn(ISTORE, handledLocal);
+        Label end = new Label();
+        guard.jumpIfDisabled(mv, globalSwitch, end);
+        for (int i = 0; i < exceptionSites.size(); i++) {
+            CallbackSite site = exceptionSites.get(i);
+            Label skip = new Label();
+            guard.jumpIfDisabled(mv, exceptionSwitches.get(i), skip);
+            site.loadReceiver(mv);
+            loadCommonArguments(mv);
+            site.invoke(mv, "exceptionThrown",
+                    "(Lsyringe/info/ClassInfo;Lsyringe/info/MethodInfo;Ljava/lang/Throwable;)Ljava/lang/Object;");
+            mv.visitVarInsn(ASTORE, resultLocal);
+            mv.visitInsn(ICONST_1);
+            mv.visitVarInsn(ISTORE, handledLocal);
+            mv.visitLabel(skip);
+        }
+        mv.visitLabel(end);
+        Label handled = new Label();
+        mv.visitVarInsn(ILOAD, handledLocal);
+        mv.visitJumpInsn(IFNE, handled);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitInsn(ATHROW);
+        mv.visitLabel(handled);
+        if (returnType.getSort() == Type.VOID) {
+            mv.visitInsn(RETURN);
+        } else {
+            mv.visitVarInsn(ALOAD, resultLocal);
+            unbox(mv, returnType);
+            mv.visitInsn(returnType.getOpcode(IRETURN));
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    static void box(MethodVisitor mv, Type type) {
+        String wrapper = wrapperFor(type);
+        if (wrapper != null) {
+            mv.visitMethodInsn(INVOKESTATIC, wrapper, "valueOf", "(" + type.getDescriptor() + ")L" + wrapper + ";",
+                    false);
+        }
+    }
+
+    static void unbox(MethodVisitor mv, Type type) {
+        String wrapper = wrapperFor(type);
+        if (wrapper != null) {
+            mv.visitTypeInsn(CHECKCAST, wrapper);
+            mv.visitMethodInsn(INVOKEVIRTUAL, wrapper, type.getClassName() + "Value", "()" + type.getDescriptor(),
+                    false);
+        } else if (!type.getInternalName().equals("java/lang/Object")) {
+            mv.visitTypeInsn(CHECKCAST, type.getInternalName());
+        }
+    }
+
+    @Nullable
+    private static String wrapperFor(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return "java/lang/Boolean";
+            case Type.CHAR:
+                return "java/lang/Character";
+            case Type.BYTE:
+                return "java/lang/Byte";
+            case Type.SHORT:
+                return "java/lang/Short";
+            case Type.INT:
+                return "java/lang/Integer";
+            case Type.FLOAT:
+                return "java/lang/Float";
+            case Type.LONG:
+                return "java/lang/Long";
+            case Type.DOUBLE:
+                return "java/lang/Double";
+            default:
+                return null;
+        }
+    }
+}
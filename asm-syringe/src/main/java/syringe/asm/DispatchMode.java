@@ -0,0 +1,37 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.asm;
+
+/**
+ * Controls how woven code reaches the callbacks provided by registered visitors.
+ */
+public enum DispatchMode {
+
+    /**
+     * Each callback is stored in a synthetic static field of the woven class and invoked through its callback
+     * interface. This works on every class file version.
+     */
+    STATIC_FIELD,
+
+    /**
+     * Each callback invocation is emitted as an invokedynamic instruction which {@link CallbackBootstrap} links to a
+     * constant call site bound to the concrete callback instance. This allows the JIT to inline callback bodies into
+     * the woven method. Class files older than Java 7 fall back to {@link #STATIC_FIELD}.
+     */
+    INVOKEDYNAMIC
+}
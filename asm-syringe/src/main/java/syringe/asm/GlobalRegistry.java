@@ -18,21 +18,56 @@
 package syringe.asm;
 
 import javax.annotation.Nullable;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Hands values to woven classes by key. Keys are qualified by a hash of the class file and of what it was woven with
+ * (see {@link syringe.util.SyntheticNames}), so values registered under the same key stand for the same thing, and
+ * weaving a class again yields the same keys. Every registration is counted, so each copy of a class which is defined
+ * more than once picks its values up, and the last value registered under a key is the one handed out.
+ */
 public final class GlobalRegistry {
 
     private GlobalRegistry() {}
 
-    private static final Map<String, Object> registry = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Registered> registry = new ConcurrentHashMap<>();
 
     public static void register(String k, @Nullable Object o) {
-        registry.put(k, o);
+        registry.compute(k, (key, registered) -> new Registered(o, registered == null ? 1 : registered.count + 1));
     }
 
+    /**
+     * Retrieves an object for one of its registrations, removing it once every registration has been.
+     */
     @Nullable
     public static Object get(String k) {
-        return registry.remove(k);
+        Object[] value = new Object[1];
+        registry.computeIfPresent(k, (key, registered) -> {
+            value[0] = registered.value;
+            return registered.count == 1 ? null : new Registered(registered.value, registered.count - 1);
+        });
+        return value[0];
+    }
+
+    /**
+     * Retrieves an object without removing it, for lookups which may happen more than once (i.e. call site linkage).
+     */
+    @Nullable
+    public static Object peek(String k) {
+        Registered registered = registry.get(k);
+        return registered == null ? null : registered.value;
+    }
+
+    private static final class Registered {
+
+        @Nullable
+        final Object value;
+        final int count;
+
+        Registered(@Nullable Object value, int count) {
+            this.value = value;
+            this.count = count;
+        }
     }
 }
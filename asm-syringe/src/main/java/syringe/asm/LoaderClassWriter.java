@@ -0,0 +1,83 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.asm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A {@link ClassWriter} which computes frames from the class files of a class loader, rather than by loading the
+ * classes involved. This is required while a class is being defined, when loading the classes it refers to could
+ * recurse into it, and while it is compiled, when the classes it refers to may not exist yet.
+ */
+final class LoaderClassWriter extends ClassWriter {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    private final Function<String, String> superNameReader;
+    private final Map<String, String> superNames = new HashMap<>();
+
+    LoaderClassWriter(@Nullable ClassReader classReader, int flags, ClassLoader loader) {
+        this(classReader, flags, type -> readSuperName(loader, type));
+    }
+
+    /**
+     * @param superNameReader Returns the internal name of the super class of a type, given its internal name.
+     */
+    LoaderClassWriter(@Nullable ClassReader classReader, int flags, Function<String, String> superNameReader) {
+        super(classReader, flags);
+        this.superNameReader = superNameReader;
+    }
+
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+        Set<String> supers = new HashSet<>();
+        for (String type = type1; type != null; type = superName(type)) {
+            supers.add(type);
+        }
+        for (String type = type2; type != null; type = superName(type)) {
+            if (supers.contains(type))
+                return type;
+        }
+        return OBJECT; //Interfaces only have Object as a super class
+    }
+
+    @Nullable
+    private String superName(String type) {
+        return type.equals(OBJECT) ? null : superNames.computeIfAbsent(type, superNameReader);
+    }
+
+    static String readSuperName(ClassLoader loader, String type) {
+        try (InputStream in = loader.getResourceAsStream(type + ".class")) {
+            if (in == null)
+                throw new TypeNotPresentException(type.replace('/', '.'), null);
+            return new ClassReader(in).getSuperName();
+        } catch (IOException e) {
+            throw new TypeNotPresentException(type.replace('/', '.'), e);
+        }
+    }
+}
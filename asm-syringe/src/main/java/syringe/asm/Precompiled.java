@@ -0,0 +1,220 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.asm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import syringe.callbacks.clazz.ClassAnnotationCallback;
+import syringe.callbacks.clazz.ClassDefinitionCallback;
+import syringe.util.CallbackCollector;
+import syringe.util.InstrumentationSwitches;
+import syringe.util.RegistryRecipes;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The runtime of classes woven at compile time (see {@link AsmSyringe#precompile}). Their class initializer hands
+ * the visitors they were woven with and the recipes of the values they expect in the {@link GlobalRegistry} to
+ * {@link #restore(Class, String[])}, which registers the values again. The visitors are instantiated once by class
+ * name.
+ */
+public final class Precompiled {
+
+    /**
+     * The number of characters of the recipes held by each string constant. Characters past 0x7F take two bytes in a
+     * class file, whose string constants may not exceed 65535 bytes.
+     */
+    private static final int CHUNK_LENGTH = 0x7FFF;
+
+    private static final InstrumentationSwitches switches = new InstrumentationSwitches();
+    private static final Map<Class<?>, Object> visitors = new ConcurrentHashMap<>();
+
+    private Precompiled() {}
+
+    /**
+     * Registers the values a class woven at compile time expects, and runs the callbacks which would have been called
+     * while weaving it. Called by the class initializer of the class.
+     *
+     * @param recipes The visitors and recipes written by {@link #describe}, split over several strings.
+     */
+    public static void restore(Class<?> clazz, String[] recipes) {
+        List<syringe.visitor.ClassVisitor> cvs = new ArrayList<>();
+        List<syringe.visitor.MethodVisitor> mvs = new ArrayList<>();
+        byte[] values;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                String.join("", recipes).getBytes(StandardCharsets.ISO_8859_1)))) {
+            for (int i = in.readUnsignedShort(); i > 0; i--) {
+                cvs.add((syringe.visitor.ClassVisitor) visitor(clazz, in.readUTF()));
+            }
+            for (int i = in.readUnsignedShort(); i > 0; i--) {
+                mvs.add((syringe.visitor.MethodVisitor) visitor(clazz, in.readUTF()));
+            }
+            values = in.readAllBytes();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        ClassInfoCollector info = new ClassInfoCollector(null);
+        String classfile = clazz.getName().substring(clazz.getName().lastIndexOf('.') + 1) + ".class";
+        try (InputStream in = clazz.getResourceAsStream(classfile)) {
+            if (in == null)
+                throw new IllegalStateException("Could not find the class file of " + clazz.getName());
+            new ClassReader(in).accept(info, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        Map<String, Object> resolved = new RegistryRecipes(cvs, mvs, switches).resolve(values, info::build);
+        if (resolved == null)
+            throw new IllegalStateException("The visitors of " + clazz.getName() + " changed since it was compiled");
+        resolved.forEach(GlobalRegistry::register);
+
+        CallbackCollector scoped = new CallbackCollector(cvs, mvs).forClass(info.getName(), info.getModifiers(),
+                info.getAnnotationTypes());
+        for (ClassAnnotationCallback cac : scoped.getClassAnnotationCallbacks()) {
+            cac.annotations(info.build(), info.getAnnotations());
+        }
+        for (ClassDefinitionCallback cdc : scoped.getClassDefinitionCallbacks()) {
+            cdc.construction(info.build());
+        }
+    }
+
+    private static Object visitor(Class<?> clazz, String name) {
+        try {
+            Class<?> type = Class.forName(name, true, clazz.getClassLoader());
+            return visitors.computeIfAbsent(type, Precompiled::instantiate);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Object instantiate(Class<?> type) {
+        try {
+            return type.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Enables or disables all callbacks woven at compile time.
+     */
+    public static void setEnabled(boolean enabled) {
+        switches.global().setEnabled(enabled);
+    }
+
+    public static boolean isEnabled() {
+        return switches.global().isEnabled();
+    }
+
+    /**
+     * Enables or disables the callbacks provided by the visitors of the given type, which classes woven at compile
+     * time share.
+     */
+    public static void setEnabled(Class<?> visitorType, boolean enabled) {
+        switches.forVisitor(visitors.computeIfAbsent(visitorType, Precompiled::instantiate)).setEnabled(enabled);
+    }
+
+    public static boolean isEnabled(Class<?> visitorType) {
+        return switches.forVisitor(visitors.computeIfAbsent(visitorType, Precompiled::instantiate)).isEnabled();
+    }
+
+    /**
+     * @return The visitors, by class name, followed by the recipes, as a string of one byte characters. The visitors
+     * must have a public constructor without parameters.
+     */
+    static String describe(List<syringe.visitor.ClassVisitor> cvs, List<syringe.visitor.MethodVisitor> mvs,
+                           byte[] recipes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeShort(cvs.size());
+            for (Object cv : cvs) {
+                out.writeUTF(name(cv));
+            }
+            out.writeShort(mvs.size());
+            for (Object mv : mvs) {
+                out.writeUTF(name(mv));
+            }
+            out.write(recipes);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    private static String name(Object visitor) {
+        try {
+            visitor.getClass().getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(visitor.getClass().getName()
+                    + " cannot be instantiated when classes woven at compile time are loaded", e);
+        }
+        return visitor.getClass().getName();
+    }
+
+    /**
+     * Prefixes the class initializer of a woven class, which has one, with the call to
+     * {@link #restore(Class, String[])}. The recipes are split over as many string constants as they need.
+     */
+    static byte[] restoreOnInit(byte[] woven, String recipes) {
+        ClassReader reader = new ClassReader(woven);
+        ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(new ClassVisitor(Opcodes.ASM6, writer) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                             String[] exceptions) {
+                MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+                if (!name.equals("<clinit>"))
+                    return mv;
+                return new MethodVisitor(Opcodes.ASM6, mv) {
+                    @Override
+                    public void visitCode() {
+                        super.visitCode();
+                        visitLdcInsn(Type.getObjectType(reader.getClassName()));
+                        int chunks = (recipes.length() + CHUNK_LENGTH - 1) / CHUNK_LENGTH;
+                        visitLdcInsn(chunks);
+                        visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/String");
+                        for (int i = 0; i < chunks; i++) {
+                            visitInsn(Opcodes.DUP);
+                            visitLdcInsn(i);
+                            visitLdcInsn(recipes.substring(i * CHUNK_LENGTH,
+                                    Math.min(recipes.length(), (i + 1) * CHUNK_LENGTH)));
+                            visitInsn(Opcodes.AASTORE);
+                        }
+                        visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Precompiled.class), "restore",
+                                "(Ljava/lang/Class;[Ljava/lang/String;)V", false);
+                    }
+
+                    @Override
+                    public void visitMaxs(int maxStack, int maxLocals) {
+                        super.visitMaxs(Math.max(maxStack, 5), maxLocals);
+                    }
+                };
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.asm;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import syringe.util.ClassName;
+import syringe.util.InstrumentationSwitch;
+import syringe.util.SyntheticNames;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Emits the checks which skip callbacks while their {@link InstrumentationSwitch} is off. A switch is read through an
+ * invokedynamic call site linked to its {@link java.lang.invoke.MutableCallSite}, so compiled code treats it as a
+ * constant and a disabled callback costs nothing until the switch is flipped again.
+ */
+final class SwitchGuard {
+
+    private static final Handle BOOTSTRAP = new Handle(H_INVOKESTATIC,
+            ClassName.of(CallbackBootstrap.class).getAsSlashNotation(),
+            "guard",
+            MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class,
+                    String.class).toMethodDescriptorString(),
+            false);
+
+    private final SyntheticNames names;
+    private final Registrations registrations;
+    private final Map<InstrumentationSwitch, String> keys = new IdentityHashMap<>();
+
+    /**
+     * @param names The names of the class the checks are emitted in.
+     */
+    SwitchGuard(SyntheticNames names, Registrations registrations) {
+        this.names = names;
+        this.registrations = registrations;
+    }
+
+    /**
+     * Emits a jump to the given label when the switch is off. The method must belong to a class of version 1.7 or
+     * later.
+     */
+    void jumpIfDisabled(MethodVisitor mv, InstrumentationSwitch instrumentationSwitch, Label disabled) {
+        String key = keys.computeIfAbsent(instrumentationSwitch,
+                s -> registrations.register(names.key(names.next(InstrumentationSwitch.class)), s));
+        mv.visitInvokeDynamicInsn("enabled", "()Z", BOOTSTRAP, key);
+        mv.visitJumpInsn(IFEQ, disabled);
+    }
+}
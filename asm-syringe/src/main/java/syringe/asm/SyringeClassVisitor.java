@@ -18,67 +18,167 @@
 package syringe.asm;
 
 import org.objectweb.asm.*;
-import syringe.access.FieldAccessor;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.MethodNode;
+import syringe.access.AccessorTable;
+import syringe.access.MemberAccess;
 import syringe.util.LazyMap;
-import syringe.access.MethodAccessor;
 import syringe.callbacks.clazz.ClassAnnotationCallback;
 import syringe.callbacks.clazz.ClassDefinitionCallback;
 import syringe.callbacks.clazz.ClassInitializerCallback;
 import syringe.info.*;
 import syringe.util.CallbackCollector;
 import syringe.util.ClassName;
+import syringe.util.ClassWeave;
+import syringe.util.InstrumentationSwitch;
+import syringe.util.InstrumentationSwitches;
 import syringe.util.Lazy;
-import syringe.util.RandomNameGenerator;
+import syringe.util.MethodCallbacks;
+import syringe.util.SyntheticNames;
+import syringe.util.WeaveMetrics;
+import syringe.util.WeavingPolicy;
 
 import javax.annotation.Nullable;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.AnnotatedElement;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Modifier;
 import java.util.*;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
-//TODO: wrap primitives with their wrappers (i.e. Integer.valueOf) when passed to hooks
-//TODO: wire up: ClassInitializerCallback, FieldDefinitionCallback, MethodDefinitionCallback,
-//TODO: ExceptionThrownCallback, MethodAnnotationCallback, MethodInvocationCallback, MethodReturnCallback
+//TODO: wire up: FieldDefinitionCallback, MethodDefinitionCallback, MethodAnnotationCallback
 public final class SyringeClassVisitor extends ClassVisitor implements Opcodes {
 
-    private final CallbackCollector cc;
-    private final Map<String, String> queuedInitializers = new HashMap<>();
+    private static final Handle CONSTANT = new Handle(H_INVOKESTATIC,
+            ClassName.of(CallbackBootstrap.class).getAsSlashNotation(),
+            "constant",
+            MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class,
+                    String.class).toMethodDescriptorString(),
+            false);
+
+    private CallbackCollector cc;
+    private boolean scoped = false;
+    private final Map<String, String> queuedInitializers = new LinkedHashMap<>();
+    private final Map<String, String> registryKeys = new HashMap<>();
     private final List<Consumer<MethodVisitor>> queuedInstanceInitializers = new ArrayList<>();
+    private final List<Consumer<MethodVisitor>> queuedStaticInitializers = new ArrayList<>();
 
     private final Supplier<ClassWriter> newClassGenerator;
-
-    private boolean clinitCalled;
+    private final DispatchMode dispatchMode;
+    private final InstrumentationSwitches switches;
+    private final WeavingPolicy policy;
+    @Nullable
+    private final String generation;
+    @Nullable
+    private ClassWeave record;
+    private SyntheticNames names;
+    private String namespace = "";
+    private final Registrations registrations = new Registrations();
+    private SwitchGuard switchGuard;
+    private final Map<InstrumentationSwitch, String> switchFields = new IdentityHashMap<>();
+
+    @Nullable
+    private MethodNode clinit;
+    private final List<MethodNode> constructors = new ArrayList<>();
+    private int classVersion;
     private String selfInfoAddress;
-    private final List<String> classInitializerCallbacks = new ArrayList<>();
+    private final List<CallbackSite> classInitializerCallbacks = new ArrayList<>();
+    private final List<InstrumentationSwitch> classInitializerSwitches = new ArrayList<>();
+    private final Map<MethodCallbacks, CompositeDispatcher> methodDispatchers = new LinkedHashMap<>();
 
     private ClassName selfName;
-    private Lazy<Class> classTransformer;
     private int modifiers;
-    private final Map<String, Lazy<FieldInfo>> fields = new HashMap<>();
-    private final Map<String, Lazy<MethodInfo>> methods = new HashMap<>();
-    private final List<Lazy<AnnotationInfo>> annotations = new ArrayList<>();
-    private final List<ClassName> extendsList = new ArrayList<>();
+    private final ClassInfoCollector info;
 
-    private final Map<String, byte[]> needsLoading = new HashMap<>();
-    private final Map<String, String> field2AccessorType = new HashMap<>();
-    private final Map<String, String> method2AccessorType = new HashMap<>();
+    private final Map<String, byte[]> needsLoading = new LinkedHashMap<>();
+    private String accessorName;
+    private String accessorTableAddress;
+    private final List<Member> accessibleFields = new ArrayList<>();
+    private final List<Member> accessibleMethods = new ArrayList<>();
 
     public SyringeClassVisitor(ClassVisitor cv, CallbackCollector cc, Supplier<ClassWriter> newClassGenerator) {
-        super(ASM6, cv);
+        this(cv, cc, newClassGenerator, DispatchMode.STATIC_FIELD);
+    }
+
+    public SyringeClassVisitor(ClassVisitor cv, CallbackCollector cc, Supplier<ClassWriter> newClassGenerator,
+                               DispatchMode dispatchMode) {
+        this(cv, cc, newClassGenerator, dispatchMode, new InstrumentationSwitches());
+    }
+
+    public SyringeClassVisitor(ClassVisitor cv, CallbackCollector cc, Supplier<ClassWriter> newClassGenerator,
+                               DispatchMode dispatchMode, InstrumentationSwitches switches) {
+        this(cv, cc, newClassGenerator, dispatchMode, switches, new WeavingPolicy());
+    }
+
+    public SyringeClassVisitor(ClassVisitor cv, CallbackCollector cc, Supplier<ClassWriter> newClassGenerator,
+                               DispatchMode dispatchMode, InstrumentationSwitches switches, WeavingPolicy policy) {
+        this(cv, cc, newClassGenerator, dispatchMode, switches, policy, null);
+    }
+
+    /**
+     * @param generation If set, weaves a class which is already loaded, for
+     * {@link java.lang.instrument.Instrumentation#retransformClasses}: no member is added, so only method invocation,
+     * return and exception callbacks are woven, and the metadata they are handed is loaded through invokedynamic. The
+     * class file must be of version 1.7 or later. The generation tells the classes generated for this weave apart
+     * from those of earlier weaves of the class, which stay defined.
+     */
+    public SyringeClassVisitor(ClassVisitor cv, CallbackCollector cc, Supplier<ClassWriter> newClassGenerator,
+                               DispatchMode dispatchMode, InstrumentationSwitches switches, WeavingPolicy policy,
+                               @Nullable String generation) {
+        super(ASM6, new ClassInfoCollector(cv));
+        this.info = (ClassInfoCollector) this.cv;
         this.cc = cc;
         this.newClassGenerator = newClassGenerator;
+        this.dispatchMode = dispatchMode;
+        this.switches = switches;
+        this.policy = policy;
+        this.generation = generation;
     }
 
     public Map<String, byte[]> getNeedsLoading() {
         return needsLoading;
     }
 
+    /**
+     * Records the time spent collecting callbacks and running class definition callbacks while weaving, and what is
+     * woven.
+     */
+    public void setRecord(@Nullable ClassWeave record) {
+        this.record = record;
+    }
+
+    /**
+     * Sets the namespace of the keys of the values registered for the woven class, see
+     * {@link SyntheticNames#namespace(byte[], String)}.
+     */
+    public void setNamespace(String namespace) {
+        this.namespace = namespace;
+    }
+
+    private void time(WeaveMetrics.Phase phase, long start) {
+        if (record != null)
+            record.add(phase, System.nanoTime() - start);
+    }
+
+    /**
+     * @return The values registered in the {@link GlobalRegistry} for the woven class, by key.
+     */
+    public Map<String, Object> getRegistrations() {
+        return registrations.getValues();
+    }
+
+    /**
+     * @return The access of the static fields added to the class. Fields of interfaces must be public.
+     */
+    private int staticFieldAccess() {
+        return ((modifiers & ACC_INTERFACE) == 0 ? ACC_PRIVATE : ACC_PUBLIC) | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC;
+    }
+
     public String addStaticField(@Nullable Object instance) {
         return this.addStaticField(instance == null ? Object.class : instance.getClass(), instance);
     }
@@ -89,16 +189,15 @@ public final class SyringeClassVisitor extends ClassVisitor implements Opcodes {
      * @return The (arbitrary) name of the generated static field.
      */
     public String addStaticField(Class<?> fieldType, @Nullable Object instance) {
-        String name = RandomNameGenerator.generate(fieldType) + "_" + Objects.hashCode(instance);
-        GlobalRegistry.register(name, instance);
+        String name = names.next(fieldType);
         boolean primitive = fieldType.isPrimitive() || fieldType.equals(String.class);
-        String type = new ClassName(fieldType).getAsInternalTypeName();
-        FieldVisitor fv = visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC, name,
+        String type = ClassName.of(fieldType).getAsInternalTypeName();
+        FieldVisitor fv = visitField(staticFieldAccess(), name,
                 type,
                 null,
                 primitive ? instance : null);
         if (!primitive) { //Need to initialize by other means if not primitive or String
-            GlobalRegistry.register(name, instance);
+            registryKeys.put(name, registrations.register(names.key(name), instance));
             queuedInitializers.put(name, type); //@see visitMethod -> <clinit>
         }
         fv.visitEnd();
@@ -106,87 +205,59 @@ public final class SyringeClassVisitor extends ClassVisitor implements Opcodes {
     }
 
     public void addStaticField(Class<?> fieldType, String location) {
-        queuedInitializers.put(location, new ClassName(fieldType).getAsInternalTypeName());
-    }
-
-    public String newFieldAccessorClass(FieldInfo target) {
-        String name = "ASMSyringe$$InnerClass$$" + RandomNameGenerator.generate();
-        String innerName = selfName.getAsSlashNotation() + "$" + name;
-
-        ClassWriter cv = newClassGenerator.get();
-        boolean isStatic = Modifier.isStatic(target.getModifiers());
-        visitInnerClass(innerName, selfName.getAsSlashNotation(), name, ACC_PUBLIC | (isStatic ? ACC_STATIC : 0));
-
-        String fieldName = target.getName() + "$Accessor";
-
-        FieldVisitor fv = visitField((isStatic ? ACC_STATIC : 0) | ACC_SYNTHETIC, fieldName, new ClassName(innerName).getAsInternalTypeName(), null, null);
+        String type = ClassName.of(fieldType).getAsInternalTypeName();
+        FieldVisitor fv = visitField(staticFieldAccess(), location, type, null, null);
         fv.visitEnd();
+        queuedInitializers.put(location, type);
+    }
 
-        if (isStatic) {
-            queuedInitializers.put(fieldName, new ClassName(innerName).getAsInternalTypeName());
-        } else {
-            queuedInstanceInitializers.add(mv -> {
-                mv.visitVarInsn(ALOAD, 0);
-                mv.visitTypeInsn(NEW, innerName);
-                mv.visitInsn(DUP);
-                mv.visitVarInsn(ALOAD, 0);
-                mv.visitMethodInsn(INVOKESPECIAL, innerName, "<init>", "(" + selfName.getAsInternalTypeName() + ")V", false);
-                mv.visitFieldInsn(PUTFIELD, selfName.getAsSlashNotation(), fieldName, new ClassName(innerName).getAsInternalTypeName());
-            });
-        }
-
-        cv.visit(V1_8, ACC_PUBLIC | ACC_SUPER, innerName, null, "java/lang/Object", new String[]{new ClassName(FieldAccessor.class).getAsSlashNotation()});
-        cv.visitSource("DUMMY.java", null);
-        cv.visitInnerClass(innerName, selfName.getAsSlashNotation(), name, ACC_PUBLIC | (isStatic ? ACC_STATIC : 0));
-
-        if (!isStatic) {
-            fv = cv.visitField(ACC_FINAL | ACC_SYNTHETIC, "this$0", selfName.getAsInternalTypeName(), null, null);
-            fv.visitEnd();
-        }
-
-        MethodVisitor mv = cv.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
-        mv.visitCode();
-        Label l0 = new Label();
-        mv.visitLabel(l0);
-        if (!isStatic) {
-            mv.visitVarInsn(ALOAD, 0);
-            mv.visitVarInsn(ALOAD, 1);
-            mv.visitFieldInsn(PUTFIELD, innerName, "this$0", selfName.getAsInternalTypeName());
+    /**
+     * Adds a static final field holding the {@link MethodInfo} of a method of the current class. It is resolved once
+     * from the class' own {@link ClassInfo} during class initialization.
+     *
+     * @param methodKey The key of the method in {@link ClassInfo#getMethods()}.
+     * @return The (arbitrary) name of the generated static field.
+     */
+    public String addMethodInfoField(String methodKey) {
+        String name = names.next(MethodInfo.class);
+        if (generation != null) {
+            Lazy<?> classInfo = (Lazy<?>) GlobalRegistry.peek(registryKeys.get(selfInfoAddress));
+            return registrations.register(names.key(name), new Lazy<MethodInfo>(() ->
+                    ((ClassInfo) classInfo.get()).getMethods().get(methodKey)));
         }
-        mv.visitVarInsn(ALOAD, 0);
-        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
-        mv.visitInsn(RETURN);
-        Label l1 = new Label();
-        mv.visitLabel(l1);
-        mv.visitLocalVariable("this", new ClassName(innerName).getAsInternalTypeName(), null, l0, l1, 0);
-        if (!isStatic)
-            mv.visitLocalVariable("this$0", "Ltrash/Test;", null, l0, l1, 1);
-        mv.visitMaxs(2, 2);
-        mv.visitEnd();
+        ClassName classInfo = ClassName.of(ClassInfo.class);
+        ClassName methodInfo = ClassName.of(MethodInfo.class);
+        ClassName lazyMap = ClassName.of(LazyMap.class);
+        FieldVisitor fv = visitField(staticFieldAccess(), name,
+                methodInfo.getAsInternalTypeName(), null, null);
+        fv.visitEnd();
+        queuedStaticInitializers.add(mv -> {
+            mv.visitFieldInsn(GETSTATIC, selfName.getAsSlashNotation(), selfInfoAddress, classInfo.getAsInternalTypeName());
+            mv.visitMethodInsn(INVOKEVIRTUAL, classInfo.getAsSlashNotation(), "getMethods",
+                    "()" + lazyMap.getAsInternalTypeName(), false);
+            mv.visitLdcInsn(methodKey);
+            mv.visitMethodInsn(INVOKEVIRTUAL, lazyMap.getAsSlashNotation(), "get",
+                    "(Ljava/lang/Object;)Ljava/lang/Object;", false);
+            mv.visitTypeInsn(CHECKCAST, methodInfo.getAsSlashNotation());
+            mv.visitFieldInsn(PUTSTATIC, selfName.getAsSlashNotation(), name, methodInfo.getAsInternalTypeName());
+        });
+        return name;
+    }
 
-        mv = cv.visitMethod(ACC_PUBLIC, "get", "()Ljava/lang/Object;", null, null);
-        mv.visitCode();
-        l0 = new Label();
-        mv.visitLabel(l0);
-        if (!isStatic) {
-            mv.visitVarInsn(ALOAD, 0);
-            mv.visitFieldInsn(GETFIELD, innerName, "this$0", selfName.getAsInternalTypeName());
-            mv.visitFieldInsn(GETFIELD, selfName.getAsSlashNotation(), target.getName(), target.getType().getAsInternalTypeName());
-        } else {
-            mv.visitFieldInsn(GETSTATIC, selfName.getAsSlashNotation(), target.getName(), target.getType().getAsInternalTypeName());
+    /**
+     * Makes a callback reachable from woven code according to the current {@link DispatchMode}.
+     *
+     * @param callbackType The callback interface which will be invoked.
+     * @param callback The callback instance.
+     * @return The handle to use for emitting invocations of the callback.
+     */
+    public CallbackSite addCallback(Class<?> callbackType, Object callback) {
+        if (dispatchMode == DispatchMode.INVOKEDYNAMIC && (classVersion & 0xFFFF) >= V1_7) {
+            String key = registrations.register(names.key(names.next(callbackType)), callback);
+            return new CallbackSite(selfName.getAsSlashNotation(), callbackType, key, true);
         }
-        mv.visitInsn(Opcodes.ARETURN);
-        l1 = new Label();
-        mv.visitLabel(l1);
-        mv.visitLocalVariable("this", new ClassName(innerName).getAsInternalTypeName(), null, l0, l1, 0);
-        mv.visitMaxs(1, 1);
-        mv.visitEnd();
-
-        cv.visitEnd();
-
-        needsLoading.put(innerName, cv.toByteArray());
-        field2AccessorType.put(target.getName(), "L" + innerName + ";");
-        return fieldName;
+        return new CallbackSite(selfName.getAsSlashNotation(), callbackType, addStaticField(callbackType, callback),
+                false);
     }
 
     /**
@@ -195,180 +266,103 @@ public final class SyringeClassVisitor extends ClassVisitor implements Opcodes {
      * @return The (arbitrary) name of the generated field.
      */
     public String addInstanceField(Class<?> fieldType, BiConsumer<String, MethodVisitor> callback) {
-        String name = RandomNameGenerator.generate(fieldType) + "_instance_" + Objects.hashCode(callback);
-        String type = new ClassName(fieldType).getAsInternalTypeName();
+        String name = names.next(fieldType);
+        String type = ClassName.of(fieldType).getAsInternalTypeName();
         FieldVisitor fv = visitField(ACC_PRIVATE | ACC_FINAL | ACC_SYNTHETIC, name, type, null, null);
         fv.visitEnd();
         queuedInstanceInitializers.add(mv -> callback.accept(name, mv));
         return name;
     }
 
-    public String newMethodAccessorClass(MethodInfo target) {
-        //TODO: this is copy pasted from field
-        String name = "ASMSyringe$$InnerClass$$" + RandomNameGenerator.generate();
-        String innerName = selfName.getAsSlashNotation() + "$" + name;
-
-        ClassWriter cv = newClassGenerator.get();
-        boolean isStatic = Modifier.isStatic(target.getModifiers());
-        visitInnerClass(innerName, selfName.getAsSlashNotation(), name, ACC_PUBLIC | (isStatic ? ACC_STATIC : 0));
-
-        String methodName = target.getName() + target.getInternalTypeSignature().replace(";", "").replace("(", "").replace(")", "").replace("/", "") + "$Accessor";
-
-        FieldVisitor fv = visitField((isStatic ? ACC_STATIC : 0) | ACC_SYNTHETIC, methodName, new ClassName(innerName).getAsInternalTypeName(), null, null);
-        fv.visitEnd();
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.classVersion = version;
+        this.selfName = ClassName.of(name);
+        this.names = new SyntheticNames(name, namespace);
+        this.switchGuard = new SwitchGuard(names, registrations);
+        this.modifiers = access;
+        this.accessorName = name + "$SyringeAccessor";
+        super.visit(version, access, name, signature, superName, interfaces);
 
-        if (isStatic) {
-            queuedInitializers.put(methodName, new ClassName(innerName).getAsInternalTypeName());
-        } else {
-            queuedInstanceInitializers.add(mv -> {
-                mv.visitVarInsn(ALOAD, 0);
-                mv.visitTypeInsn(NEW, innerName);
-                mv.visitInsn(DUP);
-                mv.visitVarInsn(ALOAD, 0);
-                mv.visitMethodInsn(INVOKESPECIAL, innerName, "<init>", "(" + selfName.getAsInternalTypeName() + ")V", false);
-                mv.visitFieldInsn(PUTFIELD, selfName.getAsSlashNotation(), methodName, new ClassName(innerName).getAsInternalTypeName());
-            });
+        selfInfoAddress = names.next(ClassInfo.class);
+        if (generation == null) {
+            addStaticField(ClassInfo.class, selfInfoAddress); //@see -> visitEnd
+        } else { //Built once the class has been visited
+            registryKeys.put(selfInfoAddress, registrations.register(names.key(selfInfoAddress),
+                    new Lazy<ClassInfo>(info::build)));
         }
+    }
 
-        cv.visit(V1_8, ACC_PUBLIC | ACC_SUPER, innerName, null, "java/lang/Object", new String[]{new ClassName(FieldAccessor.class).getAsSlashNotation()});
-        cv.visitSource("DUMMY.java", null);
-        cv.visitInnerClass(innerName, selfName.getAsSlashNotation(), name, ACC_PUBLIC | (isStatic ? ACC_STATIC : 0));
-
-        if (!isStatic) {
-            fv = cv.visitField(ACC_FINAL | ACC_SYNTHETIC, "this$0", selfName.getAsInternalTypeName(), null, null);
-            fv.visitEnd();
-        }
+    /**
+     * Narrows the callbacks to the visitors matching this class. This is deferred until the class annotations have
+     * been visited, i.e. until the first member is.
+     */
+    private void scope() {
+        if (scoped)
+            return;
+        scoped = true;
+        long start = System.nanoTime();
+        cc = cc.forClass(selfName, modifiers, info.getAnnotationTypes());
+        time(WeaveMetrics.Phase.CALLBACK_COLLECTION, start);
 
-        MethodVisitor mv = cv.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
-        mv.visitCode();
-        Label l0 = new Label();
-        mv.visitLabel(l0);
-        if (!isStatic) {
-            mv.visitVarInsn(ALOAD, 0);
-            mv.visitVarInsn(ALOAD, 1);
-            mv.visitFieldInsn(PUTFIELD, innerName, "this$0", selfName.getAsInternalTypeName());
+        cc.getClassInitializerCallbacks().forEach(cic -> {
+            classInitializerCallbacks.add(addCallback(ClassInitializerCallback.class, cic));
+            classInitializerSwitches.add(switches.forVisitor(cc.getVisitor(cic)));
+        });
+        if (needsAccessors()) {
+            accessorTableAddress = names.next(AccessorTable.class);
         }
-        mv.visitVarInsn(ALOAD, 0);
-        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
-        mv.visitInsn(RETURN);
-        Label l1 = new Label();
-        mv.visitLabel(l1);
-        mv.visitLocalVariable("this", new ClassName(innerName).getAsInternalTypeName(), null, l0, l1, 0);
-        if (!isStatic)
-            mv.visitLocalVariable("this$0", "Ltrash/Test;", null, l0, l1, 1);
-        mv.visitMaxs(2, 2);
-        mv.visitEnd();
+    }
 
-        mv = cv.visitMethod(ACC_PUBLIC | ACC_VARARGS, "invoke", "([Ljava/lang/Object;)Ljava/lang/Object;", null, new String[]{"java/lang/Throwable"});
-        mv.visitCode();
-        l0 = new Label();
-        mv.visitLabel(l0);
-        if (!isStatic) {
-            mv.visitVarInsn(ALOAD, 0);
-            mv.visitFieldInsn(GETFIELD, innerName, "this$0", selfName.getAsInternalTypeName());
-        }
-        for (int i = 0; i < target.getParams().size(); i++) {
-            mv.visitVarInsn(ALOAD, 1);
-            mv.visitLdcInsn(i);
-            mv.visitInsn(AALOAD);
-        }
-        mv.visitMethodInsn(isStatic ? INVOKESTATIC : INVOKEVIRTUAL, selfName.getAsSlashNotation(), target.getName(), target.getInternalTypeSignature(), false);
-        if (target.getReturnType().getAsInternalTypeName().equals("V"))
-            mv.visitInsn(ACONST_NULL);
-        mv.visitInsn(Opcodes.ARETURN);
-        l1 = new Label();
-        mv.visitLabel(l1);
-        mv.visitLocalVariable("this", new ClassName(innerName).getAsInternalTypeName(), null, l0, l1, 0);
-        mv.visitLocalVariable("args", "[Ljava/lang/Object;", null, l0, l1, 1);
-        mv.visitMaxs(3, 2);
-        mv.visitEnd();
+    /**
+     * @return Whether members need to be reachable through the shared accessor class, i.e. if there are class
+     * initializer callbacks to hand them to.
+     */
+    private boolean needsAccessors() {
+        return (modifiers & ACC_INTERFACE) == 0 && !classInitializerCallbacks.isEmpty();
+    }
 
-        cv.visitEnd();
-
-        needsLoading.put(innerName, cv.toByteArray());
-        method2AccessorType.put(target.getName() + target.getInternalTypeSignature(), "L" + innerName + ";");
-        return methodName;
-    }
-
-    public void generateFieldAndMethodMaps(boolean fromStaticContext, MethodVisitor mv, int stackOffset) {
-        ClassName lazyMap = new ClassName(LazyMap.class);
-
-        mv.visitLabel(new Label());
-        mv.visitTypeInsn(Opcodes.NEW, "java/util/HashMap");
-        mv.visitInsn(Opcodes.DUP);
-        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/util/HashMap", "<init>", "()V", false);
-        int baseIndex = (fromStaticContext ? 0 : 1) + stackOffset;
-        mv.visitVarInsn(ASTORE, baseIndex);
-        fields.forEach((n, f) -> {
-            boolean isStatic = Modifier.isStatic(f.get().getModifiers());
-            if (!(isStatic && !fromStaticContext)) {
-                mv.visitVarInsn(ALOAD, baseIndex);
-                mv.visitLdcInsn(n);
-                String type = field2AccessorType.get(f.get().getName());
-                mv.visitFieldInsn(isStatic ? GETSTATIC : GETFIELD, selfName.getAsSlashNotation(), n + "$Accessor", type);
-                mv.visitMethodInsn(INVOKEVIRTUAL, "java/util/HashMap", "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", false);
-                mv.visitInsn(POP);
-            }
-        });
-        mv.visitTypeInsn(NEW, lazyMap.getAsSlashNotation());
-        mv.visitInsn(Opcodes.DUP);
-        mv.visitVarInsn(ALOAD, baseIndex);
-        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, lazyMap.getAsSlashNotation(), "<init>", "(Ljava/util/Map;)V", false);
-        mv.visitVarInsn(ASTORE, baseIndex); // We don't need the old map
-
-        mv.visitLabel(new Label());
-        mv.visitTypeInsn(Opcodes.NEW, "java/util/HashMap");
-        mv.visitInsn(Opcodes.DUP);
-        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/util/HashMap", "<init>", "()V", false);
-        mv.visitVarInsn(ASTORE, baseIndex+1);
-        methods.forEach((n, m) -> {
-            boolean isStatic = Modifier.isStatic(m.get().getModifiers());
-            if (!(isStatic && !fromStaticContext)) {
-                mv.visitVarInsn(ALOAD, baseIndex+1);
-                mv.visitLdcInsn(n);
-                String methodName = m.get().getName() + m.get().getInternalTypeSignature().replace(";", "").replace("(", "").replace(")", "").replace("/", "") + "$Accessor";
-                String type = method2AccessorType.get(methodName + m.get().getInternalTypeSignature());
-                mv.visitFieldInsn(isStatic ? GETSTATIC : GETFIELD, selfName.getAsSlashNotation(), methodName, type);
-                mv.visitMethodInsn(INVOKEVIRTUAL, "java/util/HashMap", "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", false);
-                mv.visitInsn(POP);
-            }
+    /**
+     * @return The dispatcher for methods woven with the given callbacks, shared by every such method of this class.
+     */
+    private CompositeDispatcher dispatcherFor(MethodCallbacks callbacks) {
+        return methodDispatchers.computeIfAbsent(callbacks, c -> {
+            String name = selfName.getAsSlashNotation() + "$SyringeDispatcher"
+                    + (generation == null ? "" : "$" + generation)
+                    + (methodDispatchers.isEmpty() ? "" : methodDispatchers.size());
+            return new CompositeDispatcher(name, names.forOwner(name), dispatchMode, cc, c, switches, registrations);
         });
-        mv.visitTypeInsn(NEW, lazyMap.getAsSlashNotation());
-        mv.visitInsn(Opcodes.DUP);
-        mv.visitVarInsn(ALOAD, baseIndex+1);
-        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, lazyMap.getAsSlashNotation(), "<init>", "(Ljava/util/Map;)V", false);
-        mv.visitVarInsn(ASTORE, baseIndex+1); // We don't need the old map
-
     }
 
-    @Override
-    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-        this.selfName = new ClassName(name);
-        this.classTransformer = new Lazy<>(() -> {
-            try {
-                return Class.forName(selfName.getFullyQualifiedName());
-            } catch (ClassNotFoundException e) {
-                return null;
-            }
-        });
-        this.modifiers = access;
-        if (superName != null) {
-            extendsList.add(new ClassName(superName));
+    /**
+     * @return The callbacks the {@link WeavingPolicy} allows to be woven into the method, given its size and shape.
+     */
+    private MethodCallbacks applyPolicy(MethodNode method, MethodCallbacks callbacks) {
+        CodeSizeEvaluator size = new CodeSizeEvaluator(null);
+        method.accept(size);
+        int returnSites = 0;
+        for (AbstractInsnNode insn : method.instructions.toArray()) {
+            if (insn.getOpcode() >= IRETURN && insn.getOpcode() <= RETURN)
+                returnSites++;
         }
-        if (interfaces != null) {
-            for (String i : interfaces) {
-                extendsList.add(new ClassName(i));
-            }
+        switch (policy.decide(selfName, method.name, method.desc, size.getMaxSize(), returnSites, callbacks)) {
+            case SKIP:
+                return new MethodCallbacks(Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+            case ENTRY_ONLY:
+                return callbacks.entryOnly();
+            default:
+                return callbacks;
         }
-        super.visit(version, access, name, signature, superName, interfaces);
-
-        selfInfoAddress = RandomNameGenerator.generate(ClassInfo.class);
-        addStaticField(ClassInfo.class, selfInfoAddress); //@see -> visitEnd
+    }
 
-        cc.getClassInitializerCallbacks().forEach(cic -> {
-            String address = addStaticField(ClassInitializerCallback.class, cic);
-            classInitializerCallbacks.add(address);
-        });
+    private static Set<ClassName> annotationTypes(@Nullable List<AnnotationNode> visible,
+                                                  @Nullable List<AnnotationNode> invisible) {
+        Set<ClassName> types = new HashSet<>();
+        if (visible != null)
+            visible.forEach(an -> types.add(ClassName.of(an.desc)));
+        if (invisible != null)
+            invisible.forEach(an -> types.add(ClassName.of(an.desc)));
+        return types;
     }
 
     @Override
@@ -388,9 +382,7 @@ public final class SyringeClassVisitor extends ClassVisitor implements Opcodes {
 
     @Override
     public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
-        AnnotationVisitor av = super.visitAnnotation(descriptor, visible);
-        ClassName name = new ClassName(descriptor);
-        return new AnnotationInfoVisitor(av, classTransformer, name, annotations);
+        return super.visitAnnotation(descriptor, visible);
     }
 
     @Override
@@ -410,297 +402,612 @@ public final class SyringeClassVisitor extends ClassVisitor implements Opcodes {
 
     @Override
     public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
-        FieldVisitor fv = super.visitField(access, name, descriptor, signature, value);
-        FieldVisitor observer = new FieldVisitor(ASM6, fv) {
-            final List<Lazy<AnnotationInfo>> annotations = new ArrayList<>();
-            final Lazy<Field> transformer = new Lazy<>(() -> {
-                Class clazz = classTransformer.get();
-                if (clazz != null) {
-                    try {
-                        return clazz.getField(name);
-                    } catch (NoSuchFieldException ignored) {}
-                }
-                return null;
-            });
-
-            @Override
-            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
-                AnnotationVisitor av = super.visitAnnotation(descriptor, visible);
-                return new AnnotationInfoVisitor(av, transformer, new ClassName(descriptor), annotations);
-            }
-
-            @Override
-            public void visitEnd() {
-                super.visitEnd();
-                if ((ACC_SYNTHETIC & access) == 0 && !name.contains("$") && !name.equals("this")) {
-                    FieldInfo fi = new FieldInfo(name,
-                            access,
-                            new ClassName(descriptor),
-                            annotations.stream().map(Lazy::new).collect(Collectors.toList()),
-                            new FieldAccessor() {
-                                @Nullable
-                                @Override
-                                public Object get() {
-                                    throw new RuntimeException("Cannot access field before it is defined!");
-                                }
-                            }, transformer);
-                    fields.put(name, new Lazy<>(fi));
-                    newFieldAccessorClass(fi);
-                }
-            }
-        };
-        return observer;
+        scope();
+        if (needsAccessors() && (ACC_SYNTHETIC & access) == 0 && !name.contains("$") && !name.equals("this"))
+            accessibleFields.add(new Member(name, access, descriptor));
+        return super.visitField(access, name, descriptor, signature, value);
     }
 
-    @Override //TODO: Delay <init> and <clint> until end of class declaration
+    @Override
     public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[]
             exceptions) {
-        MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
-
-        MethodVisitor observer = new MethodVisitor(ASM6, mv) {
-            final Lazy<Method> transformer = new Lazy<>(() -> {
-                Class clazz = classTransformer.get();
-                if (clazz != null) {
-                    for (Method m : clazz.getMethods()) {
-                        if (m.getName().equals(name)) {
-                            if (Type.getMethodDescriptor(m).equals(descriptor)) {
-                                return m;
-                            }
-                        }
+        scope();
+        if (name.equals("<clinit>")) {
+            //Buffered until visitEnd, as woven methods may still queue static initializers
+            clinit = new MethodNode(ASM6, access, name, descriptor, signature, exceptions);
+            return clinit;
+        }
+        if (name.equals("<init>")) {
+            //Buffered until visitEnd, so the instance initializers of every member are known
+            MethodNode constructor = new MethodNode(ASM6, access, name, descriptor, signature, exceptions);
+            constructors.add(constructor);
+            return constructor;
+        }
+        if (needsAccessors() && (ACC_SYNTHETIC & access) == 0 && !name.contains("$"))
+            accessibleMethods.add(new Member(name, access, descriptor));
+        MethodVisitor next = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if ((access & (ACC_SYNTHETIC | ACC_BRIDGE | ACC_ABSTRACT | ACC_NATIVE)) == 0
+                && !name.contains("$") && !name.contains("<")
+                && (!cc.getMethodInvocationCallbacks().isEmpty() || !cc.getMethodReturnCallbacks().isEmpty()
+                || !cc.getExceptionThrownCallbacks().isEmpty())) {
+            //Buffered until its annotations are known, and so the weaver knows which local variable slots are free
+            return new MethodNode(ASM6, access, name, descriptor, signature, exceptions) {
+                @Override
+                public void visitEnd() {
+                    super.visitEnd();
+                    long start = System.nanoTime();
+                    MethodCallbacks callbacks = cc.forMethod(selfName, name, descriptor, access,
+                            annotationTypes(visibleAnnotations, invisibleAnnotations));
+                    if (!callbacks.isEmpty()) {
+                        callbacks = applyPolicy(this, callbacks);
+                    }
+                    time(WeaveMetrics.Phase.CALLBACK_COLLECTION, start);
+                    if (!callbacks.isEmpty()) {
+                        if (record != null)
+                            record.methodInstrumented();
+                        accept(new MethodCallbackWeaver(dispatcherFor(callbacks), next, access, name, descriptor,
+                                maxLocals));
+                    } else {
+                        accept(next); //Replayed as is
                     }
                 }
-                return null;
-            });
-
-            final List<Lazy<AnnotationInfo>> annotations = new ArrayList<>();
-            final List<ParameterInfo> params = new ArrayList<>(); //TODO
-
-            @Override
-            public void visitParameter(String name, int access) {
-                super.visitParameter(name, access);
-            }
-
-            @Override
-            public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
-                return super.visitParameterAnnotation(parameter, descriptor, visible);
-            }
+            };
+        }
+        return next;
+    }
 
+    /**
+     * Wires the instance initializers and {@link ClassInitializerCallback}s at the end of a constructor, unless it
+     * delegates to another constructor of the class.
+     */
+    private MethodVisitor weaveConstructor(MethodVisitor mv) {
+        return new MethodVisitor(ASM6, mv) {
+            boolean calledThis = false; //Track if constructor called this()
             @Override
-            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
-                AnnotationVisitor av = super.visitAnnotation(descriptor, visible);
-                return new AnnotationInfoVisitor(av, transformer, new ClassName(descriptor), annotations);
+            public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean
+                    isInterface) {
+                if (opcode == INVOKESPECIAL && owner.equals(selfName.getAsSlashNotation()) && name.equals("<init>")) {
+                    calledThis = true;
+                }
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
             }
 
             @Override
-            public void visitEnd() {
-                super.visitEnd();
-                if ((ACC_SYNTHETIC & access) == 0 && !name.contains("$") && !name.contains("<")) {
-                    MethodInfo mi = new MethodInfo(name,
-                            modifiers,
-                            new ClassName(descriptor.substring(descriptor.length() - 1)),
-                            annotations.stream().map(Lazy::new).collect(Collectors.toList()),
-                            params,
-                            new MethodAccessor() {
-                                @Nullable
-                                @Override
-                                public Object invoke(@Nullable Object... args) throws Throwable {
-                                    throw new RuntimeException("Cannot access method before it is defined!");
-                                }
-                            });
-                    methods.put(name, new Lazy<>(mi));
-                    newMethodAccessorClass(mi);
+            public void visitInsn(int opcode) {
+                if (opcode == RETURN) {
+                    if (!calledThis) { //Only init if not already created
+                        for (Consumer<MethodVisitor> callback : queuedInstanceInitializers) {
+                            visitLabel(new Label());
+                            callback.accept(this); //That callback better clean up
+                        }
+                        String ciName = ClassName.of(ClassInfo.class).getAsInternalTypeName();
+                        String lazyMapName = ClassName.of(LazyMap.class).getAsInternalTypeName();
+                        String classInitDescriptor = "(" + ciName + "Z" + lazyMapName + lazyMapName + ")V";
+                        for (int i = 0; i < classInitializerCallbacks.size(); i++) {
+                            CallbackSite cic = classInitializerCallbacks.get(i);
+                            Label skip = new Label();
+                            visitLabel(new Label());
+                            jumpIfDisabled(this, switches.global(), skip);
+                            jumpIfDisabled(this, classInitializerSwitches.get(i), skip);
+                            cic.loadReceiver(this);
+                            visitFieldInsn(GETSTATIC, selfName.getAsSlashNotation(), selfInfoAddress, ciName);
+                            visitInsn(ICONST_0);
+                            loadAccessorViews(this);
+                            cic.invoke(this, "classInit", classInitDescriptor);
+                            visitLabel(skip);
+                        }
+                    }
                 }
+
+                super.visitInsn(opcode);
             }
         };
+    }
 
-        if (name.equals("<clinit>")) {
-            clinitCalled = true;
-            return new MethodVisitor(ASM6, observer) {  //Wires non-primitive static fields created by #addStaticInstance
-                @Override
-                public void visitCode() {
-                    super.visitCode();
-                    queuedInitializers.forEach((k, v) -> {
-                        visitLabel(new Label());
-                        visitLdcInsn(k);
-                        visitMethodInsn(INVOKESTATIC,
-                                new ClassName(GlobalRegistry.class).getAsSlashNotation(),
-                                "get",
-                                "(Ljava/lang/Object;)Ljava/lang/Object;",
-                                false);
-                        visitTypeInsn(CHECKCAST, v.substring(1, v.length()-1)); //Strip L and ;
-                        visitFieldInsn(PUTSTATIC, selfName.getAsSlashNotation(), k, v);
-                    });
-                }
-            };
+    /**
+     * Emits the views of the {@link AccessorTable} bound to {@code this}, i.e. the field and method maps handed to
+     * {@link ClassInitializerCallback}s.
+     */
+    private void loadAccessorViews(MethodVisitor mv) {
+        ClassName table = ClassName.of(AccessorTable.class);
+        String viewDescriptor = "(Ljava/lang/Object;)" + ClassName.of(LazyMap.class).getAsInternalTypeName();
+        mv.visitFieldInsn(GETSTATIC, selfName.getAsSlashNotation(), accessorTableAddress,
+                table.getAsInternalTypeName());
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKEVIRTUAL, table.getAsSlashNotation(), "fields", viewDescriptor, false);
+        mv.visitFieldInsn(GETSTATIC, selfName.getAsSlashNotation(), accessorTableAddress,
+                table.getAsInternalTypeName());
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKEVIRTUAL, table.getAsSlashNotation(), "methods", viewDescriptor, false);
+    }
+
+    /**
+     * Queues the construction of the class' {@link AccessorTable} in its static initializer.
+     */
+    private void addAccessorTable() {
+        ClassName table = ClassName.of(AccessorTable.class);
+        FieldVisitor fv = visitField(staticFieldAccess(), accessorTableAddress,
+                table.getAsInternalTypeName(), null, null);
+        fv.visitEnd();
+        queuedStaticInitializers.add(mv -> {
+            mv.visitTypeInsn(NEW, table.getAsSlashNotation());
+            mv.visitInsn(DUP);
+            newNameArray(mv, accessibleFields, member -> member.name);
+            newNameArray(mv, accessibleMethods, member -> ClassInfoCollector.methodKey(member.name, member.descriptor));
+            mv.visitTypeInsn(NEW, accessorName);
+            mv.visitInsn(DUP);
+            mv.visitMethodInsn(INVOKESPECIAL, accessorName, "<init>", "()V", false);
+            mv.visitMethodInsn(INVOKESPECIAL, table.getAsSlashNotation(), "<init>",
+                    "([Ljava/lang/String;[Ljava/lang/String;"
+                            + ClassName.of(MemberAccess.class).getAsInternalTypeName() + ")V", false);
+            mv.visitFieldInsn(PUTSTATIC, selfName.getAsSlashNotation(), accessorTableAddress,
+                    table.getAsInternalTypeName());
+        });
+    }
+
+    private static void newNameArray(MethodVisitor mv, List<Member> members, Function<Member, String> key) {
+        mv.visitLdcInsn(members.size());
+        mv.visitTypeInsn(ANEWARRAY, "java/lang/String");
+        for (int i = 0; i < members.size(); i++) {
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn(i);
+            mv.visitLdcInsn(key.apply(members.get(i)));
+            mv.visitInsn(AASTORE);
         }
-        if (name.equals("<init>")) {
-            return new MethodVisitor(ASM6, observer) {
-                boolean calledThis = false; //Track if constructor called this()
-                @Override
-                public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean
-                        isInterface) {
-                    if (opcode == INVOKESPECIAL && owner.equals(selfName.getAsSlashNotation()) && name.equals("<init>")) {
-                        calledThis = true;
-                    }
-                    super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
-                }
+    }
 
-                @Override
-                public void visitInsn(int opcode) {
-                    if (opcode == RETURN) {
-                        if (!calledThis) { //Only init if not already created
-                            for (Consumer<MethodVisitor> callback : queuedInstanceInitializers) {
-                                visitLabel(new Label());
-                                callback.accept(this); //That callback better clean up
-                            }
-                            String cicSlash = new ClassName(ClassInitializerCallback.class).getAsSlashNotation();
-                            String cicName = new ClassName(ClassInitializerCallback.class).getAsInternalTypeName();
-                            String ciName = new ClassName(ClassInfo.class).getAsInternalTypeName();
-                            String classInitDescriptor = "(Lsyringe/info/ClassInfo;ZLsyringe/access/LazyMap;Lsyringe/access/LazyMap;)V";
-                            //                        String classInitSignature = "(Lsyringe/info/ClassInfo;ZLsyringe/access/LazyMap<Ljava/lang/String;Lsyringe/access/FieldAccessor;>;Lsyringe/access/LazyMap<Ljava/lang/String;Lsyringe/access/MethodAccessor;>;)V";
-                            for (String cic : classInitializerCallbacks) {
-                                visitLabel(new Label());
-                                visitFieldInsn(GETSTATIC, selfName.getAsSlashNotation(), cic, cicName);
-                                visitFieldInsn(GETSTATIC, selfName.getAsSlashNotation(), selfInfoAddress, ciName);
-                                generateFieldAndMethodMaps(false, this, 0);
-                                visitVarInsn(ALOAD, 1);
-                                visitVarInsn(ALOAD, 2);
-                                visitMethodInsn(INVOKEINTERFACE, cicSlash, "classInit", classInitDescriptor, true);
-                            }
-                        }
-                    }
+    /**
+     * Emits a jump to the given label when the switch is off. Classes too old for invokedynamic read the switch
+     * through a static field instead.
+     */
+    private void jumpIfDisabled(MethodVisitor mv, InstrumentationSwitch instrumentationSwitch, Label disabled) {
+        if ((classVersion & 0xFFFF) >= V1_7) {
+            switchGuard.jumpIfDisabled(mv, instrumentationSwitch, disabled);
+            return;
+        }
+        String field = switchFields.computeIfAbsent(instrumentationSwitch,
+                s -> addStaticField(InstrumentationSwitch.class, s));
+        ClassName owner = ClassName.of(InstrumentationSwitch.class);
+        mv.visitFieldInsn(GETSTATIC, selfName.getAsSlashNotation(), field, owner.getAsInternalTypeName());
+        mv.visitMethodInsn(INVOKEVIRTUAL, owner.getAsSlashNotation(), "isEnabled", "()Z", false);
+        mv.visitJumpInsn(IFEQ, disabled);
+    }
 
-                    super.visitInsn(opcode);
+    /**
+     * Emits the class initializer, prefixed with the initialization of the static fields queued while weaving.
+     */
+    private void visitClassInitializer() {
+        MethodVisitor mv = new MethodVisitor(ASM6, super.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null)) {
+            @Override
+            public void visitCode() {
+                super.visitCode();
+                queuedInitializers.forEach((k, v) -> { //Wires non-primitive static fields created by #addStaticField
+                    visitLabel(new Label());
+                    visitLdcInsn(registryKeys.get(k));
+                    visitMethodInsn(INVOKESTATIC,
+                            ClassName.of(GlobalRegistry.class).getAsSlashNotation(),
+                            "get",
+                            "(Ljava/lang/String;)Ljava/lang/Object;",
+                            false);
+                    visitTypeInsn(CHECKCAST, v.substring(1, v.length()-1)); //Strip L and ;
+                    visitFieldInsn(PUTSTATIC, selfName.getAsSlashNotation(), k, v);
+                });
+                for (Consumer<MethodVisitor> callback : queuedStaticInitializers) {
+                    visitLabel(new Label());
+                    callback.accept(this);
                 }
-            };
+            }
+        };
+        if (clinit != null) {
+            clinit.accept(mv);
+        } else {
+            mv.visitCode();
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
         }
-        return observer;
     }
 
     @Override
     public void visitEnd() {
-        if (!clinitCalled && queuedInitializers.size() > 0) {
-            MethodVisitor mv = visitMethod(0x8, "<clinit>", "()V", null, null);
-            mv.visitCode();
-            mv.visitEnd();
-        } else if (clinitCalled && queuedInitializers.size() > 0) {
-            throw new RuntimeException("Uh oh, required fields are not initialized!");
-        }
-
-        Supplier<ClassInfo> selfInfo = () -> {
-            return new ClassInfo(selfName,
-                    modifiers,
-                    LazyMap.convert(fields),
-                    LazyMap.convert(methods),
-                    annotations.stream().map(Lazy::new).collect(Collectors.toList()),
-                    extendsList,
-                    classTransformer);
-        };
+        scope();
+        for (MethodNode constructor : constructors) {
+            constructor.accept(weaveConstructor(super.visitMethod(constructor.access, constructor.name,
+                    constructor.desc, constructor.signature, constructor.exceptions.toArray(new String[0]))));
+        }
+        if (accessorTableAddress != null) {
+            addAccessorTable();
+        }
+
+        Supplier<ClassInfo> selfInfo = info::build;
+        if (generation == null) {
+            //Registered ahead of the class initializer, which loads it by the key it ends up with
+            registryKeys.put(selfInfoAddress, registrations.register(names.key(selfInfoAddress), selfInfo.get()));
+        } else { //Built now, so the lazy value lets go of this visitor
+            ((Lazy<?>) GlobalRegistry.peek(registryKeys.get(selfInfoAddress))).get();
+        }
 
+        if (clinit != null || queuedInitializers.size() > 0 || queuedStaticInitializers.size() > 0) {
+            visitClassInitializer();
+        }
+
+        long start = System.nanoTime();
         for (ClassAnnotationCallback cac : cc.getClassAnnotationCallbacks()) {
-            cac.annotations(selfInfo.get(), annotations.stream().map(Lazy::get).collect(Collectors.toList()));
+            cac.annotations(selfInfo.get(), info.getAnnotations());
         }
 
         for (ClassDefinitionCallback cdc : cc.getClassDefinitionCallbacks()) {
             cdc.construction(selfInfo.get());
         }
+        time(WeaveMetrics.Phase.CLASS_DEFINITION_CALLBACKS, start);
+
+        if (accessorTableAddress != null) {
+            if (record != null)
+                record.accessorGenerated();
+            visitAccessorBridges();
+            needsLoading.put(accessorName, generateAccessorClass(newClassGenerator.get()));
+        }
 
         super.visitEnd();
 
-        GlobalRegistry.register(selfInfoAddress, selfInfo.get());
+        for (CompositeDispatcher dispatcher : methodDispatchers.values()) {
+            needsLoading.put(dispatcher.getName(), dispatcher.generate(newClassGenerator.get()));
+        }
+    }
+
+    /**
+     * Emits the static bridges the shared accessor class calls into, which switch over the member index:
+     * {@code syringe$get(int, Object)} reads a field and {@code syringe$invoke(int, Object, Object[])} invokes a method,
+     * boxing as needed. The receiver is ignored for static members.
+     */
+    private void visitAccessorBridges() {
+        String owner = selfName.getAsSlashNotation();
+        MethodVisitor mv = super.visitMethod(ACC_STATIC | ACC_SYNTHETIC, "syringe$get",
+                "(ILjava/lang/Object;)Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        Label[] cases = switchOnIndex(mv, accessibleFields.size());
+        for (int i = 0; i < cases.length; i++) {
+            Member field = accessibleFields.get(i);
+            mv.visitLabel(cases[i]);
+            if (field.isStatic()) {
+                mv.visitFieldInsn(GETSTATIC, owner, field.name, field.descriptor);
+            } else {
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitTypeInsn(CHECKCAST, owner);
+                mv.visitFieldInsn(GETFIELD, owner, field.name, field.descriptor);
+            }
+            CompositeDispatcher.box(mv, Type.getType(field.descriptor));
+            mv.visitInsn(ARETURN);
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = super.visitMethod(ACC_STATIC | ACC_SYNTHETIC, "syringe$invoke",
+                "(ILjava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;", null, new String[]{"java/lang/Throwable"});
+        mv.visitCode();
+        cases = switchOnIndex(mv, accessibleMethods.size());
+        for (int i = 0; i < cases.length; i++) {
+            Member method = accessibleMethods.get(i);
+            mv.visitLabel(cases[i]);
+            if (!method.isStatic()) {
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitTypeInsn(CHECKCAST, owner);
+            }
+            Type[] argumentTypes = Type.getArgumentTypes(method.descriptor);
+            for (int j = 0; j < argumentTypes.length; j++) {
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitLdcInsn(j);
+                mv.visitInsn(AALOAD);
+                CompositeDispatcher.unbox(mv, argumentTypes[j]);
+            }
+            int opcode = method.isStatic() ? INVOKESTATIC
+                    : Modifier.isPrivate(method.access) ? INVOKESPECIAL : INVOKEVIRTUAL;
+            mv.visitMethodInsn(opcode, owner, method.name, method.descriptor, false);
+            Type returnType = Type.getReturnType(method.descriptor);
+            if (returnType.getSort() == Type.VOID) {
+                mv.visitInsn(ACONST_NULL);
+            } else {
+                CompositeDispatcher.box(mv, returnType);
+            }
+            mv.visitInsn(ARETURN);
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Emits a tableswitch over the index in local 0, whose default case throws an {@link IllegalArgumentException}.
+     *
+     * @return The labels to visit before the code of each case.
+     */
+    private static Label[] switchOnIndex(MethodVisitor mv, int size) {
+        Label[] cases = new Label[size];
+        for (int i = 0; i < size; i++) {
+            cases[i] = new Label();
+        }
+        Label unknown = new Label();
+        if (size > 0) {
+            mv.visitVarInsn(ILOAD, 0);
+            mv.visitTableSwitchInsn(0, size - 1, unknown, cases);
+        }
+        mv.visitLabel(unknown);
+        mv.visitTypeInsn(NEW, "java/lang/IllegalArgumentException");
+        mv.visitInsn(DUP);
+        mv.visitVarInsn(ILOAD, 0);
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(I)Ljava/lang/String;", false);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/IllegalArgumentException", "<init>", "(Ljava/lang/String;)V",
+                false);
+        mv.visitInsn(ATHROW);
+        return cases;
     }
 
-    private final class AnnotationInfoVisitor extends AnnotationVisitor {
+    /**
+     * Generates the class' accessor class, a stateless {@link MemberAccess} which delegates to the bridges emitted by
+     * {@link #visitAccessorBridges()}.
+     */
+    private byte[] generateAccessorClass(ClassWriter cw) {
+        String owner = selfName.getAsSlashNotation();
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, accessorName, null, "java/lang/Object",
+                new String[]{ClassName.of(MemberAccess.class).getAsSlashNotation()});
 
-        final Lazy<? extends AnnotatedElement> holder;
-        final ClassName name;
-        final List<Lazy<AnnotationInfo>> collector;
-        final Map<String, Object> values = new HashMap<>();
-        final List<Lazy<AnnotationInfo>> nested = new ArrayList<>();
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
 
-        public AnnotationInfoVisitor(AnnotationVisitor annotationVisitor, Lazy<? extends AnnotatedElement> holder, ClassName name, List<Lazy<AnnotationInfo>> collector) {
-            super(ASM6, annotationVisitor);
-            this.holder = holder;
+        mv = cw.visitMethod(ACC_PUBLIC, "get", "(ILjava/lang/Object;)Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitMethodInsn(INVOKESTATIC, owner, "syringe$get", "(ILjava/lang/Object;)Ljava/lang/Object;", false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "invoke", "(ILjava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;", null,
+                new String[]{"java/lang/Throwable"});
+        mv.visitCode();
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitVarInsn(ALOAD, 3);
+        mv.visitMethodInsn(INVOKESTATIC, owner, "syringe$invoke",
+                "(ILjava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;", false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * A field or method reachable through the shared accessor class.
+     */
+    private static final class Member {
+
+        final String name;
+        final int access;
+        final String descriptor;
+
+        Member(String name, int access, String descriptor) {
             this.name = name;
-            this.collector = collector;
+            this.access = access;
+            this.descriptor = descriptor;
         }
 
-        @Override
-        public void visit(String name, Object value) {
-            super.visit(name, value);
-            values.put(name, value);
+        boolean isStatic() {
+            return Modifier.isStatic(access);
+        }
+    }
+
+    /**
+     * Wires a {@link CompositeDispatcher} at the start of a method and before each of its returns, and in a handler
+     * for any exception thrown out of it. The handler only covers the original code of the method, so exceptions thrown
+     * by the invocation and return callbacks are not handed to the exception callbacks.
+     */
+    private final class MethodCallbackWeaver extends MethodVisitor {
+
+        private final CompositeDispatcher methodDispatcher;
+        private final boolean isStatic;
+        private final String descriptor;
+        private final Type[] argumentTypes;
+        private final Type returnType;
+        private final String methodInfoAddress;
+        private final int returnLocal;
+        private final List<Label> protectedRanges = new ArrayList<>(); //Pairs of start and end labels
+        private boolean pendingRange; //Whether the next original instruction starts a range
+        @Nullable
+        private Label rangeStart;
+
+        MethodCallbackWeaver(CompositeDispatcher methodDispatcher, MethodVisitor mv, int access, String name,
+                             String descriptor, int firstFreeLocal) {
+            super(ASM6, mv);
+            this.methodDispatcher = methodDispatcher;
+            this.isStatic = Modifier.isStatic(access);
+            this.descriptor = descriptor;
+            this.argumentTypes = Type.getArgumentTypes(descriptor);
+            this.returnType = Type.getReturnType(descriptor);
+            this.methodInfoAddress = addMethodInfoField(ClassInfoCollector.methodKey(name, descriptor));
+            this.returnLocal = firstFreeLocal;
+        }
+
+        private void loadInfo() {
+            String classInfo = ClassName.of(ClassInfo.class).getAsInternalTypeName();
+            String methodInfo = ClassName.of(MethodInfo.class).getAsInternalTypeName();
+            if (generation == null) {
+                visitFieldInsn(GETSTATIC, selfName.getAsSlashNotation(), selfInfoAddress, classInfo);
+                visitFieldInsn(GETSTATIC, selfName.getAsSlashNotation(), methodInfoAddress, methodInfo);
+            } else {
+                visitInvokeDynamicInsn("classInfo", "()" + classInfo, CONSTANT, registryKeys.get(selfInfoAddress));
+                visitInvokeDynamicInsn("methodInfo", "()" + methodInfo, CONSTANT, methodInfoAddress);
+            }
+        }
+
+        private void loadCommonArguments() {
+            loadInfo();
+            if (isStatic) {
+                visitInsn(ACONST_NULL);
+            } else {
+                visitVarInsn(ALOAD, 0);
+            }
+            int slot = isStatic ? 0 : 1;
+            for (Type argumentType : argumentTypes) {
+                visitVarInsn(argumentType.getOpcode(ILOAD), slot);
+                slot += argumentType.getSize();
+            }
+        }
+
+        /**
+         * Opens a protected range ahead of an original instruction, if one is pending. Ranges are opened lazily so that
+         * none of them is empty.
+         */
+        private void cover() {
+            if (pendingRange) {
+                pendingRange = false;
+                rangeStart = new Label();
+                super.visitLabel(rangeStart);
+            }
+        }
+
+        /**
+         * Closes the current protected range, if any.
+         */
+        private void uncover() {
+            pendingRange = false;
+            if (rangeStart != null) {
+                Label end = new Label();
+                super.visitLabel(end);
+                protectedRanges.add(rangeStart);
+                protectedRanges.add(end);
+                rangeStart = null;
+            }
         }
 
         @Override
-        public void visitEnum(String name, String descriptor, String value) {
-            super.visitEnum(name, descriptor, value);
-            values.put(name, value);
+        public void visitCode() {
+            super.visitCode();
+            if (methodDispatcher.hasInvocationCallbacks()) {
+                loadCommonArguments();
+                methodDispatcher.invokeInvocation(this, descriptor);
+            }
+            pendingRange = methodDispatcher.hasExceptionCallbacks();
         }
 
         @Override
-        public AnnotationVisitor visitArray(String name) {
-            AnnotationVisitor av = super.visitArray(name);
-            return new AnnotationVisitor(ASM6, av) {
-                final List<Object> arrayCollection = new ArrayList<>();
-                @Override
-                public void visit(String name, Object value) {
-                    super.visit(name, value);
-                    arrayCollection.add(value);
+        public void visitInsn(int opcode) {
+            if (opcode >= IRETURN && opcode <= RETURN && methodDispatcher.hasReturnCallbacks()) {
+                uncover();
+                if (opcode != RETURN) {
+                    visitVarInsn(returnType.getOpcode(ISTORE), returnLocal);
                 }
-
-                @Override
-                public void visitEnum(String name, String descriptor, String value) {
-                    super.visitEnum(name, descriptor, value);
-                    arrayCollection.add(value);
+                loadCommonArguments();
+                if (opcode != RETURN) {
+                    visitVarInsn(returnType.getOpcode(ILOAD), returnLocal);
                 }
+                methodDispatcher.invokeReturn(this, descriptor);
+                super.visitInsn(opcode);
+                pendingRange = methodDispatcher.hasExceptionCallbacks();
+                return;
+            }
+            cover();
+            super.visitInsn(opcode);
+        }
 
-                @Override
-                public AnnotationVisitor visitArray(String name) {
-                    throw new RuntimeException("Nested annotation array? Report this stacktrace!");
-                }
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            cover();
+            super.visitIntInsn(opcode, operand);
+        }
 
-                @Override
-                public void visitEnd() {
-                    super.visitEnd();
-                    values.put(name, arrayCollection.toArray());
-                }
-            };
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            cover();
+            super.visitVarInsn(opcode, var);
         }
 
         @Override
-        public AnnotationVisitor visitAnnotation(String name, String descriptor) {
-            AnnotationVisitor av = super.visitAnnotation(name, descriptor);
-            return new AnnotationInfoVisitor(av, new Lazy<AnnotatedElement>(new Supplier<AnnotatedElement>() {
-                @Override
-                public AnnotatedElement get() {
-                    try {
-                        return Class.forName(AnnotationInfoVisitor.this.name.getFullyQualifiedName());
-                    } catch (ClassNotFoundException e) {
-                        return null;
-                    }
-                }
-            }), new ClassName(descriptor), nested);
+        public void visitTypeInsn(int opcode, String type) {
+            cover();
+            super.visitTypeInsn(opcode, type);
         }
 
         @Override
-        public void visitEnd() {
-            super.visitEnd();
-            LazyMap<String, FieldAccessor> accessors = new LazyMap<>(new HashMap<>(), values.keySet(), (k) -> {
-                return () -> values.get(k);
-            });
-            collector.add(new Lazy<>(() -> {
-                return new AnnotationInfo(name, accessors, nested, new Lazy<>((Supplier<Annotation>) () -> {
-                    AnnotatedElement ae = holder.get();
-                    if (ae == null)
-                        return null;
-                    for (Annotation a : ae.getAnnotations()) {
-                        if (new ClassName(a.getClass()).equals(name)) {
-                            return a;
-                        }
-                    }
-                    return null;
-                }));
-            }));
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            cover();
+            super.visitFieldInsn(opcode, owner, name, descriptor);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            cover();
+            super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle,
+                                           Object... bootstrapMethodArguments) {
+            cover();
+            super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            cover();
+            super.visitJumpInsn(opcode, label);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            cover();
+            super.visitLdcInsn(value);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            cover();
+            super.visitIincInsn(var, increment);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            cover();
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            cover();
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            cover();
+            super.visitMultiANewArrayInsn(descriptor, numDimensions);
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            uncover();
+            if (!protectedRanges.isEmpty()) {
+                //Registered last, so the handlers of the method itself take precedence
+                Label handler = new Label();
+                for (int i = 0; i < protectedRanges.size(); i += 2) {
+                    visitTryCatchBlock(protectedRanges.get(i), protectedRanges.get(i + 1), handler,
+                            "java/lang/Throwable");
+                }
+                visitLabel(handler);
+                int exceptionLocal = returnLocal + 2;
+                visitVarInsn(ASTORE, exceptionLocal);
+                loadInfo();
+                visitVarInsn(ALOAD, exceptionLocal);
+                methodDispatcher.invokeException(this, descriptor);
+                super.visitInsn(returnType.getOpcode(IRETURN)); //Bypasses the return callbacks
+            }
+            super.visitMaxs(maxStack, maxLocals);
         }
     }
 }
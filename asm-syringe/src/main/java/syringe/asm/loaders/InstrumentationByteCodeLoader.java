@@ -0,0 +1,190 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.asm.loaders;
+
+import syringe.asm.AsmSyringe;
+import syringe.asm.DispatchMode;
+import syringe.asm.GlobalRegistry;
+import syringe.asm.util.OpenClassLoader;
+import syringe.util.ClassHeader;
+import syringe.util.WeaveMetrics;
+import syringe.visitor.ClassVisitor;
+import syringe.visitor.MethodVisitor;
+
+import javax.annotation.Nullable;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A Java agent which weaves classes with an {@link AsmSyringe} as they are loaded. When started with
+ * {@code -javaagent} or attached, the visitors are found with {@link ServiceLoader}, and the agent argument may name
+ * the {@link DispatchMode}.
+ * <br>
+ * Most classes match no visitor, so the transformer rejects classes as cheaply as it can: first by name, for the
+ * platform and the classes the weaver itself depends on, then by class loader, for those which do not see this agent,
+ * and finally from the header of the class file (see {@link ClassHeader}). Only the remaining classes are parsed and
+ * woven.
+ * <br>
+ * Visitors can also be attached to and detached from loaded classes while the JVM runs, see {@link #getLiveWeaver()}.
+ */
+public final class InstrumentationByteCodeLoader implements ClassFileTransformer {
+
+    /**
+     * Classes under these prefixes are never woven, as they are either not visible to woven code or used to weave.
+     */
+    private static final String[] EXCLUDED = {"java/", "javax/", "jdk/", "sun/", "com/sun/", "syringe/",
+            "org/objectweb/asm/", "net/bytebuddy/"};
+
+    @Nullable
+    private static volatile LiveWeaver live;
+
+    private final AsmSyringe syringe;
+    private final Method defineClass;
+    private final Set<String> defining = ConcurrentHashMap.newKeySet(); //Generated classes being defined
+    private final Map<ClassLoader, Boolean> linkable = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * @param instrumentation Used to open {@link ClassLoader} to this agent, so the classes generated alongside woven
+     * classes can be defined in their class loaders.
+     */
+    public InstrumentationByteCodeLoader(AsmSyringe syringe, Instrumentation instrumentation) {
+        this.syringe = syringe;
+        Module base = ClassLoader.class.getModule();
+        instrumentation.redefineModule(base, Collections.emptySet(), Collections.emptyMap(),
+                Collections.singletonMap(ClassLoader.class.getPackageName(),
+                        Collections.singleton(InstrumentationByteCodeLoader.class.getModule())),
+                Collections.emptySet(), Collections.emptyMap());
+        try {
+            this.defineClass = ClassLoader.class.getDeclaredMethod("defineClass", String.class, byte[].class,
+                    int.class, int.class, ProtectionDomain.class);
+            this.defineClass.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void premain(@Nullable String args, Instrumentation instrumentation) {
+        agentmain(args, instrumentation);
+    }
+
+    public static void agentmain(@Nullable String args, Instrumentation instrumentation) {
+        DispatchMode mode = args == null || args.isEmpty() ? DispatchMode.STATIC_FIELD : DispatchMode.valueOf(args);
+        AsmSyringe syringe = new AsmSyringe(new OpenClassLoader(ClassLoader.getSystemClassLoader()), mode);
+        ServiceLoader.load(ClassVisitor.class).forEach(syringe::addVisitor);
+        ServiceLoader.load(MethodVisitor.class).forEach(syringe::addVisitor);
+        InstrumentationByteCodeLoader loader = new InstrumentationByteCodeLoader(syringe, instrumentation);
+        instrumentation.addTransformer(loader);
+        if (instrumentation.isRetransformClassesSupported()) {
+            live = new LiveWeaver(loader, instrumentation);
+            instrumentation.addTransformer(live, true);
+        }
+    }
+
+    /**
+     * @return The weaver of the agent, through which visitors can be attached to loaded classes, or null if the agent
+     * was not started or the JVM does not support retransforming classes.
+     */
+    @Nullable
+    public static LiveWeaver getLiveWeaver() {
+        return live;
+    }
+
+    public AsmSyringe getSyringe() {
+        return syringe;
+    }
+
+    @Nullable
+    @Override
+    public byte[] transform(@Nullable ClassLoader loader, @Nullable String className,
+                            @Nullable Class<?> classBeingRedefined, @Nullable ProtectionDomain protectionDomain,
+                            byte[] classfileBuffer) {
+        if (loader == null || className == null || classBeingRedefined != null || isExcluded(className)
+                || defining.contains(className) || !isLinkable(loader))
+            return null;
+        ClassHeader header = ClassHeader.read(classfileBuffer);
+        if (header == null || !syringe.appliesTo(header)) {
+            syringe.getMetrics().skipped();
+            return null;
+        }
+
+        try {
+            Map<String, byte[]> classes = syringe.weave(classfileBuffer, loader);
+            String name = className.replace('/', '.');
+            for (Map.Entry<String, byte[]> generated : classes.entrySet()) {
+                if (!generated.getKey().equals(name))
+                    define(loader, generated.getKey(), generated.getValue(), protectionDomain);
+            }
+            return classes.get(name);
+        } catch (RuntimeException | LinkageError e) {
+            //Thrown exceptions are silently dropped, and the class is loaded as is
+            new RuntimeException("Could not weave " + className, e).printStackTrace();
+            return null;
+        }
+    }
+
+    static boolean isExcluded(String className) {
+        for (String prefix : EXCLUDED) {
+            if (className.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether woven classes in the class loader would link against the same runtime as this agent.
+     */
+    boolean isLinkable(ClassLoader loader) {
+        return linkable.computeIfAbsent(loader, l -> {
+            try {
+                return Class.forName(GlobalRegistry.class.getName(), false, l) == GlobalRegistry.class;
+            } catch (ClassNotFoundException e) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * @return Whether the class is one generated alongside a woven class, which this agent is defining.
+     */
+    boolean isDefining(String className) {
+        return defining.contains(className);
+    }
+
+    void define(ClassLoader loader, String name, byte[] bytecode, @Nullable ProtectionDomain domain) {
+        String internalName = name.replace('.', '/');
+        defining.add(internalName);
+        long start = System.nanoTime();
+        try {
+            defineClass.invoke(loader, name, bytecode, 0, bytecode.length, domain);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof LinkageError)
+                throw (LinkageError) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            defining.remove(internalName);
+            syringe.getMetrics().time(WeaveMetrics.Phase.CLASS_DEFINITION, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.asm.loaders;
+
+import syringe.asm.AsmSyringe;
+import syringe.util.CallbackCollector;
+import syringe.util.ClassHeader;
+import syringe.util.WeaveMetrics;
+import syringe.visitor.MethodVisitor;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.ref.WeakReference;
+import java.security.ProtectionDomain;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Attaches {@link MethodVisitor}s to the classes of a running JVM, and detaches them, by retransforming the classes
+ * they match. It is registered by {@link InstrumentationByteCodeLoader} as a retransformation capable transformer, so
+ * the classes it weaves start from the class files as woven at load time, and reverting a class only means not
+ * weaving it.
+ * <br>
+ * The header (see {@link ClassHeader}) of every class loaded since the agent started is kept, so a visitor is matched
+ * against the headers alone, and only the classes it matches are rewoven and retransformed. They are processed in
+ * batches: the classes of a batch are woven in parallel, then retransformed together. A class which fails to weave is
+ * reported and left as it is, without failing the batch.
+ * <br>
+ * The class files are only kept for the classes woven at load time. The others were loaded as is, so they are read
+ * again from their class loader when they are rewoven, and classes it cannot find are not rewoven. Each class is
+ * rewoven at most once for a set of visitors: its woven class file is kept, so the classes generated for it are reused
+ * whenever the visitors which apply to it are the same again, rather than defined anew.
+ * <br>
+ * Retransformed classes may not add members, hence only method invocation, return and exception callbacks are woven
+ * (see {@link AsmSyringe#retransform}). Classes loaded before the agent started are not rewoven.
+ * <br>
+ * The classes this weaver weaves are recorded in its own {@link #getMetrics() metrics}, as the syringe already counts
+ * every class loaded.
+ */
+public final class LiveWeaver implements ClassFileTransformer {
+
+    private static final int CLASSES_PER_BATCH = 128;
+
+    private final InstrumentationByteCodeLoader loader;
+    private final AsmSyringe syringe;
+    private final Instrumentation instrumentation;
+    private final Map<ClassLoader, Map<String, Loaded>> loaded = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Set<MethodVisitor> visitors = new LinkedHashSet<>();
+    private volatile Attached attached = new Attached(Collections.emptyList());
+    private final AtomicInteger generations = new AtomicInteger(); //Tells apart the classes generated by each weave
+    private final WeaveMetrics metrics = new WeaveMetrics();
+
+    LiveWeaver(InstrumentationByteCodeLoader loader, Instrumentation instrumentation) {
+        this.loader = loader;
+        this.syringe = loader.getSyringe();
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Weaves the visitor into the loaded classes it matches, and into classes loaded from now on.
+     *
+     * @return The number of classes retransformed.
+     */
+    public synchronized int attach(MethodVisitor mv) {
+        if (!visitors.add(mv))
+            return 0;
+        return update(mv);
+    }
+
+    /**
+     * Reverts the classes the visitor was woven into, keeping the other attached visitors.
+     *
+     * @return The number of classes retransformed.
+     */
+    public synchronized int detach(MethodVisitor mv) {
+        if (!visitors.remove(mv))
+            return 0;
+        return update(mv);
+    }
+
+    /**
+     * @return The metrics of the classes woven for the attached visitors, as they were loaded or retransformed.
+     */
+    public WeaveMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Reweaves the classes matched by a visitor which has been attached or detached with the visitors now attached.
+     */
+    private int update(MethodVisitor changed) {
+        Attached attached = new Attached(new ArrayList<>(visitors));
+        this.attached = attached;
+        CallbackCollector matcher = new CallbackCollector(Collections.emptyList(), Collections.singletonList(changed));
+
+        List<Loaded> matched = new ArrayList<>();
+        synchronized (loaded) {
+            for (Map<String, Loaded> classes : loaded.values()) {
+                for (Loaded c : classes.values()) {
+                    if (matcher.appliesTo(c.header.getName(), c.header.getModifiers(), c.header.getAnnotationTypes()))
+                        matched.add(c);
+                }
+            }
+        }
+
+        ForkJoinPool pool = syringe.getPool();
+        int retransformed = 0;
+        for (int from = 0; from < matched.size(); from += CLASSES_PER_BATCH) {
+            List<Loaded> batch = matched.subList(from, Math.min(from + CLASSES_PER_BATCH, matched.size()));
+            List<ForkJoinTask<Map<String, byte[]>>> weaves = new ArrayList<>();
+            for (Loaded c : batch) {
+                weaves.add(pool.submit(() -> weave(c, attached)));
+            }
+            List<Class<?>> classes = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                Loaded c = batch.get(i);
+                Class<?> clazz = c.resolve();
+                try {
+                    Map<String, byte[]> woven = weaves.get(i).join();
+                    if (clazz == null)
+                        continue;
+                    c.woven = define(c, attached, woven);
+                } catch (RuntimeException | LinkageError e) {
+                    //Reported, and the class is kept as it is
+                    new RuntimeException("Could not weave " + c.header.getName(), e).printStackTrace();
+                    continue;
+                }
+                classes.add(clazz);
+            }
+            try {
+                instrumentation.retransformClasses(classes.toArray(new Class<?>[0]));
+            } catch (UnmodifiableClassException e) {
+                throw new RuntimeException(e);
+            }
+            retransformed += classes.size();
+        }
+        return retransformed;
+    }
+
+    /**
+     * @return The classes woven from the class file of the class with the given visitors, only the woven class if it
+     * was woven with the visitors which apply to it before, or null if none applies.
+     */
+    @Nullable
+    private Map<String, byte[]> weave(Loaded c, Attached attached) {
+        List<MethodVisitor> applied = attached.applyingTo(c.header);
+        if (applied.isEmpty())
+            return null;
+        String name = c.header.getName().getFullyQualifiedName();
+        byte[] woven = c.wovenWith.get(applied);
+        if (woven != null)
+            return Collections.singletonMap(name, woven);
+        ClassLoader classLoader = c.loader.get();
+        if (classLoader == null)
+            return null;
+        return syringe.retransform(c.classfile(classLoader), classLoader, attached.cc,
+                "Live" + generations.incrementAndGet(), metrics);
+    }
+
+    /**
+     * Defines the classes generated alongside a woven class, and keeps the woven class for the visitors which apply
+     * to it.
+     *
+     * @return The woven class, or null if there is none.
+     */
+    @Nullable
+    private byte[] define(Loaded c, Attached attached, @Nullable Map<String, byte[]> woven) {
+        ClassLoader classLoader = c.loader.get();
+        if (woven == null || classLoader == null)
+            return null;
+        String name = c.header.getName().getFullyQualifiedName();
+        for (Map.Entry<String, byte[]> generated : woven.entrySet()) {
+            if (!generated.getKey().equals(name))
+                loader.define(classLoader, generated.getKey(), generated.getValue(), c.domain.get());
+        }
+        c.wovenWith.putIfAbsent(attached.applyingTo(c.header), woven.get(name));
+        return woven.get(name);
+    }
+
+    @Nullable
+    @Override
+    public byte[] transform(@Nullable ClassLoader classLoader, @Nullable String className,
+                            @Nullable Class<?> classBeingRedefined, @Nullable ProtectionDomain protectionDomain,
+                            byte[] classfileBuffer) {
+        if (classLoader == null || className == null)
+            return null;
+        if (classBeingRedefined != null) { //Retransformed by this weaver or another agent, woven as last prepared
+            Map<String, Loaded> classes = loaded.get(classLoader);
+            Loaded c = classes == null ? null : classes.get(className);
+            return c == null ? null : c.woven;
+        }
+        if (InstrumentationByteCodeLoader.isExcluded(className) || loader.isDefining(className)
+                || !loader.isLinkable(classLoader))
+            return null;
+        ClassHeader header = ClassHeader.read(classfileBuffer);
+        if (header == null)
+            return null;
+
+        //Classes loaded as is can be read again, the others are kept as woven at load time
+        Loaded c = new Loaded(classLoader, header, syringe.appliesTo(header) ? classfileBuffer : null,
+                protectionDomain);
+        //Recorded ahead of reading the visitors, so a class woven without a visitor being attached is rewoven with it
+        loaded.computeIfAbsent(classLoader, l -> new ConcurrentHashMap<>()).put(className, c);
+        try {
+            Attached attached = this.attached;
+            c.woven = define(c, attached, weave(c, attached));
+            return c.woven;
+        } catch (RuntimeException | LinkageError e) {
+            //Thrown exceptions are silently dropped, and the class is loaded as is
+            new RuntimeException("Could not weave " + className, e).printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * The visitors attached at some point, and the callbacks they weave.
+     */
+    private static final class Attached {
+
+        final List<MethodVisitor> visitors;
+        final CallbackCollector cc;
+
+        Attached(List<MethodVisitor> visitors) {
+            this.visitors = visitors;
+            this.cc = new CallbackCollector(Collections.emptyList(), visitors);
+        }
+
+        /**
+         * @return The visitors which apply to the class, in the order they were attached.
+         */
+        List<MethodVisitor> applyingTo(ClassHeader header) {
+            List<MethodVisitor> applied = new ArrayList<>();
+            for (MethodVisitor mv : visitors) {
+                if (mv.classes().matches(header.getName(), header.getModifiers(), header.getAnnotationTypes()))
+                    applied.add(mv);
+            }
+            return applied;
+        }
+    }
+
+    /**
+     * A class seen by this weaver as it was loaded.
+     */
+    private static final class Loaded {
+
+        final WeakReference<ClassLoader> loader;
+        final ClassHeader header;
+        @Nullable
+        final byte[] classfile; //As woven at load time, or null if it was loaded as is
+        final WeakReference<ProtectionDomain> domain; //Which refers to the class loader
+        final Map<List<MethodVisitor>, byte[]> wovenWith = new ConcurrentHashMap<>(); //By the visitors applied
+        @Nullable
+        volatile byte[] woven; //The class file it is retransformed to, if any visitor applies
+
+        Loaded(ClassLoader loader, ClassHeader header, @Nullable byte[] classfile, @Nullable ProtectionDomain domain) {
+            this.loader = new WeakReference<>(loader);
+            this.header = header;
+            this.classfile = classfile;
+            this.domain = new WeakReference<>(domain);
+        }
+
+        /**
+         * @return The class file it was loaded from, as it was transformed at load time.
+         */
+        byte[] classfile(ClassLoader classLoader) {
+            if (classfile != null)
+                return classfile;
+            String name = header.getName().getAsSlashNotation() + ".class";
+            try (InputStream in = classLoader.getResourceAsStream(name)) {
+                if (in == null)
+                    throw new IllegalStateException("Could not find " + name + " in " + classLoader);
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * @return The class, or null if it was not defined after all or its class loader is gone.
+         */
+        @Nullable
+        Class<?> resolve() {
+            ClassLoader classLoader = loader.get();
+            if (classLoader == null)
+                return null;
+            try {
+                Class<?> clazz = Class.forName(header.getName().getFullyQualifiedName(), false, classLoader);
+                return clazz.getClassLoader() == classLoader ? clazz : null;
+            } catch (ClassNotFoundException | LinkageError e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.asm.test;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import syringe.asm.AsmSyringe;
+import syringe.asm.util.OpenClassLoader;
+import syringe.callbacks.method.MethodInvocationCallback;
+import syringe.util.WeavingPolicy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Checks that the classes of a root which is not on the classpath of the syringe can be woven, when computing their
+ * frames needs the common super class of two of them.
+ */
+public class ClasspathTest {
+
+    @Test
+    public void superClassesAreReadFromTheRoot() throws Exception {
+        Path root = Files.createTempDirectory("syringe");
+        Files.createDirectories(root.resolve("t"));
+        Files.write(root.resolve("t/A.class"), type("t/A", "java/lang/Object"));
+        Files.write(root.resolve("t/B.class"), type("t/B", "t/A"));
+        Files.write(root.resolve("t/C.class"), type("t/C", "t/A"));
+        Files.write(root.resolve("t/M.class"), picker());
+
+        AtomicInteger invoked = new AtomicInteger();
+        OpenClassLoader ocl = new OpenClassLoader(ClasspathTest.class.getClassLoader());
+        AsmSyringe syringe = new AsmSyringe(ocl);
+        syringe.setWeavingPolicy(WeavingPolicy.always());
+        syringe.addVisitor(new syringe.visitor.MethodVisitor() {
+            @Override
+            public Optional<MethodInvocationCallback> invokeMethod() {
+                return Optional.of((clazz, method, instance, params) -> invoked.incrementAndGet());
+            }
+        });
+        syringe.addClasspath(root);
+        syringe.inject();
+
+        Object picked = Class.forName("t.M", true, ocl).getMethod("pick", boolean.class).invoke(null, false);
+        assertEquals("t.C", picked.getClass().getName());
+        assertEquals(1, invoked.get());
+    }
+
+    private static byte[] type(String name, String superName) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, name, null, superName, null);
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, superName, "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * @return {@code class M { static A pick(boolean b) { return b ? new B() : new C(); } }}, with its frame.
+     */
+    private static byte[] picker() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, "t/M", null, "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "pick", "(Z)Lt/A;", null, null);
+        mv.visitCode();
+        Label other = new Label();
+        Label done = new Label();
+        mv.visitVarInsn(ILOAD, 0);
+        mv.visitJumpInsn(IFEQ, other);
+        mv.visitTypeInsn(NEW, "t/B");
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESPECIAL, "t/B", "<init>", "()V", false);
+        mv.visitJumpInsn(GOTO, done);
+        mv.visitLabel(other);
+        mv.visitFrame(F_SAME, 0, null, 0, null);
+        mv.visitTypeInsn(NEW, "t/C");
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESPECIAL, "t/C", "<init>", "()V", false);
+        mv.visitLabel(done);
+        mv.visitFrame(F_SAME1, 0, null, 1, new Object[]{"t/A"});
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.asm.test;
+
+import org.junit.Test;
+import syringe.asm.AsmSyringe;
+import syringe.asm.DispatchMode;
+import syringe.asm.util.OpenClassLoader;
+import syringe.callbacks.clazz.ClassInitializerCallback;
+import syringe.callbacks.method.MethodInvocationCallback;
+import syringe.util.WeavingPolicy;
+import syringe.visitor.ClassVisitor;
+import syringe.visitor.MethodVisitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that weaving the same class file twice produces the same classes, and that both can be defined.
+ */
+public class DeterminismTest {
+
+    @Test
+    public void staticFieldWeavesAreIdentical() throws Exception {
+        weaveTwice(DispatchMode.STATIC_FIELD);
+    }
+
+    @Test
+    public void invokedynamicWeavesAreIdentical() throws Exception {
+        weaveTwice(DispatchMode.INVOKEDYNAMIC);
+    }
+
+    private static void weaveTwice(DispatchMode dispatchMode) throws Exception {
+        AtomicInteger initialized = new AtomicInteger();
+        AtomicInteger invoked = new AtomicInteger();
+        AsmSyringe syringe = new AsmSyringe(new OpenClassLoader(DeterminismTest.class.getClassLoader()),
+                dispatchMode);
+        syringe.setWeavingPolicy(WeavingPolicy.always());
+        syringe.addVisitor(new ClassVisitor() {
+            @Override
+            public Optional<ClassInitializerCallback> classInit() {
+                return Optional.of((clazz, staticContext, fields, methods) -> initialized.incrementAndGet());
+            }
+        });
+        syringe.addVisitor(new MethodVisitor() {
+            @Override
+            public Optional<MethodInvocationCallback> invokeMethod() {
+                return Optional.of((clazz, method, instance, params) -> invoked.incrementAndGet());
+            }
+        });
+
+        byte[] classfile = classfile(Point.class);
+        Map<String, byte[]> first = syringe.weave(classfile);
+        Map<String, byte[]> second = syringe.weave(classfile);
+        assertEquals(first.keySet(), second.keySet());
+        for (Map.Entry<String, byte[]> woven : first.entrySet()) {
+            assertArrayEquals(woven.getKey(), woven.getValue(), second.get(woven.getKey()));
+        }
+
+        for (Map<String, byte[]> classes : Arrays.asList(first, second)) { //Each copy finds the values it expects
+            OpenClassLoader ocl = new OpenClassLoader(DeterminismTest.class.getClassLoader());
+            Class<?> woven = null;
+            for (Map.Entry<String, byte[]> c : classes.entrySet()) {
+                woven = ocl.define(c.getKey(), c.getValue(), true);
+            }
+            woven.getMethod("sum").invoke(woven.getConstructor().newInstance());
+        }
+        assertEquals(2, initialized.get());
+        assertEquals(2, invoked.get());
+    }
+
+    private static byte[] classfile(Class<?> clazz) throws IOException {
+        try (InputStream in = clazz.getResourceAsStream(clazz.getSimpleName() + ".class")) {
+            return in.readAllBytes();
+        }
+    }
+}
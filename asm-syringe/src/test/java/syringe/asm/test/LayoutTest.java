@@ -0,0 +1,93 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.asm.test;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.FieldLayout;
+import org.openjdk.jol.info.GraphLayout;
+import syringe.asm.SyringeClassVisitor;
+import syringe.asm.util.OpenClassLoader;
+import syringe.callbacks.clazz.ClassInitializerCallback;
+import syringe.util.CallbackCollector;
+import syringe.visitor.ClassVisitor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that weaving a class with a {@link ClassInitializerCallback} leaves the layout of its instances untouched.
+ */
+public class LayoutTest {
+
+    @Test
+    public void instanceLayoutIsUnchanged() throws Throwable {
+        List<Object> seen = new ArrayList<>();
+        ClassInitializerCallback callback = (clazz, staticContext, fields, methods) -> {
+            try {
+                seen.add(fields.get("x").get());
+                seen.add(methods.get("describe(Ljava/lang/String;)").invoke("a "));
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        };
+        Class<?> woven = weave(Point.class, new ClassVisitor() {
+            @Override
+            public Optional<ClassInitializerCallback> classInit() {
+                return Optional.of(callback);
+            }
+        });
+        Object instance = woven.getConstructor().newInstance();
+        assertEquals(3, seen.get(0));
+        assertEquals("a point", seen.get(1));
+
+        assertEquals(ClassLayout.parseClass(Point.class).instanceSize(), ClassLayout.parseClass(woven).instanceSize());
+        assertEquals(fields(ClassLayout.parseClass(Point.class)), fields(ClassLayout.parseClass(woven)));
+        assertEquals(GraphLayout.parseInstance(new Point()).totalSize(), GraphLayout.parseInstance(instance).totalSize());
+    }
+
+    /**
+     * @return The instance fields of the layout, with their types and offsets.
+     */
+    private static List<String> fields(ClassLayout layout) {
+        List<String> fields = new ArrayList<>();
+        for (FieldLayout field : layout.fields()) {
+            fields.add(field.typeClass() + " " + field.name() + " @" + field.offset());
+        }
+        return fields;
+    }
+
+    private static Class<?> weave(Class<?> target, ClassVisitor visitor) throws IOException {
+        OpenClassLoader ocl = new OpenClassLoader(LayoutTest.class.getClassLoader());
+        ClassReader reader = new ClassReader(target.getName());
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        SyringeClassVisitor scv = new SyringeClassVisitor(writer,
+                new CallbackCollector(Collections.singletonList(visitor), Collections.emptyList()),
+                () -> new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS));
+        reader.accept(scv, ClassReader.SKIP_FRAMES);
+        scv.getNeedsLoading().forEach((name, bytecode) -> ocl.define(name.replace("/", "."), bytecode, true));
+        return ocl.define(target.getName(), writer.toByteArray(), true);
+    }
+}
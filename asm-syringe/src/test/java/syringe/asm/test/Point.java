@@ -15,20 +15,25 @@
  * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package syringe.util;
+package syringe.asm.test;
 
-import java.util.UUID;
+/**
+ * A small class with fields and methods, woven by {@link LayoutTest}.
+ */
+public class Point {
 
-public final class RandomNameGenerator {
+    private int x = 3;
+    private int y = 4;
+    private String label = "point";
 
-    private RandomNameGenerator() {}
+    public Point() {
+    }
 
-    public static String generate() {
-        UUID uuid = UUID.randomUUID();
-        return uuid.toString().replaceAll("-", "_");
+    public int sum() {
+        return x + y;
     }
 
-    public static String generate(Class<?> type) {
-        return type.getSimpleName().replace("[]", "Array") + "_" + generate();
+    public String describe(String prefix) {
+        return prefix + label;
     }
 }
@@ -27,12 +27,15 @@ import syringe.callbacks.clazz.ClassInitializerCallback;
 import syringe.info.ClassInfo;
 import syringe.visitor.ClassVisitor;
 
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.util.Optional;
 
 public class Test {
 
     @org.junit.Test
-    public void test() throws ClassNotFoundException, IllegalAccessException, InstantiationException {
+    public void test() throws ClassNotFoundException, IllegalAccessException, InstantiationException,
+            URISyntaxException {
         OpenClassLoader ocl = new OpenClassLoader(Thread.currentThread().getContextClassLoader());
         Thread.currentThread().setContextClassLoader(ocl);
         AsmSyringe syringe = new AsmSyringe(ocl);
@@ -57,6 +60,7 @@ public class Test {
                 });
             }
         });
+        syringe.addClasspath(Paths.get(Test2.class.getProtectionDomain().getCodeSource().getLocation().toURI()));
         syringe.inject();
         Class<?> clazz = ocl.loadClass("syringe.asm.test.Test2");
         Test2 t2 = (Test2) clazz.newInstance();
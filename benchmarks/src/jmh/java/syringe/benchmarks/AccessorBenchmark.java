@@ -0,0 +1,267 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.benchmarks;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.openjdk.jmh.annotations.*;
+import syringe.access.FieldAccessor;
+import syringe.access.MethodAccessor;
+import syringe.asm.DispatchMode;
+import syringe.asm.util.OpenClassLoader;
+import syringe.benchmarks.target.Large;
+import syringe.callbacks.clazz.ClassInitializerCallback;
+import syringe.visitor.ClassVisitor;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Measures the load time and footprint of a class with many members woven with a {@link ClassInitializerCallback},
+ * which makes every member reachable through generated accessors. Besides the time to weave, define and instantiate
+ * the class, the classes loaded and metaspace used per woven class are reported as secondary results.
+ * <br>
+ * {@link #perMemberAccessors} is the baseline: the class is loaded as is, along with one accessor class per member
+ * instantiated for the instance, as accessors were generated before they were shared by the woven class. Only their
+ * footprint is compared, they are never called.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AccessorBenchmark {
+
+    private final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+    private MemoryPoolMXBean metaspace;
+    private ClassVisitor visitor;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+
+        public long loadedClasses;
+        public long metaspaceBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            loadedClasses = 0;
+            metaspaceBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        metaspace = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getName().equals("Metaspace"))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No metaspace memory pool"));
+        ClassInitializerCallback callback = (clazz, staticContext, fields, methods) -> {};
+        visitor = new ClassVisitor() {
+            @Override
+            public Optional<ClassInitializerCallback> classInit() {
+                return Optional.of(callback);
+            }
+        };
+    }
+
+    @Benchmark
+    public Object weaveAndLoad(Footprint footprint) throws ReflectiveOperationException {
+        long classes = classLoading.getTotalLoadedClassCount();
+        long used = metaspace.getUsage().getUsed();
+        Object instance = Weaving.asm(Large.class, DispatchMode.INVOKEDYNAMIC, Collections.singletonList(visitor),
+                Collections.emptyList()).getConstructor().newInstance();
+        footprint.loadedClasses += classLoading.getTotalLoadedClassCount() - classes;
+        footprint.metaspaceBytes += Math.max(0, metaspace.getUsage().getUsed() - used);
+        return instance;
+    }
+
+    @Benchmark
+    public Object perMemberAccessors(Footprint footprint) throws ReflectiveOperationException {
+        long classes = classLoading.getTotalLoadedClassCount();
+        long used = metaspace.getUsage().getUsed();
+        List<Object> instances = loadWithAccessors(Large.class);
+        footprint.loadedClasses += classLoading.getTotalLoadedClassCount() - classes;
+        footprint.metaspaceBytes += Math.max(0, metaspace.getUsage().getUsed() - used);
+        return instances;
+    }
+
+    /**
+     * Defines the class in a new class loader along with one accessor class for each of its instance fields and
+     * methods, and instantiates the class and its accessors.
+     *
+     * @return The instance, then its accessors.
+     */
+    private static List<Object> loadWithAccessors(Class<?> target) throws ReflectiveOperationException {
+        ClassReader reader;
+        try {
+            reader = new ClassReader(target.getName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        String owner = reader.getClassName();
+        List<byte[]> accessors = new ArrayList<>();
+        reader.accept(new org.objectweb.asm.ClassVisitor(ASM6) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature,
+                                           Object value) {
+                if ((access & (ACC_STATIC | ACC_SYNTHETIC)) == 0)
+                    accessors.add(accessor(owner, accessors.size(), name, descriptor, false));
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                             String[] exceptions) {
+                if ((access & (ACC_STATIC | ACC_SYNTHETIC)) == 0 && !name.startsWith("<"))
+                    accessors.add(accessor(owner, accessors.size(), name, descriptor, true));
+                return null;
+            }
+        }, ClassReader.SKIP_CODE);
+
+        OpenClassLoader ocl = new OpenClassLoader(AccessorBenchmark.class.getClassLoader());
+        Class<?> defined;
+        try {
+            defined = ocl.define(target.getName(), Weaving.classfile(target), true);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        List<Object> instances = new ArrayList<>();
+        instances.add(defined.getConstructor().newInstance());
+        for (int i = 0; i < accessors.size(); i++) {
+            Class<?> accessor = ocl.define(target.getName() + "$Accessor" + i, accessors.get(i), true);
+            instances.add(accessor.getConstructor(defined).newInstance(instances.get(0)));
+        }
+        return instances;
+    }
+
+    /**
+     * @return A {@link FieldAccessor} or {@link MethodAccessor} for a member of the given instance.
+     */
+    private static byte[] accessor(String owner, int index, String member, String descriptor, boolean method) {
+        String name = owner + "$Accessor" + index;
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER | ACC_SYNTHETIC, name, null, "java/lang/Object",
+                new String[]{Type.getInternalName(method ? MethodAccessor.class : FieldAccessor.class)});
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, "instance", "L" + owner + ";", null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "(L" + owner + ";)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitFieldInsn(PUTFIELD, name, "instance", "L" + owner + ";");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        Type result;
+        if (method) {
+            mv = cw.visitMethod(ACC_PUBLIC | ACC_VARARGS, "invoke", "([Ljava/lang/Object;)Ljava/lang/Object;", null,
+                    new String[]{"java/lang/Throwable"});
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, name, "instance", "L" + owner + ";");
+            Type[] params = Type.getArgumentTypes(descriptor);
+            for (int i = 0; i < params.length; i++) {
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitLdcInsn(i);
+                mv.visitInsn(AALOAD);
+                unbox(mv, params[i]);
+            }
+            mv.visitMethodInsn(INVOKEVIRTUAL, owner, member, descriptor, false);
+            result = Type.getReturnType(descriptor);
+        } else {
+            mv = cw.visitMethod(ACC_PUBLIC, "get", "()Ljava/lang/Object;", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, name, "instance", "L" + owner + ";");
+            mv.visitFieldInsn(GETFIELD, owner, member, descriptor);
+            result = Type.getType(descriptor);
+        }
+        if (result.getSort() == Type.VOID)
+            mv.visitInsn(ACONST_NULL);
+        else
+            box(mv, result);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void box(MethodVisitor mv, Type type) {
+        Type boxed = boxed(type);
+        if (boxed != null)
+            mv.visitMethodInsn(INVOKESTATIC, boxed.getInternalName(), "valueOf",
+                    Type.getMethodDescriptor(boxed, type), false);
+    }
+
+    private static void unbox(MethodVisitor mv, Type type) {
+        Type boxed = boxed(type);
+        if (boxed == null) {
+            mv.visitTypeInsn(CHECKCAST, type.getInternalName());
+            return;
+        }
+        mv.visitTypeInsn(CHECKCAST, boxed.getInternalName());
+        mv.visitMethodInsn(INVOKEVIRTUAL, boxed.getInternalName(), type.getClassName() + "Value",
+                Type.getMethodDescriptor(type), false);
+    }
+
+    /**
+     * @return The wrapper type of a primitive type, or null for a reference type.
+     */
+    @Nullable
+    private static Type boxed(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return Type.getType(Boolean.class);
+            case Type.CHAR:
+                return Type.getType(Character.class);
+            case Type.BYTE:
+                return Type.getType(Byte.class);
+            case Type.SHORT:
+                return Type.getType(Short.class);
+            case Type.INT:
+                return Type.getType(Integer.class);
+            case Type.FLOAT:
+                return Type.getType(Float.class);
+            case Type.LONG:
+                return Type.getType(Long.class);
+            case Type.DOUBLE:
+                return Type.getType(Double.class);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.benchmarks;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import syringe.asm.DispatchMode;
+import syringe.asm.util.OpenClassLoader;
+import syringe.benchmarks.target.Calls;
+import syringe.callbacks.method.MethodInvocationCallback;
+import syringe.util.Arguments;
+import syringe.visitor.MethodVisitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-call allocations made to hand arguments to generic method invocation callbacks. Run with the gc
+ * profiler (enabled in the build) and compare {@code gc.alloc.rate.norm}: {@code copiedList} reproduces the former
+ * template, which copied the argument array into a new list for every callback, while {@code sharedArguments} builds a
+ * single {@link Arguments} view per call. {@code woven} and {@code javassistWoven} call a method woven with the ASM and
+ * Javassist backends, and {@code javassistCopiedList} calls the same method with the former Javassist template inserted
+ * once per callback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ArgumentsBenchmark {
+
+    @Param({"1", "5"})
+    public int callbacks;
+
+    public int a = 42;
+    public String b = "syringe";
+    public long c = 1337L;
+
+    private MethodHandle mixed;
+    private MethodHandle javassistMixed;
+    private MethodHandle legacyMixed;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        List<MethodVisitor> mvs = new ArrayList<>();
+        for (int i = 0; i < callbacks; i++) {
+            MethodInvocationCallback callback = (clazz, method, instance, params) -> params.getInt(0);
+            mvs.add(new MethodVisitor() {
+                @Override
+                public Optional<MethodInvocationCallback> invokeMethod() {
+                    return Optional.of(callback);
+                }
+            });
+        }
+        mixed = mixed(Weaving.asm(Calls.class, DispatchMode.INVOKEDYNAMIC, Collections.emptyList(), mvs));
+        javassistMixed = mixed(Weaving.javassist(Calls.class, Collections.emptyList(), mvs));
+        legacyMixed = mixed(legacy(callbacks));
+    }
+
+    private static MethodHandle mixed(Class<?> woven) throws ReflectiveOperationException {
+        return MethodHandles.publicLookup().findStatic(woven, "mixed",
+                MethodType.methodType(long.class, int.class, String.class, long.class));
+    }
+
+    /**
+     * Inserts the former Javassist invocation template, which copied the arguments into a new list for each callback.
+     */
+    private static Class<?> legacy(int callbacks) {
+        ClassPool cp = new ClassPool(true);
+        cp.appendClassPath(new LoaderClassPath(ArgumentsBenchmark.class.getClassLoader()));
+        byte[] bytecode;
+        try {
+            CtClass ct = cp.makeClass(new ByteArrayInputStream(Weaving.classfile(Calls.class)));
+            StringBuilder insertion = new StringBuilder("{");
+            for (int i = 0; i < callbacks; i++) {
+                insertion.append(ArgumentsBenchmark.class.getName())
+                        .append(".legacyCallback(new java.util.ArrayList(java.util.Arrays.asList($args)));");
+            }
+            ct.getDeclaredMethod("mixed").insertBefore(insertion.append("}").toString());
+            bytecode = ct.toBytecode();
+        } catch (IOException | NotFoundException | CannotCompileException e) {
+            throw new RuntimeException(e);
+        }
+        return new OpenClassLoader(ArgumentsBenchmark.class.getClassLoader()).define(Calls.class.getName(), bytecode,
+                true);
+    }
+
+    /**
+     * The callback called by the former template, reading the same argument as the current callbacks.
+     */
+    public static int legacyCallback(List<Object> params) {
+        return (Integer) params.get(0);
+    }
+
+    @Benchmark
+    public void copiedList(Blackhole bh) {
+        Object[] args = new Object[] {a, b, c};
+        for (int i = 0; i < callbacks; i++) {
+            bh.consume(new ArrayList<>(Arrays.asList(args)));
+        }
+    }
+
+    @Benchmark
+    public void sharedArguments(Blackhole bh) {
+        Arguments args = new Arguments(new Object[] {a, b, c});
+        for (int i = 0; i < callbacks; i++) {
+            bh.consume(args.getInt(0));
+        }
+    }
+
+    @Benchmark
+    public long woven() throws Throwable {
+        return (long) mixed.invokeExact(a, b, c);
+    }
+
+    @Benchmark
+    public long javassistWoven() throws Throwable {
+        return (long) javassistMixed.invokeExact(a, b, c);
+    }
+
+    @Benchmark
+    public long javassistCopiedList() throws Throwable {
+        return (long) legacyMixed.invokeExact(a, b, c);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.benchmarks;
+
+import syringe.asm.DispatchMode;
+import syringe.visitor.ClassVisitor;
+import syringe.visitor.MethodVisitor;
+
+import java.util.Collection;
+
+/**
+ * The ways a benchmark target can be woven, including not at all as a baseline.
+ */
+public enum Backend {
+
+    UNWOVEN {
+        @Override
+        public Class<?> weave(Class<?> target, Collection<ClassVisitor> cvs, Collection<MethodVisitor> mvs) {
+            return target;
+        }
+    },
+    ASM_STATIC_FIELD {
+        @Override
+        public Class<?> weave(Class<?> target, Collection<ClassVisitor> cvs, Collection<MethodVisitor> mvs) {
+            return Weaving.asm(target, DispatchMode.STATIC_FIELD, cvs, mvs);
+        }
+    },
+    ASM_INVOKEDYNAMIC {
+        @Override
+        public Class<?> weave(Class<?> target, Collection<ClassVisitor> cvs, Collection<MethodVisitor> mvs) {
+            return Weaving.asm(target, DispatchMode.INVOKEDYNAMIC, cvs, mvs);
+        }
+    },
+    JAVASSIST {
+        @Override
+        public Class<?> weave(Class<?> target, Collection<ClassVisitor> cvs, Collection<MethodVisitor> mvs) {
+            return Weaving.javassist(target, cvs, mvs);
+        }
+    };
+
+    public abstract Class<?> weave(Class<?> target, Collection<ClassVisitor> cvs, Collection<MethodVisitor> mvs);
+}
@@ -0,0 +1,67 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import syringe.benchmarks.target.Plain;
+import syringe.callbacks.clazz.ClassInitializerCallback;
+import syringe.visitor.ClassVisitor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of a {@link ClassInitializerCallback} on construction of a class woven by each backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ClassInitializerBenchmark {
+
+    static volatile long sink;
+
+    @Param
+    public Backend backend;
+
+    private MethodHandle constructor;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        ClassVisitor visitor = new ClassVisitor() {
+            @Override
+            public Optional<ClassInitializerCallback> classInit() {
+                return Optional.of((clazz, staticContext, fields, methods) -> sink++);
+            }
+        };
+        Class<?> woven = backend.weave(Plain.class, Collections.singletonList(visitor), Collections.emptyList());
+        constructor = MethodHandles.publicLookup()
+                .findConstructor(woven, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(Object.class));
+    }
+
+    @Benchmark
+    public Object construct() throws Throwable {
+        return (Object) constructor.invokeExact();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.benchmarks;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import syringe.asm.SyringeClassVisitor;
+import syringe.callbacks.method.MethodInvocationCallback;
+import syringe.util.CallbackCollector;
+import syringe.util.ClassName;
+import syringe.visitor.MethodVisitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Measures {@link ClassName} lookups and conversions, and the throughput of weaving every class of a jar (the ASM jar
+ * on the benchmark classpath), which leans heavily on them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ClassNameBenchmark {
+
+    public String descriptor = "[Ljava/lang/String;";
+    public String dotted = "java.lang.String[]";
+
+    private final List<byte[]> jar = new ArrayList<>();
+    private CallbackCollector callbacks;
+
+    @Setup
+    public void setup() throws IOException, URISyntaxException {
+        try (JarFile file = new JarFile(Paths.get(ClassReader.class.getProtectionDomain().getCodeSource().getLocation()
+                .toURI()).toFile())) {
+            Enumeration<JarEntry> entries = file.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (!entry.getName().endsWith(".class") || entry.getName().endsWith("module-info.class"))
+                    continue;
+                try (InputStream in = file.getInputStream(entry)) {
+                    jar.add(in.readAllBytes());
+                }
+            }
+        }
+        MethodInvocationCallback invocation = (clazz, method, instance, params) -> null;
+        callbacks = new CallbackCollector(Collections.emptyList(), Collections.singletonList(new MethodVisitor() {
+            @Override
+            public Optional<MethodInvocationCallback> invokeMethod() {
+                return Optional.of(invocation);
+            }
+        }));
+    }
+
+    @Benchmark
+    public ClassName lookup() {
+        return ClassName.of(descriptor);
+    }
+
+    @Benchmark
+    public boolean equality() {
+        return ClassName.of(descriptor).equals(ClassName.of(dotted));
+    }
+
+    @Benchmark
+    public String conversions(Blackhole bh) {
+        ClassName name = ClassName.of(dotted);
+        bh.consume(name.getFullyQualifiedName());
+        bh.consume(name.getAsSlashNotation());
+        return name.getAsInternalTypeName();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void weaveJar(Blackhole bh) {
+        for (byte[] bytecode : jar) {
+            ClassReader reader = new ClassReader(bytecode);
+            ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+            SyringeClassVisitor scv = new SyringeClassVisitor(writer, callbacks,
+                    () -> new ClassWriter(ClassWriter.COMPUTE_MAXS));
+            reader.accept(scv, ClassReader.SKIP_FRAMES);
+            bh.consume(writer.toByteArray());
+            bh.consume(scv.getNeedsLoading());
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.benchmarks;
+
+import javassist.ClassPool;
+import javassist.NotFoundException;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.openjdk.jmh.annotations.*;
+import syringe.asm.DispatchMode;
+import syringe.asm.GlobalRegistry;
+import syringe.asm.SyringeClassVisitor;
+import syringe.callbacks.clazz.ClassInitializerCallback;
+import syringe.callbacks.method.MethodInvocationCallback;
+import syringe.callbacks.method.MethodReturnCallback;
+import syringe.javassist.JavassistSyringe;
+import syringe.javassist.util.InitializerRepository;
+import syringe.util.CallbackCollector;
+import syringe.util.ClassFiles;
+import syringe.util.InstrumentationSwitches;
+import syringe.util.WeavingPolicy;
+import syringe.visitor.ClassVisitor;
+import syringe.visitor.MethodVisitor;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how many classes of a corpus each backend weaves per second, on one thread and on every available
+ * processor. The corpus is a module of the running JDK by default, and can be any jar or directory, e.g.
+ * {@code -p corpus=/path/to/app.jar}. Each thread cycles through the corpus from its own offset, so threads rarely
+ * weave the same class at once.
+ * <br>
+ * The bytes read per second are reported as the {@code bytes} counter, and the allocation per class as
+ * {@code gc.alloc.rate.norm} by the GC profiler. Every method of every class gets an invocation and return callback,
+ * and every class a class initializer callback. Classes a backend fails to weave are left out of its corpus.
+ * <br>
+ * Woven classes are never defined, so each weave releases the values it registers right away, from the
+ * {@link GlobalRegistry} or the {@link InitializerRepository}, and the registries do not grow over a run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CorpusBenchmark {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    private static final MethodInvocationCallback invocation = (clazz, method, instance, params) -> null;
+    private static final MethodReturnCallback ret = (clazz, method, instance, params, originalReturn) -> originalReturn;
+    private static final ClassInitializerCallback classInit = (clazz, staticContext, fields, methods) -> {};
+
+    /**
+     * A module of the running JDK as {@code jrt:/<module>}, or the path of a jar or directory.
+     */
+    @Param({"jrt:/java.base"})
+    public String corpus;
+
+    @Param({"ASM_STATIC_FIELD", "ASM_INVOKEDYNAMIC", "JAVASSIST"})
+    public Backend backend;
+
+    private byte[][] classfiles;
+    private final AtomicInteger offsets = new AtomicInteger();
+    private ClassLoader types;
+    private final Map<String, String> superNames = new ConcurrentHashMap<>();
+    private CallbackCollector cc;
+    private final InstrumentationSwitches switches = new InstrumentationSwitches();
+    private final WeavingPolicy policy = WeavingPolicy.always(); //Which does not record any excluded method
+    private JavassistSyringe javassist;
+
+    @Setup
+    public void setup() throws IOException, NotFoundException {
+        Path root;
+        if (corpus.startsWith("jrt:/")) {
+            root = FileSystems.getFileSystem(URI.create("jrt:/")).getPath("modules", corpus.substring(5));
+            types = ClassLoader.getSystemClassLoader();
+        } else {
+            root = Paths.get(corpus);
+            types = new URLClassLoader(new URL[]{root.toUri().toURL()}, ClassLoader.getSystemClassLoader());
+            ClassPool.getDefault().appendClassPath(root.toString());
+        }
+        Map<String, byte[]> read = new LinkedHashMap<>();
+        ClassFiles.read(root, read::put);
+
+        ClassVisitor cv = new ClassVisitor() {
+            @Override
+            public Optional<ClassInitializerCallback> classInit() {
+                return Optional.of(classInit);
+            }
+        };
+        MethodVisitor mv = new MethodVisitor() {
+            @Override
+            public Optional<MethodInvocationCallback> invokeMethod() {
+                return Optional.of(invocation);
+            }
+
+            @Override
+            public Optional<MethodReturnCallback> methodReturn() {
+                return Optional.of(ret);
+            }
+        };
+        cc = new CallbackCollector(Collections.singletonList(cv), Collections.singletonList(mv));
+        javassist = new JavassistSyringe();
+        javassist.setWeavingPolicy(policy);
+        javassist.addVisitor(cv);
+        javassist.addVisitor(mv);
+
+        List<byte[]> weavable = new ArrayList<>();
+        for (byte[] classfile : read.values()) {
+            ClassReader reader = new ClassReader(classfile);
+            if (reader.getSuperName() != null)
+                superNames.put(reader.getClassName(), reader.getSuperName());
+        }
+        for (byte[] classfile : read.values()) {
+            try {
+                weave(classfile);
+                weavable.add(classfile);
+            } catch (RuntimeException e) {
+                //Left out
+            }
+        }
+        if (weavable.isEmpty())
+            throw new IllegalStateException("No class of " + corpus + " could be woven");
+        classfiles = weavable.toArray(new byte[0][]);
+    }
+
+    /**
+     * The position of a thread in the corpus, and the bytes it has woven in the current iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Progress {
+
+        public long bytes;
+        int next;
+
+        @Setup
+        public void start(CorpusBenchmark benchmark) {
+            next = benchmark.offsets.getAndAdd(benchmark.classfiles.length / Runtime.getRuntime().availableProcessors());
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object singleThread(Progress progress) {
+        return next(progress);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object allThreads(Progress progress) {
+        return next(progress);
+    }
+
+    private Object next(Progress progress) {
+        byte[] classfile = classfiles[Math.floorMod(progress.next++, classfiles.length)];
+        progress.bytes += classfile.length;
+        return weave(classfile);
+    }
+
+    private Map<String, byte[]> weave(byte[] classfile) {
+        switch (backend) {
+            case ASM_STATIC_FIELD:
+                return asm(classfile, DispatchMode.STATIC_FIELD);
+            case ASM_INVOKEDYNAMIC:
+                return asm(classfile, DispatchMode.INVOKEDYNAMIC);
+            case JAVASSIST:
+                return javassist(classfile);
+            default:
+                throw new IllegalArgumentException(backend.toString());
+        }
+    }
+
+    private Map<String, byte[]> asm(byte[] classfile, DispatchMode mode) {
+        ClassReader reader = new ClassReader(classfile);
+        ClassWriter writer = new CorpusClassWriter(reader);
+        SyringeClassVisitor scv = new SyringeClassVisitor(writer, cc, () -> new CorpusClassWriter(null), mode,
+                switches, policy);
+        reader.accept(scv, ClassReader.SKIP_FRAMES);
+        Map<String, byte[]> classes = new LinkedHashMap<>(scv.getNeedsLoading());
+        classes.put(reader.getClassName(), writer.toByteArray());
+        scv.getRegistrations().keySet().forEach(GlobalRegistry::get);
+        return classes;
+    }
+
+    private Map<String, byte[]> javassist(byte[] classfile) {
+        List<String> keys = new ArrayList<>();
+        Map<String, byte[]> classes = javassist.weave(classfile, keys);
+        keys.forEach(InitializerRepository::getAndRemove);
+        return classes;
+    }
+
+    /**
+     * Computes frames from the super classes of the corpus, which were read ahead, and of the types it refers to.
+     */
+    private final class CorpusClassWriter extends ClassWriter {
+
+        CorpusClassWriter(@Nullable ClassReader classReader) {
+            super(classReader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        }
+
+        @Override
+        protected String getCommonSuperClass(String type1, String type2) {
+            Set<String> supers = new HashSet<>();
+            for (String type = type1; type != null; type = superName(type)) {
+                supers.add(type);
+            }
+            for (String type = type2; type != null; type = superName(type)) {
+                if (supers.contains(type))
+                    return type;
+            }
+            return OBJECT;
+        }
+
+        @Nullable
+        private String superName(String type) {
+            return type.equals(OBJECT) ? null : superNames.computeIfAbsent(type, t -> {
+                try (InputStream in = types.getResourceAsStream(t + ".class")) {
+                    if (in == null)
+                        throw new TypeNotPresentException(t.replace('/', '.'), null);
+                    return new ClassReader(in).getSuperName();
+                } catch (IOException e) {
+                    throw new TypeNotPresentException(t.replace('/', '.'), e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import syringe.asm.DispatchMode;
+import syringe.benchmarks.target.Plain;
+import syringe.callbacks.clazz.ClassInitializerCallback;
+import syringe.visitor.ClassVisitor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares static field dispatch against invokedynamic dispatch of callbacks in code woven by the ASM backend. Each
+ * registered visitor supplies a callback of a distinct class, so with several visitors the static field call site
+ * becomes megamorphic.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DispatchBenchmark {
+
+    static volatile long sink;
+
+    private static final ClassInitializerCallback[] callbacks = new ClassInitializerCallback[] {
+            (clazz, staticContext, fields, methods) -> sink++,
+            (clazz, staticContext, fields, methods) -> sink += 2,
+            (clazz, staticContext, fields, methods) -> sink += 3,
+            (clazz, staticContext, fields, methods) -> sink += 4,
+            (clazz, staticContext, fields, methods) -> sink += 5
+    };
+
+    @Param({"STATIC_FIELD", "INVOKEDYNAMIC"})
+    public DispatchMode mode;
+
+    @Param({"1", "5"})
+    public int visitors;
+
+    private MethodHandle constructor;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        List<ClassVisitor> cvs = new ArrayList<>();
+        for (int i = 0; i < visitors; i++) {
+            ClassInitializerCallback callback = callbacks[i];
+            cvs.add(new ClassVisitor() {
+                @Override
+                public Optional<ClassInitializerCallback> classInit() {
+                    return Optional.of(callback);
+                }
+            });
+        }
+        Class<?> woven = Weaving.asm(Plain.class, mode, cvs, Collections.emptyList());
+        constructor = MethodHandles.publicLookup()
+                .findConstructor(woven, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(Object.class));
+    }
+
+    @Benchmark
+    public Object construct() throws Throwable {
+        return (Object) constructor.invokeExact();
+    }
+}
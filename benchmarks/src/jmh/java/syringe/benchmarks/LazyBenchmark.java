@@ -0,0 +1,84 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import syringe.util.Lazy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures {@link Lazy}: racing first accesses from several threads, which must run the supplier exactly once, and
+ * reads of an initialized value.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LazyBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Contended {
+
+        final AtomicInteger computations = new AtomicInteger();
+        Lazy<Object> lazy;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            computations.set(0);
+            lazy = new Lazy<>(() -> {
+                computations.incrementAndGet();
+                return Lazy.class.getMethods();
+            });
+        }
+
+        @TearDown(Level.Iteration)
+        public void check() {
+            if (computations.get() != 1)
+                throw new IllegalStateException("Supplier ran " + computations.get() + " times");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Initialized {
+
+        final Lazy<Object> lazy = new Lazy<>(Object::new);
+
+        @Setup
+        public void setup() {
+            lazy.get();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 20)
+    @Measurement(iterations = 200)
+    @Threads(4)
+    public Object contendedFirstAccess(Contended state) {
+        return state.lazy.get();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object steadyStateRead(Initialized state) {
+        return state.lazy.get();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import syringe.benchmarks.target.Failing;
+import syringe.benchmarks.target.Signatures;
+import syringe.callbacks.method.ExceptionThrownCallback;
+import syringe.callbacks.method.MethodInvocationCallback;
+import syringe.callbacks.method.MethodReturnCallback;
+import syringe.visitor.MethodVisitor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per call overhead of a single method callback of each type, on methods of various arities and
+ * signatures woven by each backend. Exception callbacks are measured on methods which always throw, and replace the
+ * exception with a return value, while the unwoven baseline catches it. Run with the GC profiler to see the
+ * allocations boxing and argument views incur.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MethodCallbackBenchmark {
+
+    public enum Hook {
+        INVOCATION, RETURN, EXCEPTION
+    }
+
+    private static final Integer ZERO = 0; //Cached, so replacing an exception does not allocate
+
+    @Param
+    public Backend backend;
+
+    @Param
+    public Hook hook;
+
+    public int i = 1;
+    public long l = 2;
+    public double d = 3;
+    public String s = "s";
+    public Object o = new Object();
+    public Object[] array = new Object[0];
+
+    private MethodHandle primitive0;
+    private MethodHandle primitive1;
+    private MethodHandle primitive3;
+    private MethodHandle reference1;
+    private MethodHandle reference3;
+    private MethodHandle mixed;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        MethodVisitor visitor;
+        switch (hook) {
+            case INVOCATION:
+                visitor = new MethodVisitor() {
+                    @Override
+                    public Optional<MethodInvocationCallback> invokeMethod() {
+                        return Optional.of((clazz, method, instance, params) -> null);
+                    }
+                };
+                break;
+            case RETURN:
+                visitor = new MethodVisitor() {
+                    @Override
+                    public Optional<MethodReturnCallback> methodReturn() {
+                        return Optional.of((clazz, method, instance, params, originalReturn) -> originalReturn);
+                    }
+                };
+                break;
+            default:
+                visitor = new MethodVisitor() {
+                    @Override
+                    public Optional<ExceptionThrownCallback> throwException() {
+                        return Optional.of((clazz, method, t) -> ZERO);
+                    }
+                };
+        }
+        Class<?> target = hook == Hook.EXCEPTION ? Failing.class : Signatures.class;
+        Class<?> woven = backend.weave(target, Collections.emptyList(), Collections.singletonList(visitor));
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        primitive0 = lookup.findStatic(woven, "primitive0", MethodType.methodType(int.class));
+        primitive1 = lookup.findStatic(woven, "primitive1", MethodType.methodType(int.class, int.class));
+        primitive3 = lookup.findStatic(woven, "primitive3",
+                MethodType.methodType(int.class, int.class, long.class, double.class));
+        reference1 = lookup.findStatic(woven, "reference1", MethodType.methodType(Object.class, Object.class));
+        reference3 = lookup.findStatic(woven, "reference3",
+                MethodType.methodType(Object.class, String.class, Object.class, Object[].class));
+        mixed = lookup.findStatic(woven, "mixed", MethodType.methodType(int.class, int.class, String.class, long.class));
+    }
+
+    @Benchmark
+    public int primitive0() throws Throwable {
+        try {
+            return (int) primitive0.invokeExact();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    @Benchmark
+    public int primitive1() throws Throwable {
+        try {
+            return (int) primitive1.invokeExact(i);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    @Benchmark
+    public int primitive3() throws Throwable {
+        try {
+            return (int) primitive3.invokeExact(i, l, d);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    @Benchmark
+    public Object reference1() throws Throwable {
+        try {
+            return (Object) reference1.invokeExact(o);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public Object reference3() throws Throwable {
+        try {
+            return (Object) reference3.invokeExact(s, o, array);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public int mixed() throws Throwable {
+        try {
+            return (int) mixed.invokeExact(i, s, l);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+}
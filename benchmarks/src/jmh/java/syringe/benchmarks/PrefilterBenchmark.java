@@ -0,0 +1,84 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.benchmarks;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.*;
+import syringe.asm.AsmSyringe;
+import syringe.asm.util.OpenClassLoader;
+import syringe.benchmarks.target.Large;
+import syringe.callbacks.method.MethodInvocationCallback;
+import syringe.util.ClassHeader;
+import syringe.visitor.ClassMatcher;
+import syringe.visitor.MethodVisitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what the load-time agent spends on a class no visitor applies to, which is most of them. The header of the
+ * class file is read and matched, and compared with reading the class file with ASM, skipping code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PrefilterBenchmark {
+
+    private byte[] classfile;
+    private AsmSyringe syringe;
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream in = Large.class.getResourceAsStream("Large.class")) {
+            classfile = in.readAllBytes();
+        }
+        MethodInvocationCallback invocation = (clazz, method, instance, params) -> null;
+        syringe = new AsmSyringe(new OpenClassLoader(PrefilterBenchmark.class.getClassLoader()));
+        syringe.addVisitor(new MethodVisitor() {
+            @Override
+            public ClassMatcher classes() {
+                return ClassMatcher.named("com.example.**");
+            }
+
+            @Override
+            public Optional<MethodInvocationCallback> invokeMethod() {
+                return Optional.of(invocation);
+            }
+        });
+    }
+
+    @Benchmark
+    public boolean header() {
+        ClassHeader header = ClassHeader.read(classfile);
+        return header != null && syringe.appliesTo(header);
+    }
+
+    @Benchmark
+    public Object parse() {
+        ClassVisitor visitor = new ClassVisitor(Opcodes.ASM6) {};
+        new ClassReader(classfile).accept(visitor, ClassReader.SKIP_CODE);
+        return visitor;
+    }
+}
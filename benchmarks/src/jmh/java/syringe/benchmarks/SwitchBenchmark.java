@@ -0,0 +1,93 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import syringe.asm.DispatchMode;
+import syringe.benchmarks.target.Calls;
+import syringe.callbacks.method.MethodInvocationCallback;
+import syringe.callbacks.method.MethodReturnCallback;
+import syringe.util.InstrumentationSwitches;
+import syringe.visitor.MethodVisitor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a woven method whose callbacks are switched off at runtime, against the same method without
+ * weaving. With either the global or the visitor switch off, {@code woven} should be indistinguishable from
+ * {@code plain}, and allocate nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SwitchBenchmark {
+
+    public enum State {
+        ENABLED, VISITOR_DISABLED, GLOBAL_DISABLED
+    }
+
+    @Param({"ENABLED", "VISITOR_DISABLED", "GLOBAL_DISABLED"})
+    public State state;
+
+    public int a = 42;
+    public String b = "syringe";
+    public long c = 1337L;
+
+    private MethodHandle mixed;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        MethodInvocationCallback invocation = (clazz, method, instance, params) -> params.getInt(0);
+        MethodReturnCallback ret = (clazz, method, instance, params, originalReturn) -> originalReturn;
+        MethodVisitor visitor = new MethodVisitor() {
+            @Override
+            public Optional<MethodInvocationCallback> invokeMethod() {
+                return Optional.of(invocation);
+            }
+
+            @Override
+            public Optional<MethodReturnCallback> methodReturn() {
+                return Optional.of(ret);
+            }
+        };
+        InstrumentationSwitches switches = new InstrumentationSwitches();
+        switches.global().setEnabled(state != State.GLOBAL_DISABLED);
+        switches.forVisitor(visitor).setEnabled(state != State.VISITOR_DISABLED);
+        Class<?> woven = Weaving.asm(Calls.class, DispatchMode.INVOKEDYNAMIC, Collections.emptyList(),
+                Collections.singletonList(visitor), switches);
+        mixed = MethodHandles.publicLookup().findStatic(woven, "mixed",
+                MethodType.methodType(long.class, int.class, String.class, long.class));
+    }
+
+    @Benchmark
+    public long plain() {
+        return Calls.mixed(a, b, c);
+    }
+
+    @Benchmark
+    public long woven() throws Throwable {
+        return (long) mixed.invokeExact(a, b, c);
+    }
+}
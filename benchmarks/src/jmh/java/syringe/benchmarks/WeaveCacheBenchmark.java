@@ -0,0 +1,125 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import syringe.asm.AsmSyringe;
+import syringe.asm.DispatchMode;
+import syringe.asm.util.OpenClassLoader;
+import syringe.benchmarks.target.Large;
+import syringe.callbacks.clazz.ClassInitializerCallback;
+import syringe.callbacks.method.MethodInvocationCallback;
+import syringe.util.WeaveCache;
+import syringe.util.WeavingPolicy;
+import syringe.visitor.ClassVisitor;
+import syringe.visitor.MethodVisitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares weaving a class with restoring it from a warm {@link WeaveCache}. Both define and initialize the outcome,
+ * which a restored class relies on just as much as a woven one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class WeaveCacheBenchmark {
+
+    private byte[] classfile;
+    private Path directory;
+    private AsmSyringe uncached;
+    private AsmSyringe cached;
+
+    @Setup
+    public void setup() throws IOException, ReflectiveOperationException {
+        try (InputStream in = Large.class.getResourceAsStream("Large.class")) {
+            classfile = in.readAllBytes();
+        }
+        directory = Files.createTempDirectory("syringe-cache");
+        uncached = syringe();
+        cached = syringe();
+        cached.setCache(new WeaveCache(directory, 64 * 1024 * 1024), "benchmark");
+        load(cached.weave(classfile)); //Warms the cache
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private static AsmSyringe syringe() {
+        AsmSyringe syringe = new AsmSyringe(new OpenClassLoader(WeaveCacheBenchmark.class.getClassLoader()),
+                DispatchMode.INVOKEDYNAMIC);
+        syringe.setWeavingPolicy(WeavingPolicy.always());
+        syringe.addVisitor(new Initializing());
+        syringe.addVisitor(new Invoking());
+        return syringe;
+    }
+
+    /**
+     * Named, so cached classes are told apart by the visitor's class name.
+     */
+    public static final class Initializing implements ClassVisitor {
+
+        private final ClassInitializerCallback initializer = (clazz, staticContext, fields, methods) -> {};
+
+        @Override
+        public Optional<ClassInitializerCallback> classInit() {
+            return Optional.of(initializer);
+        }
+    }
+
+    public static final class Invoking implements MethodVisitor {
+
+        private final MethodInvocationCallback invocation = (clazz, method, instance, params) -> null;
+
+        @Override
+        public Optional<MethodInvocationCallback> invokeMethod() {
+            return Optional.of(invocation);
+        }
+    }
+
+    private static Class<?> load(Map<String, byte[]> classes) throws ReflectiveOperationException {
+        OpenClassLoader ocl = new OpenClassLoader(WeaveCacheBenchmark.class.getClassLoader());
+        classes.forEach((name, bytecode) -> ocl.define(name, bytecode, true));
+        return Class.forName(Large.class.getName(), true, ocl);
+    }
+
+    @Benchmark
+    public Class<?> weave() throws ReflectiveOperationException {
+        return load(uncached.weave(classfile));
+    }
+
+    @Benchmark
+    public Class<?> restore() throws ReflectiveOperationException {
+        return load(cached.weave(classfile));
+    }
+}
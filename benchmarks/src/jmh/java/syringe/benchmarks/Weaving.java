@@ -0,0 +1,105 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.benchmarks;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import syringe.asm.DispatchMode;
+import syringe.asm.SyringeClassVisitor;
+import syringe.asm.util.OpenClassLoader;
+import syringe.javassist.JavassistSyringe;
+import syringe.util.CallbackCollector;
+import syringe.util.InstrumentationSwitches;
+import syringe.util.WeavingPolicy;
+import syringe.visitor.ClassVisitor;
+import syringe.visitor.MethodVisitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Shared helpers for weaving benchmark targets into fresh class loaders.
+ */
+public final class Weaving {
+
+    private Weaving() {}
+
+    /**
+     * Weaves the given class with the ASM backend and defines it in a new {@link OpenClassLoader}. Every method is
+     * woven regardless of its size, as the targets are deliberately small.
+     */
+    public static Class<?> asm(Class<?> target, DispatchMode mode, Collection<ClassVisitor> cvs,
+                               Collection<MethodVisitor> mvs) {
+        return asm(target, mode, cvs, mvs, new InstrumentationSwitches());
+    }
+
+    /**
+     * Weaves the given class with the ASM backend, with its callbacks controlled by the given switches, and defines it
+     * in a new {@link OpenClassLoader}.
+     */
+    public static Class<?> asm(Class<?> target, DispatchMode mode, Collection<ClassVisitor> cvs,
+                               Collection<MethodVisitor> mvs, InstrumentationSwitches switches) {
+        OpenClassLoader ocl = new OpenClassLoader(Weaving.class.getClassLoader());
+        CallbackCollector cc = new CallbackCollector(cvs, mvs);
+        ClassReader reader;
+        try {
+            reader = new ClassReader(target.getName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        SyringeClassVisitor scv = new SyringeClassVisitor(writer, cc,
+                () -> new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS), mode, switches,
+                WeavingPolicy.always());
+        reader.accept(scv, ClassReader.SKIP_FRAMES);
+        scv.getNeedsLoading().forEach((name, bytecode) -> ocl.define(name.replace("/", "."), bytecode, true));
+        return ocl.define(target.getName(), writer.toByteArray(), true);
+    }
+
+    /**
+     * Weaves the given class with the Javassist backend and defines it in a new {@link OpenClassLoader}. Every method
+     * is woven regardless of its size.
+     */
+    public static Class<?> javassist(Class<?> target, Collection<ClassVisitor> cvs, Collection<MethodVisitor> mvs) {
+        JavassistSyringe syringe = new JavassistSyringe();
+        syringe.setWeavingPolicy(WeavingPolicy.always());
+        cvs.forEach(syringe::addVisitor);
+        mvs.forEach(syringe::addVisitor);
+        Map<String, byte[]> woven;
+        try {
+            woven = syringe.weave(classfile(target));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        OpenClassLoader ocl = new OpenClassLoader(Weaving.class.getClassLoader());
+        byte[] self = woven.remove(target.getName());
+        woven.forEach((name, bytecode) -> ocl.define(name, bytecode, true));
+        return ocl.define(target.getName(), self, true);
+    }
+
+    /**
+     * @return The class file the given class was loaded from.
+     */
+    public static byte[] classfile(Class<?> target) throws IOException {
+        try (InputStream in = target.getResourceAsStream(target.getSimpleName() + ".class")) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.benchmarks.target;
+
+/**
+ * The methods of {@link Signatures}, which all throw the same preallocated exception.
+ */
+public class Failing {
+
+    private static final RuntimeException FAILURE = new IllegalStateException("failure");
+
+    public static int primitive0() {
+        throw FAILURE;
+    }
+
+    public static int primitive1(int a) {
+        throw FAILURE;
+    }
+
+    public static int primitive3(int a, long b, double c) {
+        throw FAILURE;
+    }
+
+    public static Object reference1(Object a) {
+        throw FAILURE;
+    }
+
+    public static Object reference3(String a, Object b, Object[] c) {
+        throw FAILURE;
+    }
+
+    public static int mixed(int a, String b, long c) {
+        throw FAILURE;
+    }
+}
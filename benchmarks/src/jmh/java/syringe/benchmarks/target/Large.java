@@ -0,0 +1,129 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.benchmarks.target;
+
+/**
+ * A class with many members, for measuring the footprint of weaving.
+ */
+@SuppressWarnings("unused")
+public class Large {
+
+    private int field0 = 1;
+    long field1 = 2L;
+    String field2 = "three";
+    double field3 = 4.0;
+    private boolean field4 = true;
+    int field5 = 1;
+    long field6 = 2L;
+    String field7 = "three";
+    private double field8 = 4.0;
+    boolean field9 = true;
+    int field10 = 1;
+    long field11 = 2L;
+    private String field12 = "three";
+    double field13 = 4.0;
+    boolean field14 = true;
+    int field15 = 1;
+    private long field16 = 2L;
+    String field17 = "three";
+    double field18 = 4.0;
+    boolean field19 = true;
+
+    public Large() {
+    }
+
+    public int method0(int value) {
+        return value + field0;
+    }
+
+    public long method1(long value) {
+        return value;
+    }
+
+    public String method2(String value) {
+        return value;
+    }
+
+    public double method3(double value) {
+        return value;
+    }
+
+    public boolean method4(boolean value) {
+        return value;
+    }
+
+    public int method5(int value) {
+        return value + field0;
+    }
+
+    public long method6(long value) {
+        return value;
+    }
+
+    public String method7(String value) {
+        return value;
+    }
+
+    public double method8(double value) {
+        return value;
+    }
+
+    public boolean method9(boolean value) {
+        return value;
+    }
+
+    public int method10(int value) {
+        return value + field0;
+    }
+
+    public long method11(long value) {
+        return value;
+    }
+
+    public String method12(String value) {
+        return value;
+    }
+
+    public double method13(double value) {
+        return value;
+    }
+
+    public boolean method14(boolean value) {
+        return value;
+    }
+
+    public int method15(int value) {
+        return value + field0;
+    }
+
+    public long method16(long value) {
+        return value;
+    }
+
+    public String method17(String value) {
+        return value;
+    }
+
+    public double method18(double value) {
+        return value;
+    }
+
+    public boolean method19(boolean value) {
+        return value;
+    }
+}
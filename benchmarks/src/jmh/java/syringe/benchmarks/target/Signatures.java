@@ -0,0 +1,47 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.benchmarks.target;
+
+/**
+ * Methods of various arities, with primitive and reference signatures, which return normally.
+ */
+public class Signatures {
+
+    public static int primitive0() {
+        return 1;
+    }
+
+    public static int primitive1(int a) {
+        return a + 1;
+    }
+
+    public static int primitive3(int a, long b, double c) {
+        return (int) (a + b + c);
+    }
+
+    public static Object reference1(Object a) {
+        return a;
+    }
+
+    public static Object reference3(String a, Object b, Object[] c) {
+        return c.length == 0 ? a : b;
+    }
+
+    public static int mixed(int a, String b, long c) {
+        return (int) (a + b.length() + c);
+    }
+}
@@ -17,6 +17,7 @@
 
 package syringe;
 
+import syringe.util.WeaveMetrics;
 import syringe.visitor.ClassVisitor;
 import syringe.visitor.MethodVisitor;
 
@@ -29,4 +30,28 @@ public interface Syringe {
     void addVisitor(ClassVisitor cv);
 
     void addVisitor(MethodVisitor mv);
+
+    /**
+     * Enables or disables all woven callbacks at runtime, without reweaving. Disabled callbacks are skipped by a guard
+     * which the JIT compiles away.
+     */
+    void setEnabled(boolean enabled);
+
+    boolean isEnabled();
+
+    /**
+     * Enables or disables the callbacks provided by a single visitor at runtime.
+     */
+    void setEnabled(ClassVisitor cv, boolean enabled);
+
+    void setEnabled(MethodVisitor mv, boolean enabled);
+
+    boolean isEnabled(ClassVisitor cv);
+
+    boolean isEnabled(MethodVisitor mv);
+
+    /**
+     * @return What this syringe has woven so far, and the time it took.
+     */
+    WeaveMetrics getMetrics();
 }
@@ -0,0 +1,80 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.access;
+
+import syringe.util.LazyMap;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The accessors of the members of a woven class, built once when the class is initialized. Per-instance views bind
+ * the receiver to the shared {@link MemberAccess}, and only allocate an accessor when one is looked up.
+ */
+public final class AccessorTable {
+
+    private final LazyMap<String, Integer> fieldIndices;
+    private final LazyMap<String, Integer> methodIndices;
+    private final MemberAccess access;
+
+    /**
+     * @param fieldNames The names of the fields, in index order.
+     * @param methodKeys The keys of the methods (as in {@link syringe.info.ClassInfo#getMethods()}), in index order.
+     * @param access The access to the members by index.
+     */
+    public AccessorTable(String[] fieldNames, String[] methodKeys, MemberAccess access) {
+        this.fieldIndices = indices(fieldNames);
+        this.methodIndices = indices(methodKeys);
+        this.access = access;
+    }
+
+    private static LazyMap<String, Integer> indices(String[] names) {
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            indices.put(names[i], i);
+        }
+        return new LazyMap<>(indices);
+    }
+
+    /**
+     * @param receiver The instance to bind the accessors of instance fields to, or null in a static context.
+     * @return A view of the accessors of every field.
+     */
+    public LazyMap<String, FieldAccessor> fields(@Nullable Object receiver) {
+        return new LazyMap<>(fieldIndices, name -> {
+            Integer index = fieldIndices.get(name);
+            if (index == null)
+                return null;
+            return () -> access.get(index, receiver);
+        });
+    }
+
+    /**
+     * @param receiver The instance to bind the accessors of instance methods to, or null in a static context.
+     * @return A view of the accessors of every method.
+     */
+    public LazyMap<String, MethodAccessor> methods(@Nullable Object receiver) {
+        return new LazyMap<>(methodIndices, key -> {
+            Integer index = methodIndices.get(key);
+            if (index == null)
+                return null;
+            return args -> access.invoke(index, receiver, args);
+        });
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.access;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reaches the members of a class by index, given the receiver. Implementations are stateless, so a single instance
+ * serves every instance of the class.
+ */
+public interface MemberAccess {
+
+    /**
+     * @param receiver The instance to read the field of, ignored for static fields.
+     */
+    @Nullable
+    Object get(int index, @Nullable Object receiver);
+
+    /**
+     * @param receiver The instance to invoke the method on, ignored for static methods.
+     */
+    @Nullable
+    Object invoke(int index, @Nullable Object receiver, @Nullable Object[] args) throws Throwable;
+}
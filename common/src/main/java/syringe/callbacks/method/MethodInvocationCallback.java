@@ -19,13 +19,13 @@ package syringe.callbacks.method;
 
 import syringe.info.ClassInfo;
 import syringe.info.MethodInfo;
+import syringe.util.Arguments;
 
 import javax.annotation.Nullable;
-import java.util.List;
 
 @FunctionalInterface
 public interface MethodInvocationCallback { //TODO: Info about caller maybe?
 
     @Nullable
-    Object call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, List<Object> params) throws Throwable;
+    Object call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, Arguments params) throws Throwable;
 }
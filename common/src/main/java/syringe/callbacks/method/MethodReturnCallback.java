@@ -19,13 +19,13 @@ package syringe.callbacks.method;
 
 import syringe.info.ClassInfo;
 import syringe.info.MethodInfo;
+import syringe.util.Arguments;
 
 import javax.annotation.Nullable;
-import java.util.List;
 
 @FunctionalInterface
 public interface MethodReturnCallback {
 
     @Nullable
-    Object call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, List<Object> params, @Nullable Object originalReturn) throws Throwable;
+    Object call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, Arguments params, @Nullable Object originalReturn) throws Throwable;
 }
@@ -0,0 +1,75 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.callbacks.method;
+
+import syringe.info.ClassInfo;
+import syringe.info.MethodInfo;
+import syringe.util.Arguments;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link MethodInvocationCallback} which can receive arguments without boxing them. Weavers invoke the overload
+ * matching the woven method when it has no parameters, or up to {@link syringe.util.PrimitiveSpecialization#MAX_ARITY}
+ * parameters which all share one of the types int, long or double. Every overload defaults to boxing its arguments and
+ * delegating to {@link #call(ClassInfo, MethodInfo, Object, Arguments)}, so only the shapes of interest need overriding.
+ * Methods with parameters of mixed or other types, such as {@code (int, long)} or {@code (int, Object)}, are dispatched
+ * to the generic callback and box.
+ */
+public interface PrimitiveMethodInvocationCallback extends MethodInvocationCallback {
+
+    default void call(ClassInfo clazz, MethodInfo method, @Nullable Object instance) throws Throwable {
+        call(clazz, method, instance, Arguments.empty());
+    }
+
+    default void call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, int arg0) throws Throwable {
+        call(clazz, method, instance, Arguments.of(arg0));
+    }
+
+    default void call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, int arg0, int arg1) throws Throwable {
+        call(clazz, method, instance, Arguments.of(arg0, arg1));
+    }
+
+    default void call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, int arg0, int arg1, int arg2) throws Throwable {
+        call(clazz, method, instance, Arguments.of(arg0, arg1, arg2));
+    }
+
+    default void call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, long arg0) throws Throwable {
+        call(clazz, method, instance, Arguments.of(arg0));
+    }
+
+    default void call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, long arg0, long arg1) throws Throwable {
+        call(clazz, method, instance, Arguments.of(arg0, arg1));
+    }
+
+    default void call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, long arg0, long arg1, long arg2) throws Throwable {
+        call(clazz, method, instance, Arguments.of(arg0, arg1, arg2));
+    }
+
+    default void call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, double arg0) throws Throwable {
+        call(clazz, method, instance, Arguments.of(arg0));
+    }
+
+    default void call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, double arg0, double arg1) throws Throwable {
+        call(clazz, method, instance, Arguments.of(arg0, arg1));
+    }
+
+    default void call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, double arg0, double arg1, double arg2) throws Throwable {
+        call(clazz, method, instance, Arguments.of(arg0, arg1, arg2));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.callbacks.method;
+
+import syringe.info.ClassInfo;
+import syringe.info.MethodInfo;
+import syringe.util.Arguments;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link MethodReturnCallback} which can receive arguments and return values without boxing them. Weavers invoke the
+ * overload matching the woven method when it returns int, long or double and either has no parameters, or up to
+ * {@link syringe.util.PrimitiveSpecialization#MAX_ARITY} parameters of that same type. Every overload defaults to
+ * boxing its arguments and delegating to {@link #call(ClassInfo, MethodInfo, Object, Arguments, Object)}, so only the
+ * shapes of interest need overriding. As with the generic callback, returning null keeps the original return value.
+ * <br>
+ * Other signatures, i.e. with parameters of mixed or other types, such as {@code (int, long)} or {@code (int, Object)},
+ * or returning another primitive type, are dispatched to the generic callback and box.
+ */
+public interface PrimitiveMethodReturnCallback extends MethodReturnCallback {
+
+    default int call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, int originalReturn)
+            throws Throwable {
+        return intResult(call(clazz, method, instance, Arguments.empty(), originalReturn), originalReturn);
+    }
+
+    default int call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, int arg0, int originalReturn)
+            throws Throwable {
+        return intResult(call(clazz, method, instance, Arguments.of(arg0), originalReturn), originalReturn);
+    }
+
+    default int call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, int arg0, int arg1, int originalReturn)
+            throws Throwable {
+        return intResult(call(clazz, method, instance, Arguments.of(arg0, arg1), originalReturn), originalReturn);
+    }
+
+    default int call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, int arg0, int arg1, int arg2, int originalReturn)
+            throws Throwable {
+        return intResult(call(clazz, method, instance, Arguments.of(arg0, arg1, arg2), originalReturn), originalReturn);
+    }
+
+    default long call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, long originalReturn)
+            throws Throwable {
+        return longResult(call(clazz, method, instance, Arguments.empty(), originalReturn), originalReturn);
+    }
+
+    default long call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, long arg0, long originalReturn)
+            throws Throwable {
+        return longResult(call(clazz, method, instance, Arguments.of(arg0), originalReturn), originalReturn);
+    }
+
+    default long call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, long arg0, long arg1, long originalReturn)
+            throws Throwable {
+        return longResult(call(clazz, method, instance, Arguments.of(arg0, arg1), originalReturn), originalReturn);
+    }
+
+    default long call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, long arg0, long arg1, long arg2, long originalReturn)
+            throws Throwable {
+        return longResult(call(clazz, method, instance, Arguments.of(arg0, arg1, arg2), originalReturn), originalReturn);
+    }
+
+    default double call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, double originalReturn)
+            throws Throwable {
+        return doubleResult(call(clazz, method, instance, Arguments.empty(), originalReturn), originalReturn);
+    }
+
+    default double call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, double arg0, double originalReturn)
+            throws Throwable {
+        return doubleResult(call(clazz, method, instance, Arguments.of(arg0), originalReturn), originalReturn);
+    }
+
+    default double call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, double arg0, double arg1, double originalReturn)
+            throws Throwable {
+        return doubleResult(call(clazz, method, instance, Arguments.of(arg0, arg1), originalReturn), originalReturn);
+    }
+
+    default double call(ClassInfo clazz, MethodInfo method, @Nullable Object instance, double arg0, double arg1, double arg2, double originalReturn)
+            throws Throwable {
+        return doubleResult(call(clazz, method, instance, Arguments.of(arg0, arg1, arg2), originalReturn), originalReturn);
+    }
+
+    private static int intResult(@Nullable Object result, int originalReturn) {
+        return result == null ? originalReturn : (Integer) result;
+    }
+
+    private static long longResult(@Nullable Object result, long originalReturn) {
+        return result == null ? originalReturn : (Long) result;
+    }
+
+    private static double doubleResult(@Nullable Object result, double originalReturn) {
+        return result == null ? originalReturn : (Double) result;
+    }
+}
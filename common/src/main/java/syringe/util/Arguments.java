@@ -0,0 +1,98 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.util;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A read-only view of the arguments a woven method was invoked with. A single instance is built per invocation and
+ * shared by every callback, wrapping the argument array without copying it. The typed getters unbox directly so that
+ * the view can be scalar replaced once callbacks are inlined.
+ */
+public final class Arguments extends AbstractList<Object> implements RandomAccess {
+
+    private static final Arguments EMPTY = new Arguments(new Object[0]);
+
+    private final Object[] values;
+
+    /**
+     * @param values The argument array, which is wrapped and must not be modified afterwards.
+     */
+    public Arguments(Object[] values) {
+        this.values = values;
+    }
+
+    public static Arguments empty() {
+        return EMPTY;
+    }
+
+    public static Arguments of(Object... values) {
+        return values.length == 0 ? EMPTY : new Arguments(values);
+    }
+
+    @Override
+    public Object get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    public <T> T get(int index, Class<T> type) {
+        return type.cast(values[index]);
+    }
+
+    public boolean getBoolean(int index) {
+        return (Boolean) values[index];
+    }
+
+    public byte getByte(int index) {
+        return (Byte) values[index];
+    }
+
+    public char getChar(int index) {
+        return (Character) values[index];
+    }
+
+    public short getShort(int index) {
+        return (Short) values[index];
+    }
+
+    public int getInt(int index) {
+        return (Integer) values[index];
+    }
+
+    public long getLong(int index) {
+        return (Long) values[index];
+    }
+
+    public float getFloat(int index) {
+        return (Float) values[index];
+    }
+
+    public double getDouble(int index) {
+        return (Double) values[index];
+    }
+
+    @Override
+    public Object[] toArray() {
+        return values.clone();
+    }
+}
@@ -25,45 +25,136 @@ import syringe.callbacks.method.MethodReturnCallback;
 import syringe.visitor.ClassVisitor;
 import syringe.visitor.MethodVisitor;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Simple class which combines multiple {@link syringe.visitor.ClassVisitor}s and
  * {@link syringe.visitor.MethodVisitor}s. It is recommended to recreate this instance if there's been a chance of
- * visitor state change.
+ * visitor state change. Callbacks are kept in the order their visitors were provided.
+ * <br>
+ * The collector spans every visitor; {@link #forClass} narrows it to the visitors matching a class, and
+ * {@link #forMethod} selects the callbacks to weave into a method of that class. Each visitor is asked for its
+ * callbacks once, so the callbacks woven are the ones collected even if a visitor returns new instances every time.
  */
 public class CallbackCollector {
 
     //ClassVisitor
-    private final Set<ClassAnnotationCallback> classAnnotationCallbacks = new HashSet<>();
-    private final Set<ClassDefinitionCallback> classDefinitionCallbacks = new HashSet<>();
-    private final Set<ClassInitializerCallback> classInitializerCallbacks = new HashSet<>();
-    private final Set<FieldDefinitionCallback> fieldDefinitionCallbacks = new HashSet<>();
-    private final Set<MethodDefinitionCallback> methodDefinitionCallbacks = new HashSet<>();
+    private final Set<ClassAnnotationCallback> classAnnotationCallbacks = new LinkedHashSet<>();
+    private final Set<ClassDefinitionCallback> classDefinitionCallbacks = new LinkedHashSet<>();
+    private final Set<ClassInitializerCallback> classInitializerCallbacks = new LinkedHashSet<>();
+    private final Set<FieldDefinitionCallback> fieldDefinitionCallbacks = new LinkedHashSet<>();
+    private final Set<MethodDefinitionCallback> methodDefinitionCallbacks = new LinkedHashSet<>();
 
     //MethodVisitor
-    private final Set<ExceptionThrownCallback> exceptionThrownCallbacks = new HashSet<>();
-    private final Set<MethodAnnotationCallback> methodAnnotationCallbacks = new HashSet<>();
-    private final Set<MethodInvocationCallback> methodInvocationCallbacks = new HashSet<>();
-    private final Set<MethodReturnCallback> methodReturnCallbacks = new HashSet<>();
+    private final Set<ExceptionThrownCallback> exceptionThrownCallbacks = new LinkedHashSet<>();
+    private final Set<MethodAnnotationCallback> methodAnnotationCallbacks = new LinkedHashSet<>();
+    private final Set<MethodInvocationCallback> methodInvocationCallbacks = new LinkedHashSet<>();
+    private final Set<MethodReturnCallback> methodReturnCallbacks = new LinkedHashSet<>();
+
+    private final Map<Object, Object> owners = new IdentityHashMap<>();
+    private final List<ClassVisitor> classVisitors;
+    private final List<MethodVisitor> methodVisitors;
+    private final Map<ClassVisitor, ClassVisitorCallbacks> classVisitorCallbacks;
+    private final Map<MethodVisitor, MethodVisitorCallbacks> methodVisitorCallbacks;
 
     public CallbackCollector(Collection<ClassVisitor> cvs, Collection<MethodVisitor> mvs) {
+        this(new ArrayList<>(cvs), new ArrayList<>(mvs), new IdentityHashMap<>(), new IdentityHashMap<>());
+    }
+
+    private CallbackCollector(List<ClassVisitor> cvs, List<MethodVisitor> mvs,
+                              Map<ClassVisitor, ClassVisitorCallbacks> collectedClassCallbacks,
+                              Map<MethodVisitor, MethodVisitorCallbacks> collectedMethodCallbacks) {
+        this.classVisitors = cvs;
+        this.methodVisitors = mvs;
+        this.classVisitorCallbacks = new IdentityHashMap<>();
+        this.methodVisitorCallbacks = new IdentityHashMap<>();
         for (ClassVisitor cv : cvs) {
-            cv.defineAnnotations().ifPresent(classAnnotationCallbacks::add);
-            cv.classConstruct().ifPresent(classDefinitionCallbacks::add);
-            cv.classInit().ifPresent(classInitializerCallbacks::add);
-            cv.defineFields().ifPresent(fieldDefinitionCallbacks::add);
-            cv.defineMethods().ifPresent(methodDefinitionCallbacks::add);
+            ClassVisitorCallbacks callbacks = collectedClassCallbacks.get(cv);
+            if (callbacks == null)
+                callbacks = new ClassVisitorCallbacks(cv);
+            classVisitorCallbacks.put(cv, callbacks);
+            callbacks.annotations.ifPresent(c -> collect(classAnnotationCallbacks, c, cv));
+            callbacks.construction.ifPresent(c -> collect(classDefinitionCallbacks, c, cv));
+            callbacks.initialization.ifPresent(c -> collect(classInitializerCallbacks, c, cv));
+            callbacks.fields.ifPresent(c -> collect(fieldDefinitionCallbacks, c, cv));
+            callbacks.methods.ifPresent(c -> collect(methodDefinitionCallbacks, c, cv));
         }
 
         for (MethodVisitor mv : mvs) {
-            mv.throwException().ifPresent(exceptionThrownCallbacks::add);
-            mv.defineAnnotations().ifPresent(methodAnnotationCallbacks::add);
-            mv.invokeMethod().ifPresent(methodInvocationCallbacks::add);
-            mv.methodReturn().ifPresent(methodReturnCallbacks::add);
+            MethodVisitorCallbacks callbacks = collectedMethodCallbacks.get(mv);
+            if (callbacks == null)
+                callbacks = new MethodVisitorCallbacks(mv);
+            methodVisitorCallbacks.put(mv, callbacks);
+            callbacks.exception.ifPresent(c -> collect(exceptionThrownCallbacks, c, mv));
+            callbacks.annotations.ifPresent(c -> collect(methodAnnotationCallbacks, c, mv));
+            callbacks.invocation.ifPresent(c -> collect(methodInvocationCallbacks, c, mv));
+            callbacks.returns.ifPresent(c -> collect(methodReturnCallbacks, c, mv));
+        }
+    }
+
+    private <T> void collect(Set<T> callbacks, T callback, Object visitor) {
+        if (callbacks.add(callback))
+            owners.put(callback, visitor);
+    }
+
+    /**
+     * @return The visitor which provided the callback.
+     */
+    public Object getVisitor(Object callback) {
+        Object visitor = owners.get(callback);
+        if (visitor == null)
+            throw new IllegalArgumentException("Callback was not collected: " + callback);
+        return visitor;
+    }
+
+    /**
+     * @return A collector of the visitors which apply to the given class.
+     */
+    public CallbackCollector forClass(ClassName name, int modifiers, Set<ClassName> annotations) {
+        return new CallbackCollector(
+                classVisitors.stream()
+                        .filter(cv -> cv.classes().matches(name, modifiers, annotations))
+                        .collect(Collectors.toList()),
+                methodVisitors.stream()
+                        .filter(mv -> mv.classes().matches(name, modifiers, annotations))
+                        .collect(Collectors.toList()),
+                classVisitorCallbacks, methodVisitorCallbacks);
+    }
+
+    /**
+     * @return Whether any visitor applies to the given class, without collecting their callbacks.
+     */
+    public boolean appliesTo(ClassName name, int modifiers, Set<ClassName> annotations) {
+        for (ClassVisitor cv : classVisitors) {
+            if (cv.classes().matches(name, modifiers, annotations))
+                return true;
+        }
+        for (MethodVisitor mv : methodVisitors) {
+            if (mv.classes().matches(name, modifiers, annotations))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The callbacks to weave into the given method, from the method visitors which apply to it. This does not
+     * check the class, see {@link #forClass}.
+     */
+    public MethodCallbacks forMethod(ClassName owner, String name, String descriptor, int modifiers,
+                                     Set<ClassName> annotations) {
+        Set<MethodInvocationCallback> invocations = new LinkedHashSet<>();
+        Set<MethodReturnCallback> returns = new LinkedHashSet<>();
+        Set<ExceptionThrownCallback> exceptions = new LinkedHashSet<>();
+        for (MethodVisitor mv : methodVisitors) {
+            if (mv.methods().matches(owner, name, descriptor, modifiers, annotations)) {
+                MethodVisitorCallbacks callbacks = methodVisitorCallbacks.get(mv);
+                callbacks.invocation.ifPresent(invocations::add);
+                callbacks.returns.ifPresent(returns::add);
+                callbacks.exception.ifPresent(exceptions::add);
+            }
         }
+        return new MethodCallbacks(new ArrayList<>(invocations), new ArrayList<>(returns), new ArrayList<>(exceptions));
     }
 
     //ClassVisitor
@@ -106,4 +197,42 @@ public class CallbackCollector {
     public Set<MethodReturnCallback> getMethodReturnCallbacks() {
         return methodReturnCallbacks;
     }
+
+    /**
+     * The callbacks a class visitor provided when it was collected.
+     */
+    private static final class ClassVisitorCallbacks {
+
+        final Optional<ClassAnnotationCallback> annotations;
+        final Optional<ClassDefinitionCallback> construction;
+        final Optional<ClassInitializerCallback> initialization;
+        final Optional<FieldDefinitionCallback> fields;
+        final Optional<MethodDefinitionCallback> methods;
+
+        ClassVisitorCallbacks(ClassVisitor cv) {
+            annotations = cv.defineAnnotations();
+            construction = cv.classConstruct();
+            initialization = cv.classInit();
+            fields = cv.defineFields();
+            methods = cv.defineMethods();
+        }
+    }
+
+    /**
+     * The callbacks a method visitor provided when it was collected.
+     */
+    private static final class MethodVisitorCallbacks {
+
+        final Optional<ExceptionThrownCallback> exception;
+        final Optional<MethodAnnotationCallback> annotations;
+        final Optional<MethodInvocationCallback> invocation;
+        final Optional<MethodReturnCallback> returns;
+
+        MethodVisitorCallbacks(MethodVisitor mv) {
+            exception = mv.throwException();
+            annotations = mv.defineAnnotations();
+            invocation = mv.invokeMethod();
+            returns = mv.methodReturn();
+        }
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads the class files of a classpath entry, either a directory or a jar.
+ */
+public final class ClassFiles {
+
+    private ClassFiles() {}
+
+    /**
+     * Passes each class file of the directory or jar to the consumer along with the binary name of its class. Module
+     * descriptors and the versioned classes of multi-release jars are left out.
+     */
+    public static void read(Path root, BiConsumer<String, byte[]> consumer) {
+        try {
+            if (Files.isDirectory(root)) {
+                List<Path> files;
+                try (Stream<Path> walk = Files.walk(root)) {
+                    files = walk.filter(file -> isClass(relative(root, file))).sorted().collect(Collectors.toList());
+                }
+                for (Path file : files) {
+                    consumer.accept(binaryName(relative(root, file)), Files.readAllBytes(file));
+                }
+            } else {
+                try (JarFile jar = new JarFile(root.toFile())) {
+                    Enumeration<JarEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        JarEntry entry = entries.nextElement();
+                        if (!isClass(entry.getName()))
+                            continue;
+                        try (InputStream in = jar.getInputStream(entry)) {
+                            consumer.accept(binaryName(entry.getName()), in.readAllBytes());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String relative(Path root, Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static boolean isClass(String path) {
+        return path.endsWith(".class") && !path.startsWith("META-INF/") && !path.endsWith("module-info.class");
+    }
+
+    private static String binaryName(String path) {
+        return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.util;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What a class file declares about the class itself: its name, access flags and annotation types, which is all a
+ * {@link syringe.visitor.ClassMatcher} looks at. It is read straight from the bytes, skipping over the fields and
+ * methods, so classes no visitor applies to can be told apart without building a model of them.
+ * <br>
+ * This runs for every class a Java agent sees, mostly before the JIT compiles it, so it indexes the bytes directly.
+ */
+public final class ClassHeader {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final byte[] VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The size of constant pool entries by tag, 0 for invalid tags and for Utf8 entries, which vary in size.
+     */
+    private static final byte[] ENTRY_SIZES = {0, 0, 0, 5, 5, 9, 9, 3, 3, 5, 5, 5, 5, 0, 0, 4, 3, 5, 5, 3, 3};
+
+    private final ClassName name;
+    private final int modifiers;
+    private final Set<ClassName> annotationTypes;
+
+    private ClassHeader(ClassName name, int modifiers, Set<ClassName> annotationTypes) {
+        this.name = name;
+        this.modifiers = modifiers;
+        this.annotationTypes = annotationTypes;
+    }
+
+    /**
+     * @return The header of the class file, or null if it is not a well formed class file.
+     */
+    @Nullable
+    public static ClassHeader read(byte[] classfile) {
+        try {
+            return read(classfile, new int[u2(classfile, 8)]);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param entries Filled with the offset of each constant pool entry. The few entries which are needed are only
+     * decoded once the pool has been walked.
+     */
+    @Nullable
+    private static ClassHeader read(byte[] b, int[] entries) {
+        if (u4(b, 0) != MAGIC)
+            return null;
+        int p = 10;
+        for (int i = 1; i < entries.length; i++) {
+            entries[i] = p;
+            int tag = b[p];
+            if (tag == 1) { //Utf8
+                p += 3 + u2(b, p + 1);
+            } else {
+                int size = ENTRY_SIZES[tag];
+                if (size == 0)
+                    return null;
+                p += size;
+                if (tag == 5 || tag == 6) //Long and Double take up two entries
+                    i++;
+            }
+        }
+
+        int modifiers = u2(b, p);
+        int thisClass = entries[u2(b, p + 2)];
+        if (b[thisClass] != 7)
+            return null;
+        ClassName name = ClassName.of(utf8(b, entries, u2(b, thisClass + 1)));
+        p += 6;
+        p += 2 + 2 * u2(b, p); //Interfaces
+        for (int members = 0; members < 2; members++) { //Fields, then methods
+            int count = u2(b, p);
+            p += 2;
+            for (int i = 0; i < count; i++) {
+                int attributes = u2(b, p + 6);
+                p += 8;
+                for (int j = 0; j < attributes; j++) {
+                    p += 6 + u4(b, p + 2);
+                }
+            }
+        }
+
+        Set<ClassName> annotationTypes = Collections.emptySet();
+        int attributes = u2(b, p);
+        p += 2;
+        for (int i = 0; i < attributes; i++) {
+            int attribute = entries[u2(b, p)];
+            int end = p + 6 + u4(b, p + 2);
+            if (equals(b, attribute, VISIBLE_ANNOTATIONS) || equals(b, attribute, INVISIBLE_ANNOTATIONS)) {
+                int annotations = u2(b, p + 6);
+                p += 8;
+                if (annotationTypes.isEmpty())
+                    annotationTypes = new HashSet<>();
+                for (int j = 0; j < annotations; j++) {
+                    annotationTypes.add(ClassName.of(utf8(b, entries, u2(b, p))));
+                    p = skipElementValuePairs(b, p + 2);
+                }
+            }
+            p = end;
+        }
+        return new ClassHeader(name, modifiers, annotationTypes);
+    }
+
+    private static int u2(byte[] b, int p) {
+        return ((b[p] & 0xFF) << 8) | (b[p + 1] & 0xFF);
+    }
+
+    private static int u4(byte[] b, int p) {
+        return (u2(b, p) << 16) | u2(b, p + 2);
+    }
+
+    /**
+     * @return Whether the Utf8 entry at the offset holds the given ASCII string.
+     */
+    private static boolean equals(byte[] b, int entry, byte[] ascii) {
+        if (b[entry] != 1 || u2(b, entry + 1) != ascii.length)
+            return false;
+        for (int i = 0; i < ascii.length; i++) {
+            if (b[entry + 3 + i] != ascii[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static String utf8(byte[] b, int[] entries, int index) {
+        int p = entries[index];
+        if (b[p] != 1)
+            throw new IllegalArgumentException("Not a Utf8 entry: " + index);
+        int end = p + 3 + u2(b, p + 1);
+        StringBuilder sb = new StringBuilder(end - p - 3);
+        for (p += 3; p < end; p++) { //Modified UTF-8
+            int c = b[p] & 0xFF;
+            if (c < 0x80) {
+                sb.append((char) c);
+            } else if (c < 0xE0) {
+                sb.append((char) (((c & 0x1F) << 6) | (b[++p] & 0x3F)));
+            } else {
+                sb.append((char) (((c & 0x0F) << 12) | ((b[++p] & 0x3F) << 6) | (b[++p] & 0x3F)));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The offset past the element value pairs of the annotation.
+     */
+    private static int skipElementValuePairs(byte[] b, int p) {
+        int pairs = u2(b, p);
+        p += 2;
+        for (int i = 0; i < pairs; i++) {
+            p = skipElementValue(b, p + 2); //Past the name
+        }
+        return p;
+    }
+
+    private static int skipElementValue(byte[] b, int p) {
+        switch (b[p]) {
+            case 'e': //Enum constant
+                return p + 5;
+            case '@':
+                return skipElementValuePairs(b, p + 3); //Past the type
+            case '[':
+                int values = u2(b, p + 1);
+                p += 3;
+                for (int i = 0; i < values; i++) {
+                    p = skipElementValue(b, p);
+                }
+                return p;
+            default: //Constants and classes
+                return p + 3;
+        }
+    }
+
+    public ClassName getName() {
+        return name;
+    }
+
+    public int getModifiers() {
+        return modifiers;
+    }
+
+    public Set<ClassName> getAnnotationTypes() {
+        return annotationTypes;
+    }
+}
@@ -17,8 +17,14 @@
 
 package syringe.util;
 
-import javax.annotation.Nullable;
-import java.util.*;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This parses a variety of different possible string representations of classes in order to break it down into its
@@ -31,12 +37,20 @@ import java.util.*;
  *     <li>boolean</li>
  *     <li>Z</li>
  * </ul>
+ * Instances are canonical: {@link #of(String)} returns the same instance for every representation of a type, so they
+ * can be compared by identity. Every representation is computed once, when a type is first seen. The pool only holds
+ * instances weakly, so the names of types nothing refers to any more, e.g. those of the classes of an unloaded class
+ * loader an agent has seen, are let go.
  */
 public final class ClassName {
 
     private final static Map<String, String> primitives;
     private final static Map<String, String> primitivesReversed;
 
+    private final static ConcurrentMap<String, Interned> canonical = new ConcurrentHashMap<>(); //By descriptor
+    private final static ConcurrentMap<String, Interned> aliases = new ConcurrentHashMap<>(); //By input
+    private final static ReferenceQueue<ClassName> collected = new ReferenceQueue<>();
+
     static {
         Map<String, String> p = new HashMap<>();
         Map<String, String> pr = new HashMap<>();
@@ -54,47 +68,123 @@ public final class ClassName {
         primitivesReversed = Collections.unmodifiableMap(pr);
     }
 
-    @Nullable
-    private final String[] packageComponents;
     private final String className;
+    private final String packageName;
     private final int nestedArrayCount;
     private final boolean isPrimitive;
+    private final String typeName;
+    private final String fullyQualifiedName;
+    private final String slashNotation;
+    private final String internalTypeName;
+
+    public static ClassName of(Class<?> clazz) {
+        return of(clazz.getName());
+    }
+
+    /**
+     * @return The canonical instance for the type represented by the given string.
+     */
+    public static ClassName of(String name) {
+        Interned alias = aliases.get(name);
+        ClassName known = alias == null ? null : alias.get();
+        if (known != null)
+            return known;
+        expungeCollected();
+        ClassName parsed = new ClassName(name);
+        ClassName[] interned = new ClassName[1]; //Held strongly from within the update, so it cannot be collected
+        canonical.compute(parsed.internalTypeName, (descriptor, existing) -> {
+            interned[0] = existing == null ? null : existing.get();
+            if (interned[0] != null)
+                return existing;
+            interned[0] = parsed;
+            return new Interned(parsed, canonical, descriptor);
+        });
+        aliases.put(name, new Interned(interned[0], aliases, name));
+        return interned[0];
+    }
+
+    private static void expungeCollected() {
+        for (Reference<? extends ClassName> ref; (ref = collected.poll()) != null; ) {
+            Interned interned = (Interned) ref;
+            interned.pool.remove(interned.key, interned);
+        }
+    }
+
+    /**
+     * An entry of one of the pools, removed from it once its instance is collected.
+     */
+    private static final class Interned extends WeakReference<ClassName> {
 
-    public ClassName(Class<?> clazz) {
-        this(clazz.getName());
+        private final ConcurrentMap<String, Interned> pool;
+        private final String key;
+
+        Interned(ClassName name, ConcurrentMap<String, Interned> pool, String key) {
+            super(name, collected);
+            this.pool = pool;
+            this.key = key;
+        }
     }
 
-    public ClassName(String name) {
-        if (name.startsWith("L") && name.endsWith(";"))
-            name = name.substring(1);
-        if (name.endsWith(";"))
-            name = name.substring(0, name.length() - 1);
+    private ClassName(String name) {
+        int start = 0;
+        int end = name.length();
         int arrayCount = 0;
-        while (name.startsWith("[")) {
+        while (start < end && name.charAt(start) == '[') {
             arrayCount++;
-            name = name.substring(1);
+            start++;
         }
-        while (name.endsWith("[]")) {
+        while (end - start >= 2 && name.charAt(end - 2) == '[' && name.charAt(end - 1) == ']') {
             arrayCount++;
-            name = name.substring(0, name.length() - 2);
+            end -= 2;
         }
+        if (end - start >= 2 && name.charAt(start) == 'L' && name.charAt(end - 1) == ';') {
+            start++;
+            end--;
+        } else if (end > start && name.charAt(end - 1) == ';') {
+            end--;
+        }
+        name = name.substring(start, end);
         this.nestedArrayCount = arrayCount;
         if (primitives.containsKey(name)) {
             this.className = name;
-            this.packageComponents = null;
+            this.packageName = "";
             this.isPrimitive = true;
         } else if (primitivesReversed.containsKey(name)) {
             this.className = primitivesReversed.get(name);
-            this.packageComponents = null;
+            this.packageName = "";
             this.isPrimitive = true;
         } else {
             name = name.replace('/', '.');
-            String[] split = name.split("\\.");
-            this.packageComponents = new String[split.length - 1];
-            System.arraycopy(split, 0, this.packageComponents, 0, split.length - 1);
-            this.className = split[split.length - 1];
+            int lastDot = name.lastIndexOf('.');
+            this.packageName = lastDot < 0 ? "" : name.substring(0, lastDot);
+            this.className = name.substring(lastDot + 1);
             this.isPrimitive = false;
         }
+
+        this.typeName = isPrimitive ? primitives.get(className) : className;
+        //Built without string concatenation, which is slow to link and to run until the JIT kicks in, as classes are
+        //named by the thousands when a Java agent starts
+        String dotted = isPrimitive ? typeName : name;
+        if (nestedArrayCount == 0) {
+            this.fullyQualifiedName = dotted;
+        } else {
+            StringBuilder sb = new StringBuilder(dotted.length() + 2 * nestedArrayCount).append(dotted);
+            for (int i = 0; i < nestedArrayCount; i++) {
+                sb.append("[]");
+            }
+            this.fullyQualifiedName = sb.toString();
+        }
+        this.slashNotation = isPrimitive ? typeName : dotted.replace('.', '/');
+        StringBuilder internal = new StringBuilder(nestedArrayCount + slashNotation.length() + 2);
+        for (int i = 0; i < nestedArrayCount; i++) {
+            internal.append('[');
+        }
+        if (isPrimitive) {
+            internal.append(typeName);
+        } else {
+            internal.append('L').append(slashNotation).append(';');
+        }
+        this.internalTypeName = internal.toString();
     }
 
     public String getRawName() {
@@ -102,44 +192,23 @@ public final class ClassName {
     }
 
     public String getTypeName() {
-        return isPrimitive ? primitives.get(className) : className;
+        return typeName;
     }
 
     public String getPackageName() {
-        if (packageComponents == null)
-            return "";
-
-        return String.join(".", packageComponents);
+        return packageName;
     }
 
     public String getFullyQualifiedName() {
-        StringBuilder base;
-        if (isPrimitive)
-            base = new StringBuilder(getTypeName());
-        else
-            base = new StringBuilder(getPackageName() + "." + getTypeName());
-        for (int i = 0; i < nestedArrayCount; i++) {
-            base.append("[]");
-        }
-        return base.toString();
+        return fullyQualifiedName;
     }
 
     public String getAsSlashNotation() {
-        String base;
-        if (packageComponents != null) {
-            base = String.join("/", packageComponents) + "/";
-        } else {
-            base = "";
-        }
-        return base + getTypeName();
+        return slashNotation;
     }
 
     public String getAsInternalTypeName() {
-        StringBuilder str = new StringBuilder(isPrimitive ? getTypeName() : "L" + getAsSlashNotation() + ";");
-        for (int i = 0; i < nestedArrayCount; i++) {
-            str.insert(0, "[");
-        }
-        return str.toString();
+        return internalTypeName;
     }
 
     public boolean isPrimitive() {
@@ -161,16 +230,11 @@ public final class ClassName {
 
     @Override
     public boolean equals(Object obj) {
-        if (obj instanceof ClassName) {
-            return getAsInternalTypeName().equals(((ClassName) obj).getAsInternalTypeName());
-        }
-        return false;
+        return this == obj; //Instances are canonical
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(className, nestedArrayCount, isPrimitive());
-        result = 31 * result + Arrays.hashCode(packageComponents);
-        return result;
+        return internalTypeName.hashCode();
     }
 }
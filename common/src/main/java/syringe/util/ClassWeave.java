@@ -0,0 +1,114 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.util;
+
+/**
+ * What weaving a single class took, as recorded by {@link WeaveMetrics}. It is filled in by the weaving thread: the
+ * time of the outermost phases is taken in laps, and that of the phases nested in them is added as it is measured.
+ */
+public final class ClassWeave {
+
+    private final String className;
+    private final int bytesBefore;
+    private int bytesAfter;
+    private int methodsInstrumented;
+    private boolean accessorGenerated;
+    private final long[] nanos = new long[WeaveMetrics.Phase.values().length];
+    private long mark;
+    private long nested; //Added since the last lap
+
+    /**
+     * @param className The binary name of the class.
+     * @param bytesBefore The size of its class file.
+     * @param start When weaving started, from {@link System#nanoTime()}.
+     */
+    public ClassWeave(String className, int bytesBefore, long start) {
+        this.className = className;
+        this.bytesBefore = bytesBefore;
+        this.mark = start;
+    }
+
+    /**
+     * Adds the time since the last lap to the phase, less that of the nested phases added in the meantime.
+     */
+    public void lap(WeaveMetrics.Phase phase) {
+        long now = System.nanoTime();
+        nanos[phase.ordinal()] += now - mark - nested;
+        mark = now;
+        nested = 0;
+    }
+
+    /**
+     * Restarts the current lap, leaving out the time since the last one, as when the class waited to be woven.
+     */
+    public void resume() {
+        mark = System.nanoTime();
+        nested = 0;
+    }
+
+    /**
+     * Adds the time of a phase nested in the current lap.
+     */
+    public void add(WeaveMetrics.Phase phase, long nanos) {
+        this.nanos[phase.ordinal()] += nanos;
+        nested += nanos;
+    }
+
+    public void methodInstrumented() {
+        methodsInstrumented++;
+    }
+
+    public void accessorGenerated() {
+        accessorGenerated = true;
+    }
+
+    /**
+     * @param bytesAfter The size of the woven class, along with the classes generated for it.
+     */
+    public void setBytesAfter(int bytesAfter) {
+        this.bytesAfter = bytesAfter;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public int getBytesBefore() {
+        return bytesBefore;
+    }
+
+    public int getBytesAfter() {
+        return bytesAfter;
+    }
+
+    public int getMethodsInstrumented() {
+        return methodsInstrumented;
+    }
+
+    public boolean isAccessorGenerated() {
+        return accessorGenerated;
+    }
+
+    public long getNanos(WeaveMetrics.Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        return className + " (" + bytesBefore + "->" + bytesAfter + " bytes, " + methodsInstrumented + " methods)";
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.util;
+
+/**
+ * A method which a {@link WeavingPolicy} left unwoven, or only partially woven, to preserve its inlining.
+ */
+public final class ExcludedMethod {
+
+    private final ClassName owner;
+    private final String name;
+    private final String descriptor;
+    private final int codeLength;
+    private final WeavingPolicy.Decision decision;
+
+    public ExcludedMethod(ClassName owner, String name, String descriptor, int codeLength,
+                          WeavingPolicy.Decision decision) {
+        this.owner = owner;
+        this.name = name;
+        this.descriptor = descriptor;
+        this.codeLength = codeLength;
+        this.decision = decision;
+    }
+
+    public ClassName getOwner() {
+        return owner;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public int getCodeLength() {
+        return codeLength;
+    }
+
+    public WeavingPolicy.Decision getDecision() {
+        return decision;
+    }
+
+    @Override
+    public String toString() {
+        return owner + "." + name + descriptor + " (" + codeLength + " bytes): " + decision;
+    }
+}
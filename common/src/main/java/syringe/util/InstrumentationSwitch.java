@@ -0,0 +1,73 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * An on/off flag which woven code can check at (nearly) no cost. The state is held as the constant target of a
+ * {@link MutableCallSite}, so the JIT folds the check into compiled code and deoptimizes that code when the state is
+ * changed. Woven code should read it through the call site (i.e. with invokedynamic) or through the
+ * {@link #getGuard() guard} held in a static final field.
+ */
+public final class InstrumentationSwitch {
+
+    private static final MethodHandle ENABLED = MethodHandles.constant(boolean.class, true);
+    private static final MethodHandle DISABLED = MethodHandles.constant(boolean.class, false);
+
+    private final MutableCallSite callSite;
+    private final MethodHandle guard;
+    private volatile boolean enabled;
+
+    public InstrumentationSwitch(boolean enabled) {
+        this.enabled = enabled;
+        this.callSite = new MutableCallSite(enabled ? ENABLED : DISABLED);
+        this.guard = callSite.dynamicInvoker();
+    }
+
+    public InstrumentationSwitch() {
+        this(true);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        if (this.enabled == enabled)
+            return;
+        this.enabled = enabled;
+        callSite.setTarget(enabled ? ENABLED : DISABLED);
+        MutableCallSite.syncAll(new MutableCallSite[]{callSite});
+    }
+
+    /**
+     * @return The call site holding the state, of type {@code ()boolean}.
+     */
+    public MutableCallSite getCallSite() {
+        return callSite;
+    }
+
+    /**
+     * @return A {@code ()boolean} handle reading the state through the call site.
+     */
+    public MethodHandle getGuard() {
+        return guard;
+    }
+}
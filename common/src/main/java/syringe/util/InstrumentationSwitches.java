@@ -0,0 +1,42 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.util;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The {@link InstrumentationSwitch}es controlling the callbacks woven by a syringe: a global one and one per visitor.
+ * A callback only runs when both the global switch and the switch of the visitor which provided it are enabled.
+ */
+public final class InstrumentationSwitches {
+
+    private final InstrumentationSwitch global = new InstrumentationSwitch();
+    private final Map<Object, InstrumentationSwitch> visitors = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    public InstrumentationSwitch global() {
+        return global;
+    }
+
+    /**
+     * @param visitor The {@link syringe.visitor.ClassVisitor} or {@link syringe.visitor.MethodVisitor}.
+     */
+    public InstrumentationSwitch forVisitor(Object visitor) {
+        return visitors.computeIfAbsent(visitor, v -> new InstrumentationSwitch());
+    }
+}
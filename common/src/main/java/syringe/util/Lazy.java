@@ -17,6 +17,8 @@
 package syringe.util;
 
 import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.lang.reflect.Array;
 import java.util.Optional;
 import java.util.function.Supplier;
@@ -24,46 +26,111 @@ import java.util.function.Supplier;
 /**
  * Represents a lazily-retrieved and stored value. This tends to be used in scenarios where values must be computed in
  * order to get a usable value, where the computations are expensive.
+ *
+ * <p>The supplier is invoked at most once, even under concurrent first access, and is released once it has been, so
+ * whatever it captured can be collected. Reads of an initialized value never lock. Threads racing the computation wait
+ * for it to complete, and if the supplier throws, the next access retries.
  */
 public final class Lazy<T> implements Supplier<T> {
 
-    private final Supplier<T> supplier;
+    private static final int UNSET = 0;
+    private static final int COMPUTING = 1;
+    private static final int SET = 2;
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(Lazy.class, "state", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Nullable
+    private Supplier<T> supplier;
     @Nullable
-    private volatile T obj = null;
-    private volatile boolean isSet = false;
+    private T obj = null; //Published by the release store of SET to state
+    @Nullable
+    private Thread computing = null;
+    private volatile int state;
 
     public Lazy(Supplier<T> supplier) {
         this.supplier = supplier;
+        this.state = UNSET;
     }
 
     public Lazy(@Nullable T obj) {
-        this.supplier = () -> obj;
+        this.obj = obj;
+        this.state = SET;
     }
 
     public Lazy() {
-        this.supplier = () -> null;
+        this.state = SET;
     }
 
     @Override
     @Nullable
     public T get() {
-        if (!isSet) {
-            obj = supplier.get();
-            isSet = true;
+        if ((int) STATE.getAcquire(this) == SET)
+            return obj;
+        return compute();
+    }
+
+    @Nullable
+    private T compute() {
+        while (true) {
+            int current = (int) STATE.getAcquire(this);
+            if (current == SET)
+                return obj;
+            if (current == UNSET && STATE.compareAndSet(this, UNSET, COMPUTING)) {
+                computing = Thread.currentThread();
+                T value;
+                try {
+                    value = supplier.get();
+                } catch (Throwable t) {
+                    computing = null;
+                    complete(UNSET);
+                    throw t;
+                }
+                obj = value;
+                supplier = null;
+                computing = null;
+                complete(SET);
+                return value;
+            }
+            if (computing == Thread.currentThread())
+                throw new IllegalStateException("Lazy value accessed recursively from its own supplier");
+            synchronized (this) {
+                while ((int) STATE.getAcquire(this) == COMPUTING) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+    }
+
+    private void complete(int newState) {
+        synchronized (this) {
+            STATE.setRelease(this, newState);
+            notifyAll();
         }
-        return obj;
     }
 
     public Lazy<Optional<T>> optional() {
-        return new Lazy<>(() -> Optional.ofNullable(supplier.get()));
+        return new Lazy<>(() -> Optional.ofNullable(get()));
     }
 
     public Lazy<T> or(Lazy<T> other) {
         return new Lazy<>(() -> {
-            T firstTry = other.get();
+            T firstTry = get();
             if (firstTry != null && (!firstTry.getClass().isArray() || Array.getLength(firstTry) > 0))
                 return firstTry;
             return other.get();
         });
     }
-}
\ No newline at end of file
+}
@@ -17,39 +17,189 @@
 
 package syringe.util;
 
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
 
 /**
  * Simple lazy + immutability enforcing map wrapper. It's purposefully limited.
+ *
+ * <p>The key set is fixed on construction and laid out in an open addressing table, collision-free where a table of
+ * reasonable size allows it. Values are generated on first access and published into an array, so lookups never lock
+ * and are safe from any thread. Concurrent first accesses to a key may run the generator more than once, but all of
+ * them observe the same value. Once every key has been materialized, the map is frozen: the generator is released and
+ * the table never changes again. Keys outside of {@link #keys()} map to null.
  */
 public class LazyMap<K, V> {
 
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final VarHandle GENERATOR;
+    private static final VarHandle REMAINING;
+    private static final Object NULL = new Object(); //Stands for a materialized null
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            GENERATOR = lookup.findVarHandle(LazyMap.class, "generator", Function.class);
+            REMAINING = lookup.findVarHandle(LazyMap.class, "remaining", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     public static <K, V> LazyMap<K, V> convert(Map<K, Lazy<V>> map) {
-        return new LazyMap<>(new HashMap<>(), map.keySet(), k -> map.getOrDefault(k, new Lazy<>()).get());
+        return new LazyMap<>(map.keySet(), k -> map.getOrDefault(k, new Lazy<>()).get());
     }
 
-    private final Map<K, V> map;
-    private final Set<K> keys;
-    private final Function<K, V> generator;
+    private final Index<K> index;
+    @Nullable
+    private final Object[] values; //Null for uncached views
+    @Nullable
+    private volatile Function<K, V> generator;
+    private volatile int remaining;
 
+    /**
+     * @param map Values which are already known, any other key is generated.
+     */
     public LazyMap(Map<K, V> map, Set<K> keys, Function<K, V> generator) {
-        this.map = map;
-        this.keys = keys;
-        this.generator = generator;
+        this.index = new Index<>(keys);
+        this.values = new Object[index.size()];
+        int remaining = values.length;
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            int i = index.indexOf(entry.getKey());
+            if (i >= 0) {
+                values[i] = entry.getValue() == null ? NULL : entry.getValue();
+                remaining--;
+            }
+        }
+        this.remaining = remaining;
+        this.generator = remaining == 0 ? null : generator;
+    }
+
+    public LazyMap(Set<K> keys, Function<K, V> generator) {
+        this(Collections.emptyMap(), keys, generator);
     }
 
     public LazyMap(Map<K, V> map) {
         this(map, map.keySet(), map::get);
     }
 
+    /**
+     * Creates a view with the keys of another map, sharing its table, which does not cache its values. This is meant
+     * for generators which are cheap and side effect free.
+     */
+    public LazyMap(LazyMap<K, ?> keys, Function<K, V> generator) {
+        this.index = keys.index;
+        this.values = null;
+        this.generator = generator;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
     public V get(K key) {
-        return map.computeIfAbsent(key, generator);
+        int i = index.indexOf(key);
+        if (i < 0)
+            return null;
+        if (values == null)
+            return generator.apply(key);
+        Object value = VALUES.getAcquire(values, i);
+        if (value == null)
+            value = materialize(i, key);
+        return value == NULL ? null : (V) value;
+    }
+
+    private Object materialize(int i, K key) {
+        @SuppressWarnings("unchecked")
+        Function<K, V> generator = (Function<K, V>) GENERATOR.getAcquire(this);
+        if (generator == null) //Frozen since the value was read
+            return VALUES.getAcquire(values, i);
+        V generated = generator.apply(key);
+        Object value = generated == null ? NULL : generated;
+        Object witness = VALUES.compareAndExchange(values, i, null, value);
+        if (witness != null)
+            return witness;
+        if ((int) REMAINING.getAndAdd(this, -1) == 1)
+            GENERATOR.setRelease(this, null);
+        return value;
     }
 
     public Set<K> keys() {
-        return keys;
+        return index.keys;
+    }
+
+    /**
+     * @return Whether every value has been materialized, so the map will never change again.
+     */
+    public boolean isFrozen() {
+        return values != null && GENERATOR.getAcquire(this) == null;
+    }
+
+    /**
+     * An immutable open addressing table of keys to their position.
+     */
+    private static final class Index<K> {
+
+        private static final int MAX_GROWTH = 3; //Doublings to try and find a collision-free table
+
+        final Set<K> keys;
+        final Object[] table;
+        final int[] positions;
+        final int mask;
+
+        Index(Set<K> keys) {
+            this.keys = Collections.unmodifiableSet(new LinkedHashSet<>(keys));
+            int length = Integer.highestOneBit(Math.max(1, keys.size()) * 2 - 1) << 1;
+            for (int growth = 0; growth < MAX_GROWTH && !isCollisionFree(keys, length); growth++) {
+                length <<= 1;
+            }
+            this.table = new Object[length];
+            this.positions = new int[length];
+            this.mask = length - 1;
+            int position = 0;
+            for (K key : this.keys) {
+                int slot = spread(key.hashCode()) & mask;
+                while (table[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = key;
+                positions[slot] = position++;
+            }
+        }
+
+        private static boolean isCollisionFree(Set<?> keys, int length) {
+            Map<Integer, Object> used = new HashMap<>();
+            for (Object key : keys) {
+                if (used.put(spread(key.hashCode()) & (length - 1), key) != null)
+                    return false;
+            }
+            return true;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        int size() {
+            return keys.size();
+        }
+
+        int indexOf(@Nullable Object key) {
+            if (key == null)
+                return -1;
+            int slot = spread(key.hashCode()) & mask;
+            Object candidate;
+            while ((candidate = table[slot]) != null) {
+                if (candidate == key || candidate.equals(key))
+                    return positions[slot];
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
     }
 }
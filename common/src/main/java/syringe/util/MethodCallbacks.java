@@ -0,0 +1,90 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.util;
+
+import syringe.callbacks.method.ExceptionThrownCallback;
+import syringe.callbacks.method.MethodInvocationCallback;
+import syringe.callbacks.method.MethodReturnCallback;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The ordered callbacks woven into a single method, as selected by {@link CallbackCollector#forMethod}. Methods with
+ * equal callbacks can share generated dispatch code.
+ */
+public final class MethodCallbacks {
+
+    private final List<MethodInvocationCallback> invocationCallbacks;
+    private final List<MethodReturnCallback> returnCallbacks;
+    private final List<ExceptionThrownCallback> exceptionThrownCallbacks;
+
+    public MethodCallbacks(List<MethodInvocationCallback> invocationCallbacks,
+                           List<MethodReturnCallback> returnCallbacks,
+                           List<ExceptionThrownCallback> exceptionThrownCallbacks) {
+        this.invocationCallbacks = Collections.unmodifiableList(invocationCallbacks);
+        this.returnCallbacks = Collections.unmodifiableList(returnCallbacks);
+        this.exceptionThrownCallbacks = Collections.unmodifiableList(exceptionThrownCallbacks);
+    }
+
+    public List<MethodInvocationCallback> getInvocationCallbacks() {
+        return invocationCallbacks;
+    }
+
+    public List<MethodReturnCallback> getReturnCallbacks() {
+        return returnCallbacks;
+    }
+
+    public List<ExceptionThrownCallback> getExceptionThrownCallbacks() {
+        return exceptionThrownCallbacks;
+    }
+
+    /**
+     * @return Whether the method needs to be dispatched on invocation or return.
+     */
+    public boolean hasDispatch() {
+        return !invocationCallbacks.isEmpty() || !returnCallbacks.isEmpty();
+    }
+
+    /**
+     * @return These callbacks without the ones woven at method exits.
+     */
+    public MethodCallbacks entryOnly() {
+        return new MethodCallbacks(invocationCallbacks, Collections.emptyList(), Collections.emptyList());
+    }
+
+    public boolean isEmpty() {
+        return !hasDispatch() && exceptionThrownCallbacks.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof MethodCallbacks) {
+            MethodCallbacks other = (MethodCallbacks) obj;
+            return invocationCallbacks.equals(other.invocationCallbacks)
+                    && returnCallbacks.equals(other.returnCallbacks)
+                    && exceptionThrownCallbacks.equals(other.exceptionThrownCallbacks);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(invocationCallbacks, returnCallbacks, exceptionThrownCallbacks);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.util;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Decides whether a method signature can be dispatched to the primitive specializations
+ * {@link syringe.callbacks.method.PrimitiveMethodInvocationCallback} and
+ * {@link syringe.callbacks.method.PrimitiveMethodReturnCallback}, and provides the descriptors of the matching
+ * overloads.
+ * <br>
+ * An invocation is specializable when the method has no parameters, or up to {@link #MAX_ARITY} parameters which all
+ * share one of the types int, long or double. A return is specializable when, in addition, the method returns that
+ * same type (or returns int, long or double and has no parameters).
+ */
+public final class PrimitiveSpecialization {
+
+    /**
+     * The largest number of parameters with a specialized overload.
+     */
+    public static final int MAX_ARITY = 3;
+
+    private static final String PREFIX = "(Lsyringe/info/ClassInfo;Lsyringe/info/MethodInfo;Ljava/lang/Object;";
+
+    private PrimitiveSpecialization() {}
+
+    private static boolean isSpecializedType(ClassName type) {
+        if (!type.isPrimitive() || type.isArray())
+            return false;
+        switch (type.getRawName()) {
+            case "int":
+            case "long":
+            case "double":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return The type shared by all the parameters, or null if there are no parameters or they cannot be specialized.
+     */
+    @Nullable
+    private static ClassName sharedType(List<ClassName> params) {
+        if (params.isEmpty() || params.size() > MAX_ARITY)
+            return null;
+        ClassName first = params.get(0);
+        if (!isSpecializedType(first))
+            return null;
+        for (ClassName param : params) {
+            if (!param.equals(first))
+                return null;
+        }
+        return first;
+    }
+
+    public static boolean isInvocationSpecializable(List<ClassName> params) {
+        return params.isEmpty() || sharedType(params) != null;
+    }
+
+    public static boolean isReturnSpecializable(List<ClassName> params, ClassName returnType) {
+        if (!isSpecializedType(returnType))
+            return false;
+        return params.isEmpty() || returnType.equals(sharedType(params));
+    }
+
+    /**
+     * @return The descriptor of the {@code call} overload of
+     * {@link syringe.callbacks.method.PrimitiveMethodInvocationCallback} for the given parameters.
+     */
+    public static String invocationDescriptor(List<ClassName> params) {
+        if (!isInvocationSpecializable(params))
+            throw new IllegalArgumentException("Parameters " + params + " have no specialization!");
+        StringBuilder sb = new StringBuilder(PREFIX);
+        for (ClassName param : params) {
+            sb.append(param.getAsInternalTypeName());
+        }
+        return sb.append(")V").toString();
+    }
+
+    /**
+     * @return The descriptor of the {@code call} overload of
+     * {@link syringe.callbacks.method.PrimitiveMethodReturnCallback} for the given signature.
+     */
+    public static String returnDescriptor(List<ClassName> params, ClassName returnType) {
+        if (!isReturnSpecializable(params, returnType))
+            throw new IllegalArgumentException("Signature " + params + returnType + " has no specialization!");
+        StringBuilder sb = new StringBuilder(PREFIX);
+        for (ClassName param : params) {
+            sb.append(param.getAsInternalTypeName());
+        }
+        String ret = returnType.getAsInternalTypeName();
+        return sb.append(ret).append(')').append(ret).toString();
+    }
+}
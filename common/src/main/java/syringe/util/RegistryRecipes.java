@@ -0,0 +1,223 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.util;
+
+import syringe.info.ClassInfo;
+import syringe.visitor.ClassVisitor;
+import syringe.visitor.MethodVisitor;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.lang.reflect.Array;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.function.Supplier;
+
+/**
+ * Describes the values a woven class picks up from the registry of its backend in terms of the visitors they came
+ * from, so they can be registered again when the woven class is restored from a {@link WeaveCache}. A value is either
+ * the {@link ClassInfo} of the class, an {@link InstrumentationSwitch} or its guard, a callback returned by a visitor,
+ * or an array of those, and visitors are identified by their position.
+ */
+public final class RegistryRecipes {
+
+    private static final String INFO = "info";
+    private static final String GLOBAL_SWITCH = "switch";
+    private static final String GLOBAL_GUARD = "guard";
+    private static final String ARRAY = "[";
+    private static final String ARRAY_SEPARATOR = "|";
+    private static final String[] CLASS_CALLBACKS = {
+            "defineAnnotations", "classConstruct", "classInit", "defineFields", "defineMethods"
+    };
+    private static final String[] METHOD_CALLBACKS = {
+            "throwException", "defineAnnotations", "invokeMethod", "methodReturn"
+    };
+
+    private final List<ClassVisitor> classVisitors;
+    private final List<MethodVisitor> methodVisitors;
+    private final InstrumentationSwitches switches;
+
+    public RegistryRecipes(List<ClassVisitor> classVisitors, List<MethodVisitor> methodVisitors,
+                           InstrumentationSwitches switches) {
+        this.classVisitors = classVisitors;
+        this.methodVisitors = methodVisitors;
+        this.switches = switches;
+    }
+
+    /**
+     * @return The recipes for the registered values, or null if one of them cannot be restored.
+     */
+    @Nullable
+    public byte[] describe(Map<String, Object> registered) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(registered.size());
+            for (Map.Entry<String, Object> value : registered.entrySet()) {
+                String recipe = describe(value.getValue());
+                if (recipe == null)
+                    return null;
+                out.writeUTF(value.getKey());
+                out.writeUTF(recipe);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Nullable
+    private String describe(@Nullable Object value) {
+        if (value instanceof Object[]) {
+            StringJoiner elements = new StringJoiner(ARRAY_SEPARATOR,
+                    ARRAY + value.getClass().getComponentType().getName() + ARRAY_SEPARATOR, "");
+            for (Object element : (Object[]) value) {
+                String recipe = describe(element);
+                if (recipe == null)
+                    return null;
+                elements.add(recipe);
+            }
+            return elements.toString();
+        }
+        if (value instanceof ClassInfo)
+            return INFO;
+        if (value == switches.global())
+            return GLOBAL_SWITCH;
+        if (value == switches.global().getGuard())
+            return GLOBAL_GUARD;
+        for (int i = 0; i < classVisitors.size(); i++) {
+            ClassVisitor cv = classVisitors.get(i);
+            if (value == switches.forVisitor(cv))
+                return GLOBAL_SWITCH + ":c:" + i;
+            if (value == switches.forVisitor(cv).getGuard())
+                return GLOBAL_GUARD + ":c:" + i;
+            for (String callback : CLASS_CALLBACKS) {
+                if (callback(cv, callback).orElse(null) == value)
+                    return "c:" + i + ":" + callback;
+            }
+        }
+        for (int i = 0; i < methodVisitors.size(); i++) {
+            MethodVisitor mv = methodVisitors.get(i);
+            if (value == switches.forVisitor(mv))
+                return GLOBAL_SWITCH + ":m:" + i;
+            if (value == switches.forVisitor(mv).getGuard())
+                return GLOBAL_GUARD + ":m:" + i;
+            for (String callback : METHOD_CALLBACKS) {
+                if (callback(mv, callback).orElse(null) == value)
+                    return "m:" + i + ":" + callback;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The values to register by key, or null if a recipe no longer matches the visitors.
+     */
+    @Nullable
+    public Map<String, Object> resolve(byte[] recipes, Supplier<ClassInfo> info) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(recipes))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                Object value = resolve(in.readUTF(), info);
+                if (value == null)
+                    return null;
+                values.put(key, value);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return values;
+    }
+
+    @Nullable
+    private Object resolve(String recipe, Supplier<ClassInfo> info) {
+        if (recipe.startsWith(ARRAY)) {
+            String[] elements = recipe.substring(ARRAY.length()).split("\\" + ARRAY_SEPARATOR);
+            Object[] array;
+            try {
+                array = (Object[]) Array.newInstance(Class.forName(elements[0], false,
+                        RegistryRecipes.class.getClassLoader()), elements.length - 1);
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
+            for (int i = 1; i < elements.length; i++) {
+                array[i - 1] = resolve(elements[i], info);
+                if (array[i - 1] == null)
+                    return null;
+            }
+            return array;
+        }
+        if (recipe.equals(INFO))
+            return info.get();
+        if (recipe.equals(GLOBAL_SWITCH))
+            return switches.global();
+        if (recipe.equals(GLOBAL_GUARD))
+            return switches.global().getGuard();
+        String[] parts = recipe.split(":");
+        boolean isSwitch = parts[0].equals(GLOBAL_SWITCH);
+        boolean isGuard = parts[0].equals(GLOBAL_GUARD);
+        boolean classVisitor = parts[isSwitch || isGuard ? 1 : 0].equals("c");
+        int index = Integer.parseInt(parts[isSwitch || isGuard ? 2 : 1]);
+        List<?> visitors = classVisitor ? classVisitors : methodVisitors;
+        if (index >= visitors.size())
+            return null;
+        Object visitor = visitors.get(index);
+        if (isSwitch)
+            return switches.forVisitor(visitor);
+        if (isGuard)
+            return switches.forVisitor(visitor).getGuard();
+        return (classVisitor ? callback((ClassVisitor) visitor, parts[2]) : callback((MethodVisitor) visitor, parts[2]))
+                .orElse(null);
+    }
+
+    private static Optional<?> callback(ClassVisitor cv, String callback) {
+        switch (callback) {
+            case "defineAnnotations":
+                return cv.defineAnnotations();
+            case "classConstruct":
+                return cv.classConstruct();
+            case "classInit":
+                return cv.classInit();
+            case "defineFields":
+                return cv.defineFields();
+            case "defineMethods":
+                return cv.defineMethods();
+            default:
+                return Optional.empty();
+        }
+    }
+
+    private static Optional<?> callback(MethodVisitor mv, String callback) {
+        switch (callback) {
+            case "throwException":
+                return mv.throwException();
+            case "defineAnnotations":
+                return mv.defineAnnotations();
+            case "invokeMethod":
+                return mv.invokeMethod();
+            case "methodReturn":
+                return mv.methodReturn();
+            default:
+                return Optional.empty();
+        }
+    }
+}
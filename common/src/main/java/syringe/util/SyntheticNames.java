@@ -0,0 +1,83 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generates the names of the synthetic members added to a class while it is woven, and the keys of the values handed
+ * to them. Names only depend on the class and on the order in which they are requested, and keys on the namespace of
+ * the weave as well, so weaving the same input the same way produces identical output.
+ */
+public final class SyntheticNames {
+
+    private final String owner;
+    private final String namespace;
+    private final Map<String, Integer> counters = new HashMap<>();
+
+    /**
+     * @param owner The name of the class the members are added to.
+     */
+    public SyntheticNames(String owner) {
+        this(owner, "");
+    }
+
+    /**
+     * @param owner The name of the class the members are added to.
+     * @param namespace Qualifies the keys, so different inputs or configurations woven into a class of the same name
+     * do not share values, see {@link #namespace(byte[], String)}.
+     */
+    public SyntheticNames(String owner, String namespace) {
+        this.owner = owner;
+        this.namespace = namespace;
+    }
+
+    /**
+     * @return The namespace of the keys of a weave of the class file under the given configuration, a hash of both.
+     */
+    public static String namespace(byte[] classfile, String configuration) {
+        return WeaveCache.key(classfile, configuration).substring(0, 16);
+    }
+
+    /**
+     * @return The names of the members added to another class generated by the same weave, i.e. a dispatcher.
+     */
+    public SyntheticNames forOwner(String owner) {
+        return new SyntheticNames(owner, namespace);
+    }
+
+    /**
+     * @return A member name unique to the class, i.e. {@code syringe$ClassInfo$0}.
+     */
+    public String next(String kind) {
+        int count = counters.merge(kind, 1, Integer::sum) - 1;
+        return "syringe$" + kind + "$" + count;
+    }
+
+    public String next(Class<?> type) {
+        return next(type.getSimpleName().replace("[]", "Array"));
+    }
+
+    /**
+     * @return The registry key for the value of the given member, qualified by the class and the namespace.
+     */
+    public String key(String member) {
+        return namespace.isEmpty() ? owner + "#" + member : owner + "#" + namespace + "#" + member;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.util;
+
+import syringe.visitor.ClassVisitor;
+import syringe.visitor.MethodVisitor;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A directory of woven classes, addressed by a hash of the class file they were woven from and of a fingerprint of
+ * whatever else decides the outcome of weaving (i.e. the visitors). Each entry holds the woven class along with the
+ * classes generated for it, and whatever the weaver needs to restore the state the woven class expects at runtime.
+ * <br>
+ * Entries are written to a temporary file which is then moved in place, so readers never see partial entries, and
+ * the directory can be shared by several processes. Once it grows past its size limit, the least recently used entries
+ * are evicted. Corrupt entries are treated as missing.
+ */
+public final class WeaveCache {
+
+    private static final int MAGIC = 0x53594e47;
+    private static final int FORMAT = 1;
+    private static final String SUFFIX = ".woven";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true); //In access order
+    private long totalBytes = 0;
+
+    /**
+     * Opens the cache, creating the directory if needed. Existing entries are ordered by when they were last used.
+     *
+     * @param maxBytes The size the entries may take up on disk.
+     */
+    public WeaveCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(directory);
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(directory)) {
+                files = listing.collect(Collectors.toList());
+            }
+            Map<Path, FileTime> used = new HashMap<>();
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file); //Left behind by an interrupted write
+                } else if (name.endsWith(SUFFIX)) {
+                    used.put(file, Files.getLastModifiedTime(file));
+                }
+            }
+            used.keySet().stream().sorted(Comparator.comparing(used::get)).forEach(file -> {
+                String name = file.getFileName().toString();
+                track(name.substring(0, name.length() - SUFFIX.length()), file.toFile().length());
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        evict(null);
+    }
+
+    /**
+     * @return The key of the entry for a class file woven under the given fingerprint.
+     */
+    public static String key(byte[] classfile, String fingerprint) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(classfile);
+        digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = Character.forDigit((hash[i] >> 4) & 0xF, 16);
+            hex[2 * i + 1] = Character.forDigit(hash[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @return The fingerprints of the visitors, in order, to be part of the fingerprint passed to {@link #key}.
+     */
+    public static String fingerprint(Collection<? extends ClassVisitor> cvs, Collection<? extends MethodVisitor> mvs) {
+        StringBuilder sb = new StringBuilder();
+        cvs.forEach(cv -> sb.append(";c:").append(cv.fingerprint()));
+        mvs.forEach(mv -> sb.append(";m:").append(mv.fingerprint()));
+        return sb.toString();
+    }
+
+    /**
+     * Checks that the visitors can be told apart across runs. The name of an anonymous or synthetic class depends on
+     * how its enclosing class was compiled, so such a visitor must override its fingerprint.
+     *
+     * @throws IllegalStateException If a visitor falls back on such a name.
+     */
+    public static void checkFingerprints(Collection<? extends ClassVisitor> cvs,
+                                         Collection<? extends MethodVisitor> mvs) {
+        List<Object> visitors = new ArrayList<>(cvs);
+        visitors.addAll(mvs);
+        for (Object visitor : visitors) {
+            Class<?> type = visitor.getClass();
+            String fingerprint = visitor instanceof ClassVisitor ? ((ClassVisitor) visitor).fingerprint()
+                    : ((MethodVisitor) visitor).fingerprint();
+            if ((type.isAnonymousClass() || type.isSynthetic()) && fingerprint.equals(type.getName()))
+                throw new IllegalStateException("The visitor " + type.getName()
+                        + " must override fingerprint() for the classes it weaves to be cached");
+        }
+    }
+
+    /**
+     * @return The entry under the key, or null if there is none.
+     */
+    @Nullable
+    public Entry get(String key) {
+        Path file = file(key);
+        Entry entry;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            entry = read(buffer);
+        } catch (NoSuchFileException e) {
+            forget(key);
+            return null;
+        } catch (IOException e) {
+            entry = null;
+        }
+        if (entry == null) {
+            remove(key);
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis())); //Keeps the order on reopen
+        } catch (IOException ignored) {}
+        track(key, file.toFile().length());
+        return entry;
+    }
+
+    /**
+     * Stores an entry, replacing any under the same key.
+     *
+     * @return Whether the entry could be written.
+     */
+    public boolean put(String key, Entry entry) {
+        byte[] bytes = write(entry);
+        if (bytes.length > maxBytes)
+            return false;
+        Path file = file(key);
+        try {
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try {
+                Files.write(temp, bytes);
+                try {
+                    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        track(key, bytes.length);
+        evict(key);
+        return true;
+    }
+
+    /**
+     * @return The size of the entries on disk, as far as this instance knows.
+     */
+    public synchronized long size() {
+        return totalBytes;
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private synchronized void track(String key, long size) {
+        Long previous = sizes.put(key, size);
+        totalBytes += size - (previous == null ? 0 : previous);
+    }
+
+    private synchronized void forget(String key) {
+        Long previous = sizes.remove(key);
+        if (previous != null)
+            totalBytes -= previous;
+    }
+
+    private void remove(String key) {
+        forget(key);
+        try {
+            Files.deleteIfExists(file(key));
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits its limit, sparing the given one.
+     */
+    private void evict(@Nullable String spared) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> it = sizes.entrySet().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, Long> eldest = it.next();
+                if (eldest.getKey().equals(spared))
+                    continue;
+                it.remove();
+                totalBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+            }
+        }
+        for (String key : evicted) {
+            try {
+                Files.deleteIfExists(file(key));
+            } catch (IOException ignored) {} //i.e. still mapped by a reader on some platforms
+        }
+    }
+
+    private static byte[] write(Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeInt(entry.classes.size());
+            for (Map.Entry<String, byte[]> c : entry.classes.entrySet()) {
+                writeBytes(out, c.getKey().getBytes(StandardCharsets.UTF_8));
+                writeBytes(out, c.getValue());
+            }
+            writeBytes(out, entry.metadata);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        ByteBuffer checksum = ByteBuffer.allocate(Long.BYTES).putLong(crc.getValue());
+        bytes.write(checksum.array(), 0, Long.BYTES);
+        return bytes.toByteArray();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static Entry read(ByteBuffer buffer) {
+        if (buffer.remaining() < Long.BYTES)
+            return null;
+        int end = buffer.limit() - Long.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().limit(end));
+        if (crc.getValue() != buffer.getLong(end))
+            return null;
+        buffer.limit(end);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT)
+                return null;
+            int count = buffer.getInt();
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = new String(readBytes(buffer), StandardCharsets.UTF_8);
+                classes.put(name, readBytes(buffer));
+            }
+            return new Entry(classes, readBytes(buffer));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * The classes woven from a class file, by binary name and in the order they must be defined, and whatever else the
+     * weaver stored alongside them.
+     */
+    public static final class Entry {
+
+        private final Map<String, byte[]> classes;
+        private final byte[] metadata;
+
+        public Entry(Map<String, byte[]> classes, byte[] metadata) {
+            this.classes = classes;
+            this.metadata = metadata;
+        }
+
+        public Map<String, byte[]> getClasses() {
+            return classes;
+        }
+
+        public byte[] getMetadata() {
+            return metadata;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Counts the classes a syringe has been handed and the time it spent on each phase of weaving them, since it was
+ * created. The counters can be read at any time, while classes are woven. Listeners are handed the {@link ClassWeave}
+ * of every class woven, e.g. to emit it as an event.
+ */
+public final class WeaveMetrics {
+
+    public enum Phase {
+        /**
+         * Reading the class file ahead of weaving it. Most of the class is parsed as the woven class is emitted.
+         */
+        PARSING,
+        /**
+         * Selecting the callbacks which apply to the class and to each of its methods.
+         */
+        CALLBACK_COLLECTION,
+        /**
+         * Running the {@link syringe.callbacks.clazz.ClassDefinitionCallback}s and class annotation callbacks.
+         */
+        CLASS_DEFINITION_CALLBACKS,
+        /**
+         * Generating the woven class and the classes it needs.
+         */
+        CODE_EMISSION,
+        /**
+         * Defining the woven class and the classes it needs, or writing them out. With ASM this happens once the class
+         * is recorded, so it only counts towards the totals; Javassist records it with the class.
+         */
+        CLASS_DEFINITION
+    }
+
+    private final LongAdder classesSeen = new LongAdder();
+    private final LongAdder classesSkipped = new LongAdder();
+    private final LongAdder classesWoven = new LongAdder();
+    private final LongAdder methodsInstrumented = new LongAdder();
+    private final LongAdder bytesBefore = new LongAdder();
+    private final LongAdder bytesAfter = new LongAdder();
+    private final LongAdder accessorClasses = new LongAdder();
+    private final LongAdder[] nanos = new LongAdder[Phase.values().length];
+    private final List<Consumer<ClassWeave>> listeners = new CopyOnWriteArrayList<>();
+
+    public WeaveMetrics() {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param listener Called from the weaving thread for every class woven.
+     */
+    public void addListener(Consumer<ClassWeave> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<ClassWeave> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Counts a class which was left as is, as no visitor applies to it.
+     */
+    public void skipped() {
+        classesSeen.increment();
+        classesSkipped.increment();
+    }
+
+    /**
+     * Counts a class which was woven, and hands it to the listeners.
+     */
+    public void woven(ClassWeave weave) {
+        classesSeen.increment();
+        classesWoven.increment();
+        methodsInstrumented.add(weave.getMethodsInstrumented());
+        bytesBefore.add(weave.getBytesBefore());
+        bytesAfter.add(weave.getBytesAfter());
+        if (weave.isAccessorGenerated())
+            accessorClasses.increment();
+        for (Phase phase : Phase.values()) {
+            nanos[phase.ordinal()].add(weave.getNanos(phase));
+        }
+        for (Consumer<ClassWeave> listener : listeners) {
+            listener.accept(weave);
+        }
+    }
+
+    /**
+     * Adds time spent on a phase outside of the weave of a single class, i.e. defining it.
+     */
+    public void time(Phase phase, long nanos) {
+        this.nanos[phase.ordinal()].add(nanos);
+    }
+
+    public long getClassesSeen() {
+        return classesSeen.sum();
+    }
+
+    public long getClassesSkipped() {
+        return classesSkipped.sum();
+    }
+
+    public long getClassesWoven() {
+        return classesWoven.sum();
+    }
+
+    public long getMethodsInstrumented() {
+        return methodsInstrumented.sum();
+    }
+
+    /**
+     * @return The size of the class files of the classes woven.
+     */
+    public long getBytesBefore() {
+        return bytesBefore.sum();
+    }
+
+    /**
+     * @return The size of the woven classes, along with the classes generated for them.
+     */
+    public long getBytesAfter() {
+        return bytesAfter.sum();
+    }
+
+    public long getAccessorClasses() {
+        return accessorClasses.sum();
+    }
+
+    /**
+     * @return The wall time spent on the phase, summed over every weaving thread.
+     */
+    public long getTime(Phase phase, TimeUnit unit) {
+        return unit.convert(nanos[phase.ordinal()].sum(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("WeaveMetrics[seen=").append(getClassesSeen())
+                .append(", skipped=").append(getClassesSkipped())
+                .append(", woven=").append(getClassesWoven())
+                .append(", methods=").append(getMethodsInstrumented())
+                .append(", bytes=").append(getBytesBefore()).append("->").append(getBytesAfter())
+                .append(", accessors=").append(getAccessorClasses());
+        for (Phase phase : Phase.values()) {
+            sb.append(", ").append(phase.name().toLowerCase()).append('=')
+                    .append(getTime(phase, TimeUnit.MICROSECONDS)).append("us");
+        }
+        return sb.append(']').toString();
+    }
+}
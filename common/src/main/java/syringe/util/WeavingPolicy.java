@@ -0,0 +1,166 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.util;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Decides how much instrumentation a method can take without losing inlining. HotSpot always inlines methods up to
+ * {@code MaxInlineSize} bytes of bytecode, and hot methods up to {@code FreqInlineSize} bytes, so weaving a method
+ * which is under either limit can push it over. The added size is estimated from the shape of the method: its
+ * parameter count, its number of return sites and the callbacks to be woven.
+ * <br>
+ * Methods which would be pushed over a limit are either skipped, or only get their invocation dispatched (which adds
+ * the least code) if {@code entryOnly} is set and that fits. Such methods are counted, and handed to the reporter
+ * as an {@link ExcludedMethod} if there is one. The policy does not keep them, as it may see every method of an
+ * application under an agent.
+ */
+public final class WeavingPolicy {
+
+    /**
+     * HotSpot's default {@code -XX:MaxInlineSize}.
+     */
+    public static final int MAX_INLINE_SIZE = 35;
+    /**
+     * HotSpot's default {@code -XX:FreqInlineSize} on x86_64.
+     */
+    public static final int FREQ_INLINE_SIZE = 325;
+
+    public enum Decision {
+        WEAVE, ENTRY_ONLY, SKIP
+    }
+
+    private final int maxInlineSize;
+    private final int freqInlineSize;
+    private final boolean entryOnly;
+    @Nullable
+    private final Consumer<ExcludedMethod> reporter;
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder entryOnlyWoven = new LongAdder();
+
+    /**
+     * @param maxInlineSize Methods up to this size are kept under it, {@code 0} to disable.
+     * @param freqInlineSize Methods up to this size are kept under it, {@code 0} to disable.
+     * @param entryOnly Whether to fall back to only dispatching the invocation rather than skipping the method.
+     * @param reporter Called for every method which is not fully woven, from the weaving thread, or null.
+     */
+    public WeavingPolicy(int maxInlineSize, int freqInlineSize, boolean entryOnly,
+                         @Nullable Consumer<ExcludedMethod> reporter) {
+        this.maxInlineSize = maxInlineSize;
+        this.freqInlineSize = freqInlineSize;
+        this.entryOnly = entryOnly;
+        this.reporter = reporter;
+    }
+
+    public WeavingPolicy(int maxInlineSize, int freqInlineSize, boolean entryOnly) {
+        this(maxInlineSize, freqInlineSize, entryOnly, null);
+    }
+
+    /**
+     * Uses HotSpot's default limits and skips methods which would be pushed over them.
+     */
+    public WeavingPolicy() {
+        this(MAX_INLINE_SIZE, FREQ_INLINE_SIZE, false);
+    }
+
+    /**
+     * @return A policy which weaves every method regardless of its size.
+     */
+    public static WeavingPolicy always() {
+        return new WeavingPolicy(0, 0, false);
+    }
+
+    /**
+     * @param owner The class declaring the method.
+     * @param name The name of the method.
+     * @param descriptor The descriptor of the method.
+     * @param codeLength The size of the method's bytecode.
+     * @param returnSites The number of return instructions in the method.
+     * @param callbacks The callbacks which would be woven into the method.
+     */
+    public Decision decide(ClassName owner, String name, String descriptor, int codeLength, int returnSites,
+                           MethodCallbacks callbacks) {
+        int parameters = parameterCount(descriptor);
+        if (!pushedOverLimit(codeLength, estimateOverhead(parameters, returnSites, callbacks, false)))
+            return Decision.WEAVE;
+
+        Decision decision = entryOnly && !callbacks.getInvocationCallbacks().isEmpty()
+                && !pushedOverLimit(codeLength, estimateOverhead(parameters, returnSites, callbacks, true)) ?
+                Decision.ENTRY_ONLY : Decision.SKIP;
+        (decision == Decision.SKIP ? skipped : entryOnlyWoven).increment();
+        if (reporter != null)
+            reporter.accept(new ExcludedMethod(owner, name, descriptor, codeLength, decision));
+        return decision;
+    }
+
+    /**
+     * @return The number of methods left unwoven under this policy so far.
+     */
+    public long getMethodsSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * @return The number of methods which only had their invocation dispatched under this policy so far.
+     */
+    public long getMethodsEntryOnly() {
+        return entryOnlyWoven.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "WeavingPolicy[maxInlineSize=" + maxInlineSize + ", freqInlineSize=" + freqInlineSize
+                + ", entryOnly=" + entryOnly + "]";
+    }
+
+    private boolean pushedOverLimit(int codeLength, int overhead) {
+        return (codeLength <= maxInlineSize && codeLength + overhead > maxInlineSize)
+                || (codeLength <= freqInlineSize && codeLength + overhead > freqInlineSize);
+    }
+
+    /**
+     * Estimates the bytes added by weaving: loading the class info, method info, instance and arguments and a static
+     * call per dispatch, plus storing and reloading the returned value and a catch handler per exception callback.
+     */
+    private static int estimateOverhead(int parameters, int returnSites, MethodCallbacks callbacks,
+                                        boolean entryOnly) {
+        int dispatch = 10 + 2 * parameters;
+        int overhead = callbacks.getInvocationCallbacks().isEmpty() ? 0 : dispatch;
+        if (!entryOnly) {
+            if (!callbacks.getReturnCallbacks().isEmpty())
+                overhead += returnSites * (dispatch + 4);
+            overhead += 20 * callbacks.getExceptionThrownCallbacks().size();
+        }
+        return overhead;
+    }
+
+    private static int parameterCount(String descriptor) {
+        int count = 0;
+        for (int i = 1; descriptor.charAt(i) != ')'; i++) {
+            char c = descriptor.charAt(i);
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+            } else if (c == '[') {
+                continue;
+            }
+            count++;
+        }
+        return count;
+    }
+}
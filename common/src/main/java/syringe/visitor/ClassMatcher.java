@@ -0,0 +1,77 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.visitor;
+
+import syringe.util.ClassName;
+import syringe.util.GlobPattern;
+
+import java.lang.annotation.Annotation;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the classes a visitor applies to. It is evaluated at weave time, before anything is loaded, so it only sees
+ * what is declared in the class file.
+ */
+@FunctionalInterface
+public interface ClassMatcher {
+
+    /**
+     * @param name The name of the class.
+     * @param modifiers The access flags of the class.
+     * @param annotations The types of the annotations declared on the class.
+     */
+    boolean matches(ClassName name, int modifiers, Set<ClassName> annotations);
+
+    default ClassMatcher and(ClassMatcher other) {
+        return (name, modifiers, annotations) -> matches(name, modifiers, annotations)
+                && other.matches(name, modifiers, annotations);
+    }
+
+    default ClassMatcher or(ClassMatcher other) {
+        return (name, modifiers, annotations) -> matches(name, modifiers, annotations)
+                || other.matches(name, modifiers, annotations);
+    }
+
+    default ClassMatcher negate() {
+        return (name, modifiers, annotations) -> !matches(name, modifiers, annotations);
+    }
+
+    static ClassMatcher any() {
+        return (name, modifiers, annotations) -> true;
+    }
+
+    /**
+     * @param glob A {@link GlobPattern} matched against the fully qualified name, i.e. {@code com.example.**}.
+     */
+    static ClassMatcher named(String glob) {
+        Pattern pattern = GlobPattern.compile(glob);
+        return (name, modifiers, annotations) -> pattern.matcher(name.getFullyQualifiedName()).matches();
+    }
+
+    static ClassMatcher annotatedWith(Class<? extends Annotation> annotation) {
+        ClassName annotationName = ClassName.of(annotation);
+        return (name, modifiers, annotations) -> annotations.contains(annotationName);
+    }
+
+    /**
+     * @param required The {@link java.lang.reflect.Modifier} flags which must all be set.
+     */
+    static ClassMatcher withModifiers(int required) {
+        return (name, modifiers, annotations) -> (modifiers & required) == required;
+    }
+}
@@ -23,6 +23,13 @@ import java.util.Optional;
 
 public interface ClassVisitor {
 
+    /**
+     * @return The classes this visitor applies to.
+     */
+    default ClassMatcher classes() {
+        return ClassMatcher.any();
+    }
+
     default Optional<ClassInitializerCallback> classInit() {
         return Optional.empty();
     }
@@ -42,4 +49,13 @@ public interface ClassVisitor {
     default Optional<ClassAnnotationCallback> defineAnnotations() {
         return Optional.empty();
     }
+
+    /**
+     * @return What tells the callbacks of this visitor apart from those of other visitors, for woven classes to be
+     * cached (see {@link syringe.util.WeaveCache}). Its class name by default, so a visitor whose callbacks or matchers
+     * depend on how it was constructed must override it, as must a visitor of an anonymous class.
+     */
+    default String fingerprint() {
+        return getClass().getName();
+    }
 }
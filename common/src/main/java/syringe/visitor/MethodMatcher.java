@@ -0,0 +1,86 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.visitor;
+
+import syringe.util.ClassName;
+import syringe.util.GlobPattern;
+
+import java.lang.annotation.Annotation;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the methods a visitor applies to. It is evaluated at weave time, before anything is loaded, so it only sees
+ * what is declared in the class file.
+ */
+@FunctionalInterface
+public interface MethodMatcher {
+
+    /**
+     * @param owner The name of the class declaring the method.
+     * @param name The name of the method.
+     * @param descriptor The descriptor of the method, i.e. {@code (ILjava/lang/String;)V}.
+     * @param modifiers The access flags of the method.
+     * @param annotations The types of the annotations declared on the method.
+     */
+    boolean matches(ClassName owner, String name, String descriptor, int modifiers, Set<ClassName> annotations);
+
+    default MethodMatcher and(MethodMatcher other) {
+        return (owner, name, descriptor, modifiers, annotations) ->
+                matches(owner, name, descriptor, modifiers, annotations)
+                        && other.matches(owner, name, descriptor, modifiers, annotations);
+    }
+
+    default MethodMatcher or(MethodMatcher other) {
+        return (owner, name, descriptor, modifiers, annotations) ->
+                matches(owner, name, descriptor, modifiers, annotations)
+                        || other.matches(owner, name, descriptor, modifiers, annotations);
+    }
+
+    default MethodMatcher negate() {
+        return (owner, name, descriptor, modifiers, annotations) ->
+                !matches(owner, name, descriptor, modifiers, annotations);
+    }
+
+    static MethodMatcher any() {
+        return (owner, name, descriptor, modifiers, annotations) -> true;
+    }
+
+    /**
+     * @param glob A {@link GlobPattern} matched against the method name, i.e. {@code get*}.
+     */
+    static MethodMatcher named(String glob) {
+        Pattern pattern = GlobPattern.compile(glob);
+        return (owner, name, descriptor, modifiers, annotations) -> pattern.matcher(name).matches();
+    }
+
+    static MethodMatcher describedBy(String methodDescriptor) {
+        return (owner, name, descriptor, modifiers, annotations) -> descriptor.equals(methodDescriptor);
+    }
+
+    static MethodMatcher annotatedWith(Class<? extends Annotation> annotation) {
+        ClassName annotationName = ClassName.of(annotation);
+        return (owner, name, descriptor, modifiers, annotations) -> annotations.contains(annotationName);
+    }
+
+    /**
+     * @param required The {@link java.lang.reflect.Modifier} flags which must all be set.
+     */
+    static MethodMatcher withModifiers(int required) {
+        return (owner, name, descriptor, modifiers, annotations) -> (modifiers & required) == required;
+    }
+}
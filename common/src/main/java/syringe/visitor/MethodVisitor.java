@@ -26,6 +26,20 @@ import java.util.Optional;
 
 public interface MethodVisitor {
 
+    /**
+     * @return The classes whose methods this visitor applies to.
+     */
+    default ClassMatcher classes() {
+        return ClassMatcher.any();
+    }
+
+    /**
+     * @return The methods this visitor applies to, within the matched classes.
+     */
+    default MethodMatcher methods() {
+        return MethodMatcher.any();
+    }
+
     default Optional<MethodInvocationCallback> invokeMethod() { //Initial call
         return Optional.empty();
     }
@@ -41,4 +55,12 @@ public interface MethodVisitor {
     default Optional<MethodAnnotationCallback> defineAnnotations() {
         return Optional.empty();
     }
+
+    /**
+     * @return What tells the callbacks of this visitor apart from those of other visitors, see
+     * {@link ClassVisitor#fingerprint()}.
+     */
+    default String fingerprint() {
+        return getClass().getName();
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.util;
+
+import org.junit.Test;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks {@link ClassHeader} against what ASM reads from the same class files.
+ */
+public class ClassHeaderTest {
+
+    @Test
+    public void testAnnotations() throws IOException {
+        assertMatchesAsm(Visible.class);
+        assertMatchesAsm(Invisible.class);
+        assertMatchesAsm(Both.class);
+        assertEquals(3, ClassHeader.read(classfile(Both.class)).getAnnotationTypes().size());
+    }
+
+    @Test
+    public void testConstantPool() throws IOException {
+        assertMatchesAsm(WideConstants.class);
+        assertMatchesAsm(Lambdas.class);
+        assertMatchesAsm(Object.class.getModule().getResourceAsStream("module-info.class"));
+    }
+
+    @Test
+    public void testRealClasses() throws IOException {
+        assertMatchesAsm(Object.class);
+        assertMatchesAsm(Deprecated.class);
+        assertMatchesAsm(ClassHeader.class);
+        assertMatchesAsm(ClassReader.class);
+        assertMatchesAsm(Opcodes.class);
+        assertMatchesAsm(Test.class);
+    }
+
+    @Test
+    public void testMalformed() throws IOException {
+        assertNull(ClassHeader.read(new byte[]{1, 2, 3}));
+        byte[] classfile = classfile(Both.class);
+        assertNull(ClassHeader.read(Arrays.copyOf(classfile, classfile.length / 2)));
+    }
+
+    private static void assertMatchesAsm(Class<?> clazz) throws IOException {
+        assertMatchesAsm(classfile(clazz));
+    }
+
+    private static void assertMatchesAsm(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            assertMatchesAsm(stream.readAllBytes());
+        }
+    }
+
+    private static void assertMatchesAsm(byte[] classfile) {
+        HeaderCollector expected = new HeaderCollector();
+        new ClassReader(classfile).accept(expected, ClassReader.SKIP_CODE);
+        ClassHeader header = ClassHeader.read(classfile);
+        assertEquals(expected.name, header.getName());
+        assertEquals(expected.modifiers, header.getModifiers());
+        assertEquals(expected.annotationTypes, header.getAnnotationTypes());
+    }
+
+    private static byte[] classfile(Class<?> clazz) throws IOException {
+        String resource = clazz.getName().substring(clazz.getName().lastIndexOf('.') + 1) + ".class";
+        try (InputStream in = clazz.getResourceAsStream(resource)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static class HeaderCollector extends ClassVisitor {
+
+        private ClassName name;
+        private int modifiers;
+        private final Set<ClassName> annotationTypes = new HashSet<>();
+
+        private HeaderCollector() {
+            super(Opcodes.ASM6);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.name = ClassName.of(name);
+            this.modifiers = access & 0xFFFF; //Without the pseudo flags ASM adds, such as ACC_DEPRECATED
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            annotationTypes.add(ClassName.of(descriptor));
+            return null;
+        }
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    private @interface RuntimeMarker {
+        String value() default "";
+
+        ElementType[] targets() default {};
+
+        Retention nested() default @Retention(RetentionPolicy.SOURCE);
+
+        Class<?> type() default Object.class;
+    }
+
+    @Retention(RetentionPolicy.CLASS)
+    private @interface ClassMarker {
+        long value() default 0;
+    }
+
+    @RuntimeMarker
+    private static class Visible {
+    }
+
+    @ClassMarker
+    private static final class Invisible {
+    }
+
+    @RuntimeMarker(value = "\u00e9\u20ac", targets = {ElementType.TYPE, ElementType.FIELD},
+            nested = @Retention(RetentionPolicy.CLASS), type = String[].class)
+    @ClassMarker(Long.MAX_VALUE)
+    @Deprecated
+    protected abstract static class Both {
+    }
+
+    @ClassMarker
+    static class WideConstants {
+        static final long LONG = 0x1234_5678_9ABCL;
+        static final double DOUBLE = Math.PI;
+
+        long sum(long l, double d) {
+            return l + 42_000_000_000L + (long) (d * 2.5e10);
+        }
+    }
+
+    @RuntimeMarker
+    public static class Lambdas {
+        Supplier<String> supplier(int i, long l) {
+            return () -> "Called with " + i + " and " + l;
+        }
+    }
+}
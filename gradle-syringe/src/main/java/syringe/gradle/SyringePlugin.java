@@ -0,0 +1,64 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.gradle;
+
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.plugins.JavaPluginConvention;
+import org.gradle.api.tasks.compile.JavaCompile;
+
+import java.io.File;
+import java.util.Collections;
+
+/**
+ * Weaves the classes of every source set after they are compiled (see {@link WeaveTask}), in place of the compiled
+ * classes: javac writes to a separate directory, which the weaving task reads, and the woven classes are written to
+ * the classes directory of the source set, so every task using the classes uses the woven ones.
+ * <br>
+ * The visitors are taken from the {@code syringe} configuration.
+ */
+public class SyringePlugin implements Plugin<Project> {
+
+    public static final String CONFIGURATION_NAME = "syringe";
+
+    @Override
+    public void apply(Project project) {
+        project.getPluginManager().apply(JavaPlugin.class);
+        Configuration visitors = project.getConfigurations().create(CONFIGURATION_NAME);
+        visitors.setDescription("The visitors classes are woven with.");
+
+        JavaPluginConvention java = project.getConvention().getPlugin(JavaPluginConvention.class);
+        java.getSourceSets().all(sourceSet -> {
+            JavaCompile compile = (JavaCompile) project.getTasks().getByName(sourceSet.getCompileJavaTaskName());
+            File unwoven = new File(project.getBuildDir(), "classes/java/" + sourceSet.getName() + "Unwoven");
+            compile.setDestinationDir(unwoven);
+
+            WeaveTask weave = project.getTasks().create(sourceSet.getTaskName("weave", "classes"), WeaveTask.class);
+            weave.setDescription("Weaves the " + sourceSet.getName() + " classes.");
+            weave.setClasses(project.files(unwoven).builtBy(compile));
+            weave.setClasspath(sourceSet.getCompileClasspath());
+            weave.setVisitorClasspath(visitors);
+            weave.setDestinationDir(sourceSet.getJava().getOutputDir());
+            //Registered again as built by the weaving task, so tasks using the output of the source set depend on it
+            sourceSet.getOutput().dir(Collections.singletonMap("builtBy", weave), weave.getDestinationDir());
+            project.getTasks().getByName(sourceSet.getClassesTaskName()).dependsOn(weave);
+        });
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.gradle;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.*;
+import org.gradle.api.tasks.incremental.IncrementalTaskInputs;
+import org.objectweb.asm.ClassReader;
+import syringe.asm.AsmSyringe;
+import syringe.asm.DispatchMode;
+import syringe.asm.util.OpenClassLoader;
+import syringe.util.ClassFiles;
+import syringe.visitor.ClassVisitor;
+import syringe.visitor.MethodVisitor;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Weaves compiled classes ahead of time with {@link AsmSyringe#precompile}, so they are loaded without any weaving.
+ * The classes are read from directories or jars and written to a directory, woven or as is if no visitor applies to
+ * them, along with the classes generated for them. Other files of the directories are copied.
+ * <br>
+ * Classes are woven in parallel on a {@link ForkJoinPool}. When only class files of the input directories changed,
+ * only those are woven again; any other change, i.e. of a jar, the classpath or the visitors, weaves every class.
+ */
+@CacheableTask
+public class WeaveTask extends DefaultTask {
+
+    private FileCollection classes = getProject().files();
+    private FileCollection classpath = getProject().files();
+    private FileCollection visitorClasspath = getProject().files();
+    private String dispatchMode = DispatchMode.STATIC_FIELD.name();
+    private File destinationDir;
+
+    /**
+     * @return The directories and jars of the classes to weave.
+     */
+    @SkipWhenEmpty
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileCollection getClasses() {
+        return classes;
+    }
+
+    public void setClasses(FileCollection classes) {
+        this.classes = classes;
+    }
+
+    /**
+     * @return The classpath the classes were compiled against, which the woven code is checked against.
+     */
+    @CompileClasspath
+    public FileCollection getClasspath() {
+        return classpath;
+    }
+
+    public void setClasspath(FileCollection classpath) {
+        this.classpath = classpath;
+    }
+
+    /**
+     * @return The classpath the {@link ClassVisitor}s and {@link MethodVisitor}s are found on, with
+     * {@link ServiceLoader}. They must be on the runtime classpath of the woven classes as well.
+     */
+    @Classpath
+    public FileCollection getVisitorClasspath() {
+        return visitorClasspath;
+    }
+
+    public void setVisitorClasspath(FileCollection visitorClasspath) {
+        this.visitorClasspath = visitorClasspath;
+    }
+
+    /**
+     * @return The name of the {@link DispatchMode} to weave with.
+     */
+    @Input
+    public String getDispatchMode() {
+        return dispatchMode;
+    }
+
+    public void setDispatchMode(String dispatchMode) {
+        this.dispatchMode = dispatchMode;
+    }
+
+    @OutputDirectory
+    public File getDestinationDir() {
+        return destinationDir;
+    }
+
+    public void setDestinationDir(File destinationDir) {
+        this.destinationDir = destinationDir;
+    }
+
+    @TaskAction
+    public void weave(IncrementalTaskInputs inputs) throws IOException {
+        Set<File> roots = classes.getFiles();
+        Set<File> changed = new LinkedHashSet<>();
+        Set<File> removed = new LinkedHashSet<>();
+        boolean everything = !inputs.isIncremental();
+        if (!everything) {
+            inputs.outOfDate(details -> changed.add(details.getFile()));
+            inputs.removed(details -> removed.add(details.getFile()));
+            for (File file : changed) {
+                File root = rootOf(roots, file);
+                everything |= root == null || root.equals(file); //Not a class file of a directory
+            }
+            for (File file : removed) {
+                File root = rootOf(roots, file);
+                everything |= root == null || root.equals(file);
+            }
+        }
+        Path destination = destinationDir.toPath();
+        if (everything) {
+            getProject().delete(destinationDir);
+            Files.createDirectories(destination);
+        }
+
+        List<URL> urls = new ArrayList<>();
+        for (File file : classes.plus(classpath)) {
+            urls.add(url(file));
+        }
+        List<URL> visitorUrls = new ArrayList<>();
+        for (File file : visitorClasspath) {
+            visitorUrls.add(url(file));
+        }
+        try (URLClassLoader types = new URLClassLoader(urls.toArray(new URL[0]), ClassLoader.getPlatformClassLoader());
+             URLClassLoader visitors = new URLClassLoader(visitorUrls.toArray(new URL[0]),
+                     WeaveTask.class.getClassLoader())) {
+            AsmSyringe syringe = new AsmSyringe(new OpenClassLoader(visitors), DispatchMode.valueOf(dispatchMode));
+            ServiceLoader.load(ClassVisitor.class, visitors).forEach(syringe::addVisitor);
+            ServiceLoader.load(MethodVisitor.class, visitors).forEach(syringe::addVisitor);
+
+            List<Runnable> work = new ArrayList<>();
+            for (File root : roots) {
+                if (!root.exists())
+                    continue;
+                if (root.isFile()) {
+                    if (everything)
+                        ClassFiles.read(root.toPath(), (name, bytecode) -> work.add(() -> write(destination,
+                                syringe.precompile(bytecode, type -> superName(types, type)))));
+                    continue;
+                }
+                List<Path> files;
+                if (everything) {
+                    try (Stream<Path> walk = Files.walk(root.toPath())) {
+                        files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+                    }
+                } else {
+                    files = changed.stream().filter(file -> rootOf(roots, file) == root).map(File::toPath)
+                            .collect(Collectors.toList());
+                }
+                for (Path file : files) {
+                    Path target = destination.resolve(root.toPath().relativize(file));
+                    work.add(() -> weave(file, target, destination, syringe, types));
+                }
+            }
+            for (File file : removed) {
+                File root = rootOf(roots, file);
+                if (root != null && !everything)
+                    delete(destination.resolve(root.toPath().relativize(file.toPath())));
+            }
+
+            ForkJoinPool pool = syringe.getPool();
+            List<ForkJoinTask<?>> tasks = work.stream().map(pool::submit).collect(Collectors.toList());
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+    }
+
+    /**
+     * Weaves a class file of a directory, or copies any other file.
+     */
+    private void weave(Path file, Path target, Path destination, AsmSyringe syringe, ClassLoader types) {
+        try {
+            String name = file.getFileName().toString();
+            if (!name.endsWith(".class") || name.equals("module-info.class")) {
+                Files.createDirectories(target.getParent());
+                Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+            delete(target); //Along with the classes generated by an earlier weave
+            write(destination, syringe.precompile(Files.readAllBytes(file), type -> superName(types, type)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Could not weave " + file, e);
+        }
+    }
+
+    private static void write(Path destination, Map<String, byte[]> classes) {
+        try {
+            for (Map.Entry<String, byte[]> woven : classes.entrySet()) {
+                Path target = destination.resolve(woven.getKey().replace('.', '/') + ".class");
+                Files.createDirectories(target.getParent());
+                Files.write(target, woven.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deletes an output file, and the classes generated alongside it if it is a class file.
+     */
+    private static void delete(Path target) throws IOException {
+        Files.deleteIfExists(target);
+        String name = target.getFileName().toString();
+        if (!name.endsWith(".class") || !Files.isDirectory(target.getParent()))
+            return;
+        String glob = name.substring(0, name.length() - ".class".length()) + "$Syringe*.class";
+        try (DirectoryStream<Path> generated = Files.newDirectoryStream(target.getParent(), glob)) {
+            for (Path path : generated) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Nullable
+    private static File rootOf(Set<File> roots, File file) {
+        for (File root : roots) {
+            if (file.toPath().startsWith(root.toPath()))
+                return root;
+        }
+        return null;
+    }
+
+    /**
+     * @return The internal name of the super class of a type, from the class files of the classes and their
+     * classpath, or of this plugin for the types of the Syringe runtime.
+     */
+    @Nullable
+    private static String superName(ClassLoader types, String type) {
+        InputStream in = types.getResourceAsStream(type + ".class");
+        if (in == null)
+            in = WeaveTask.class.getClassLoader().getResourceAsStream(type + ".class");
+        if (in == null)
+            throw new TypeNotPresentException(type.replace('/', '.'), null);
+        try (InputStream classfile = in) {
+            return new ClassReader(classfile).getSuperName();
+        } catch (IOException e) {
+            throw new TypeNotPresentException(type.replace('/', '.'), e);
+        }
+    }
+
+    private static URL url(File file) {
+        try {
+            return file.toURI().toURL();
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
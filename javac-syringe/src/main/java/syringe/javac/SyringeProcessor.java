@@ -0,0 +1,192 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.javac;
+
+import com.google.auto.service.AutoService;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import org.objectweb.asm.ClassReader;
+import syringe.asm.AsmSyringe;
+import syringe.asm.DispatchMode;
+import syringe.asm.util.OpenClassLoader;
+import syringe.visitor.ClassVisitor;
+import syringe.visitor.MethodVisitor;
+
+import javax.annotation.Nullable;
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Weaves classes as javac writes them, so they are loaded without an agent, an {@link OpenClassLoader} or any weaving
+ * at startup. It is an annotation processor only to be picked up from the annotation processor path: it claims no
+ * annotations, and instead listens for the class files of each top level class and its nested classes to be
+ * generated, then weaves them in place with {@link AsmSyringe#precompile}.
+ * <br>
+ * The visitors are found with {@link ServiceLoader} on the annotation processor path. They are instantiated again by
+ * class name when a woven class is initialized, so they must also be on the runtime classpath, with a public
+ * constructor without parameters. The {@link DispatchMode} may be set with {@code -Asyringe.dispatch=<mode>}.
+ */
+@AutoService(Processor.class)
+@SupportedAnnotationTypes("*")
+@SupportedOptions(SyringeProcessor.DISPATCH_OPTION)
+public final class SyringeProcessor extends AbstractProcessor {
+
+    static final String DISPATCH_OPTION = "syringe.dispatch";
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final byte[] WOVEN_MARKER = "syringe/asm/Precompiled".getBytes(StandardCharsets.UTF_8);
+
+    private AsmSyringe syringe;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        String mode = processingEnv.getOptions().get(DISPATCH_OPTION);
+        syringe = new AsmSyringe(new OpenClassLoader(SyringeProcessor.class.getClassLoader()),
+                mode == null ? DispatchMode.STATIC_FIELD : DispatchMode.valueOf(mode));
+        ServiceLoader.load(ClassVisitor.class, SyringeProcessor.class.getClassLoader()).forEach(syringe::addVisitor);
+        ServiceLoader.load(MethodVisitor.class, SyringeProcessor.class.getClassLoader()).forEach(syringe::addVisitor);
+        JavacTask.instance(processingEnv).addTaskListener(new TaskListener() {
+            @Override
+            public void finished(TaskEvent e) {
+                if (e.getKind() == TaskEvent.Kind.GENERATE && e.getTypeElement() != null)
+                    weave(e.getTypeElement());
+            }
+        });
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        return false;
+    }
+
+    /**
+     * Weaves the class files generated for a top level class, i.e. its own and those of its nested, local and
+     * anonymous classes, which share its output directory and name prefix.
+     */
+    private void weave(TypeElement type) {
+        Elements elements = processingEnv.getElementUtils();
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(type).toString();
+        String simpleName = binaryName.substring(binaryName.lastIndexOf('.') + 1);
+        Path classfile;
+        try {
+            FileObject output = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, packageName,
+                    simpleName + ".class");
+            if (!"file".equals(output.toUri().getScheme()))
+                return; //Compiled in memory
+            classfile = Paths.get(output.toUri());
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not find the class file of "
+                    + binaryName + ": " + e, type);
+            return;
+        }
+
+        Path directory = classfile.getParent();
+        List<Path> generated = new ArrayList<>();
+        generated.add(classfile);
+        try (DirectoryStream<Path> nested = Files.newDirectoryStream(directory, simpleName + "$*.class")) {
+            for (Path path : nested) {
+                if (!path.getFileName().toString().contains("$Syringe")) //Generated by an earlier weave
+                    generated.add(path);
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not list the classes of "
+                    + binaryName + ": " + e, type);
+            return;
+        }
+
+        for (Path path : generated) {
+            try {
+                byte[] bytecode = Files.readAllBytes(path);
+                if (isWoven(bytecode)) //Left over from an earlier compilation
+                    continue;
+                Map<String, byte[]> classes = syringe.precompile(bytecode, t -> superName(t, packageName));
+                for (Map.Entry<String, byte[]> woven : classes.entrySet()) {
+                    String name = woven.getKey();
+                    Files.write(directory.resolve(name.substring(name.lastIndexOf('.') + 1) + ".class"),
+                            woven.getValue());
+                }
+            } catch (IOException | RuntimeException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not weave " + path + ": " + e,
+                        type);
+            }
+        }
+    }
+
+    private static boolean isWoven(byte[] bytecode) {
+        outer:
+        for (int i = 0; i <= bytecode.length - WOVEN_MARKER.length; i++) {
+            for (int j = 0; j < WOVEN_MARKER.length; j++) {
+                if (bytecode[i + j] != WOVEN_MARKER[j])
+                    continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The internal name of the super class of a type, looked up among the types of the compilation and its
+     * classpath, or among the class files already written for local and anonymous classes, which have no element.
+     */
+    @Nullable
+    private String superName(String type, String packageName) {
+        Elements elements = processingEnv.getElementUtils();
+        TypeElement element = elements.getTypeElement(type.replace('/', '.').replace('$', '.'));
+        if (element != null) {
+            if (element.getKind().isInterface())
+                return OBJECT;
+            TypeMirror superclass = element.getSuperclass();
+            if (superclass.getKind() == TypeKind.NONE)
+                return null;
+            return elements.getBinaryName((TypeElement) ((DeclaredType) superclass).asElement()).toString()
+                    .replace('.', '/');
+        }
+        if (!type.startsWith(packageName.replace('.', '/')))
+            throw new TypeNotPresentException(type.replace('/', '.'), null);
+        try (InputStream in = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, packageName,
+                type.substring(type.lastIndexOf('/') + 1) + ".class").openInputStream()) {
+            return new ClassReader(in).getSuperName();
+        } catch (IOException e) {
+            throw new TypeNotPresentException(type.replace('/', '.'), e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.jfr;
+
+import jdk.jfr.*;
+import syringe.util.ClassWeave;
+import syringe.util.WeaveMetrics;
+
+/**
+ * The weaving of a single class, as recorded in a {@link ClassWeave}. It is committed once the class is woven, with
+ * the time of each phase as measured by the weaver.
+ */
+@Name("syringe.ClassWeave")
+@Label("Class Weave")
+@Category("Syringe")
+@Description("A class woven by a syringe, with the time spent on each phase")
+@StackTrace(false)
+final class ClassWeaveEvent extends Event {
+
+    @Label("Class Name")
+    String className;
+
+    @Label("Bytes Before")
+    @DataAmount
+    int bytesBefore;
+
+    @Label("Bytes After")
+    @DataAmount
+    int bytesAfter;
+
+    @Label("Methods Instrumented")
+    int methodsInstrumented;
+
+    @Label("Accessor Generated")
+    boolean accessorGenerated;
+
+    @Label("Parsing")
+    @Timespan
+    long parsing;
+
+    @Label("Callback Collection")
+    @Timespan
+    long callbackCollection;
+
+    @Label("Class Definition Callbacks")
+    @Timespan
+    long classDefinitionCallbacks;
+
+    @Label("Code Emission")
+    @Timespan
+    long codeEmission;
+
+    @Label("Class Definition")
+    @Timespan
+    long classDefinition;
+
+    void set(ClassWeave weave) {
+        className = weave.getClassName();
+        bytesBefore = weave.getBytesBefore();
+        bytesAfter = weave.getBytesAfter();
+        methodsInstrumented = weave.getMethodsInstrumented();
+        accessorGenerated = weave.isAccessorGenerated();
+        parsing = weave.getNanos(WeaveMetrics.Phase.PARSING);
+        callbackCollection = weave.getNanos(WeaveMetrics.Phase.CALLBACK_COLLECTION);
+        classDefinitionCallbacks = weave.getNanos(WeaveMetrics.Phase.CLASS_DEFINITION_CALLBACKS);
+        codeEmission = weave.getNanos(WeaveMetrics.Phase.CODE_EMISSION);
+        classDefinition = weave.getNanos(WeaveMetrics.Phase.CLASS_DEFINITION);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.jfr;
+
+import jdk.jfr.FlightRecorder;
+import syringe.util.ClassWeave;
+import syringe.util.WeaveMetrics;
+
+import java.util.function.Consumer;
+
+/**
+ * Emits the metrics of a syringe (see {@link syringe.Syringe#getMetrics()}) as Flight Recorder events: a
+ * {@code syringe.ClassWeave} event for every class woven, and a periodic {@code syringe.WeaveStatistics} event with the
+ * totals. Events are only filled in while a recording enables them.
+ */
+public final class JfrMetrics implements AutoCloseable {
+
+    private final WeaveMetrics metrics;
+    private final Consumer<ClassWeave> listener = JfrMetrics::emit;
+    private final Runnable statistics;
+
+    private JfrMetrics(WeaveMetrics metrics) {
+        this.metrics = metrics;
+        this.statistics = () -> new WeaveStatisticsEvent(metrics).commit();
+    }
+
+    /**
+     * Starts emitting events for the given metrics, until the returned registration is closed.
+     */
+    public static JfrMetrics register(WeaveMetrics metrics) {
+        JfrMetrics jfr = new JfrMetrics(metrics);
+        metrics.addListener(jfr.listener);
+        FlightRecorder.addPeriodicEvent(WeaveStatisticsEvent.class, jfr.statistics);
+        return jfr;
+    }
+
+    private static void emit(ClassWeave weave) {
+        ClassWeaveEvent event = new ClassWeaveEvent();
+        if (!event.isEnabled())
+            return;
+        event.set(weave);
+        event.commit();
+    }
+
+    @Override
+    public void close() {
+        metrics.removeListener(listener);
+        FlightRecorder.removePeriodicEvent(statistics);
+    }
+}
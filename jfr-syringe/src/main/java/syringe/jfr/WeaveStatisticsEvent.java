@@ -0,0 +1,93 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.jfr;
+
+import jdk.jfr.*;
+import syringe.util.WeaveMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The totals of a {@link WeaveMetrics}, emitted periodically while it is registered.
+ */
+@Name("syringe.WeaveStatistics")
+@Label("Weave Statistics")
+@Category("Syringe")
+@Description("The classes a syringe has woven since it was created, and the time spent on each phase")
+@StackTrace(false)
+@Period("10 s")
+final class WeaveStatisticsEvent extends Event {
+
+    @Label("Classes Seen")
+    long classesSeen;
+
+    @Label("Classes Skipped")
+    long classesSkipped;
+
+    @Label("Classes Woven")
+    long classesWoven;
+
+    @Label("Methods Instrumented")
+    long methodsInstrumented;
+
+    @Label("Bytes Before")
+    @DataAmount
+    long bytesBefore;
+
+    @Label("Bytes After")
+    @DataAmount
+    long bytesAfter;
+
+    @Label("Accessor Classes")
+    long accessorClasses;
+
+    @Label("Parsing")
+    @Timespan
+    long parsing;
+
+    @Label("Callback Collection")
+    @Timespan
+    long callbackCollection;
+
+    @Label("Class Definition Callbacks")
+    @Timespan
+    long classDefinitionCallbacks;
+
+    @Label("Code Emission")
+    @Timespan
+    long codeEmission;
+
+    @Label("Class Definition")
+    @Timespan
+    long classDefinition;
+
+    WeaveStatisticsEvent(WeaveMetrics metrics) {
+        classesSeen = metrics.getClassesSeen();
+        classesSkipped = metrics.getClassesSkipped();
+        classesWoven = metrics.getClassesWoven();
+        methodsInstrumented = metrics.getMethodsInstrumented();
+        bytesBefore = metrics.getBytesBefore();
+        bytesAfter = metrics.getBytesAfter();
+        accessorClasses = metrics.getAccessorClasses();
+        parsing = metrics.getTime(WeaveMetrics.Phase.PARSING, TimeUnit.NANOSECONDS);
+        callbackCollection = metrics.getTime(WeaveMetrics.Phase.CALLBACK_COLLECTION, TimeUnit.NANOSECONDS);
+        classDefinitionCallbacks = metrics.getTime(WeaveMetrics.Phase.CLASS_DEFINITION_CALLBACKS, TimeUnit.NANOSECONDS);
+        codeEmission = metrics.getTime(WeaveMetrics.Phase.CODE_EMISSION, TimeUnit.NANOSECONDS);
+        classDefinition = metrics.getTime(WeaveMetrics.Phase.CLASS_DEFINITION, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package syringe.javassist;
+
+import javassist.*;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+import syringe.callbacks.method.ExceptionThrownCallback;
+import syringe.callbacks.method.MethodInvocationCallback;
+import syringe.callbacks.method.MethodReturnCallback;
+import syringe.callbacks.method.PrimitiveMethodInvocationCallback;
+import syringe.callbacks.method.PrimitiveMethodReturnCallback;
+import syringe.util.CallbackCollector;
+import syringe.util.ClassName;
+import syringe.util.InstrumentationSwitch;
+import syringe.util.InstrumentationSwitches;
+import syringe.util.MethodCallbacks;
+import syringe.util.PrimitiveSpecialization;
+import syringe.util.SyntheticNames;
+
+import java.lang.invoke.MethodHandle;
+import java.util.*;
+
+/**
+ * Generates a final class which fans the invocation, return and exceptions of woven methods out to an ordered set of
+ * callbacks.
+ * Woven methods make a single static call into it, so their size does not depend on the number of registered
+ * visitors. The dispatcher has one static method per (erased) method shape it is called with, and holds each callback
+ * in its own static final field.
+ * <p>
+ * Every dispatch is guarded by the global {@link InstrumentationSwitch} and each callback by the switch of the visitor
+ * which provided it. A switch is read through its guard handle held in a static final field, which the JIT folds into
+ * a constant, so a disabled dispatch costs nothing once the woven method is compiled.
+ */
+final class CompositeDispatcher {
+
+    private static final String COMMON_PARAMS = "syringe.info.ClassInfo clazz, syringe.info.MethodInfo method, "
+            + "java.lang.Object instance";
+    private static final String COMMON_ARGS = "clazz, method, instance";
+    private static final Map<String, String> wrappers = new HashMap<>();
+
+    static {
+        wrappers.put("boolean", "java.lang.Boolean");
+        wrappers.put("char", "java.lang.Character");
+        wrappers.put("byte", "java.lang.Byte");
+        wrappers.put("short", "java.lang.Short");
+        wrappers.put("int", "java.lang.Integer");
+        wrappers.put("float", "java.lang.Float");
+        wrappers.put("long", "java.lang.Long");
+        wrappers.put("double", "java.lang.Double");
+    }
+
+    private final CtClass dispatcher;
+    private final SyntheticNames names;
+    private final Registrations registrations;
+    private final List<Object> invocationCallbacks = new ArrayList<>();
+    private final List<String> invocationFields = new ArrayList<>();
+    private final List<Object> returnCallbacks = new ArrayList<>();
+    private final List<String> returnFields = new ArrayList<>();
+    private final List<String> exceptionFields = new ArrayList<>();
+    private final Map<InstrumentationSwitch, String> guards = new IdentityHashMap<>();
+    private final List<String> invocationGuards = new ArrayList<>();
+    private final List<String> returnGuards = new ArrayList<>();
+    private final List<String> exceptionGuards = new ArrayList<>();
+    private final String globalGuard;
+    private final Set<String> invocationShapes = new HashSet<>();
+    private final Set<String> returnShapes = new HashSet<>();
+    private final Set<String> exceptionShapes = new HashSet<>();
+
+    /**
+     * @param name The name of the dispatcher class.
+     * @param names The names of the members of the dispatcher, in the namespace of the woven class.
+     * @param cc The collector the callbacks were selected from.
+     * @param registrations Where the values of the fields of the dispatcher are put.
+     */
+    CompositeDispatcher(ClassPool cp, String name, SyntheticNames names, CallbackCollector cc, MethodCallbacks callbacks,
+                        InstrumentationSwitches switches, Registrations registrations) {
+        this.dispatcher = cp.makeClass(name);
+        this.names = names;
+        this.registrations = registrations;
+        dispatcher.setModifiers(Modifier.PUBLIC | Modifier.FINAL);
+        this.globalGuard = addGuard(cp, switches.global());
+        for (MethodInvocationCallback mic : callbacks.getInvocationCallbacks()) {
+            invocationCallbacks.add(mic);
+            invocationGuards.add(addGuard(cp, switches.forVisitor(cc.getVisitor(mic))));
+            invocationFields.add(addCallback(cp, mic instanceof PrimitiveMethodInvocationCallback ?
+                    PrimitiveMethodInvocationCallback.class : MethodInvocationCallback.class, mic));
+        }
+        for (MethodReturnCallback mrc : callbacks.getReturnCallbacks()) {
+            returnCallbacks.add(mrc);
+            returnGuards.add(addGuard(cp, switches.forVisitor(cc.getVisitor(mrc))));
+            returnFields.add(addCallback(cp, mrc instanceof PrimitiveMethodReturnCallback ?
+                    PrimitiveMethodReturnCallback.class : MethodReturnCallback.class, mrc));
+        }
+        for (ExceptionThrownCallback etc : callbacks.getExceptionThrownCallbacks()) {
+            exceptionGuards.add(addGuard(cp, switches.forVisitor(cc.getVisitor(etc))));
+            exceptionFields.add(addCallback(cp, ExceptionThrownCallback.class, etc));
+        }
+    }
+
+    private String addCallback(ClassPool cp, Class<?> callbackType, Object callback) {
+        String name = names.next("Callback");
+        String key = registrations.put(names.key(name), callback);
+        try {
+            CtField f = new CtField(cp.get(callbackType.getName()), name, dispatcher);
+            f.setModifiers(Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL);
+            dispatcher.addField(f, JavassistSyringe.fromRepository(f, key));
+        } catch (CannotCompileException | NotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        return name;
+    }
+
+    /**
+     * Adds a static method reading the given switch, as {@code guard()} calling {@code invokeExact} on the switch's
+     * guard handle. It is assembled directly since the compiler does not support signature polymorphic calls.
+     *
+     * @return The name of the method.
+     */
+    private String addGuard(ClassPool cp, InstrumentationSwitch instrumentationSwitch) {
+        if (guards.containsKey(instrumentationSwitch))
+            return guards.get(instrumentationSwitch);
+        String name = names.next("Guard");
+        String key = registrations.put(names.key(name), instrumentationSwitch.getGuard());
+        try {
+            CtField f = new CtField(cp.get(MethodHandle.class.getName()), name, dispatcher);
+            f.setModifiers(Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL);
+            dispatcher.addField(f, JavassistSyringe.fromRepository(f, key));
+
+            ConstPool constPool = dispatcher.getClassFile().getConstPool();
+            Bytecode code = new Bytecode(constPool, 1, 0);
+            code.addGetstatic(dispatcher.getName(), name, "Ljava/lang/invoke/MethodHandle;");
+            code.addInvokevirtual("java.lang.invoke.MethodHandle", "invokeExact", "()Z");
+            code.addOpcode(Opcode.IRETURN);
+            MethodInfo guard = new MethodInfo(constPool, name, "()Z");
+            guard.setAccessFlags(AccessFlag.PRIVATE | AccessFlag.STATIC);
+            guard.setCodeAttribute(code.toCodeAttribute());
+            dispatcher.addMethod(CtMethod.make(guard, dispatcher));
+        } catch (CannotCompileException | NotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        guards.put(instrumentationSwitch, name);
+        return name;
+    }
+
+    CtClass getCtClass() {
+        return dispatcher;
+    }
+
+    String getName() {
+        return dispatcher.getName();
+    }
+
+    boolean hasInvocationCallbacks() {
+        return !invocationCallbacks.isEmpty();
+    }
+
+    boolean hasReturnCallbacks() {
+        return !returnCallbacks.isEmpty();
+    }
+
+    boolean hasExceptionCallbacks() {
+        return !exceptionFields.isEmpty();
+    }
+
+    private static String erase(CtClass type) {
+        return type.isPrimitive() ? type.getName() : "java.lang.Object";
+    }
+
+    private static List<String> erasedParameters(CtMethod m) {
+        List<String> params = new ArrayList<>();
+        try {
+            for (CtClass pt : m.getParameterTypes()) {
+                params.add(erase(pt));
+            }
+        } catch (NotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        return params;
+    }
+
+    private static String declareParameters(List<String> params) {
+        StringBuilder sb = new StringBuilder(COMMON_PARAMS);
+        for (int i = 0; i < params.size(); i++) {
+            sb.append(", ").append(params.get(i)).append(" p").append(i);
+        }
+        return sb.toString();
+    }
+
+    private static String passParameters(int count) {
+        StringBuilder sb = new StringBuilder(COMMON_ARGS);
+        for (int i = 0; i < count; i++) {
+            sb.append(", p").append(i);
+        }
+        return sb.toString();
+    }
+
+    private static String box(String type, String expression) {
+        return wrappers.containsKey(type) ? wrappers.get(type) + ".valueOf(" + expression + ")" : expression;
+    }
+
+    private static String unbox(String type, String expression) {
+        return wrappers.containsKey(type) ?
+                "((" + wrappers.get(type) + ") " + expression + ")." + type + "Value()" : expression;
+    }
+
+    private static String arguments(List<String> params) {
+        if (params.isEmpty())
+            return "syringe.util.Arguments args = syringe.util.Arguments.empty();\n";
+        StringJoiner sj = new StringJoiner(", ", "syringe.util.Arguments args = new syringe.util.Arguments("
+                + "new java.lang.Object[] {", "});\n");
+        for (int i = 0; i < params.size(); i++) {
+            sj.add(box(params.get(i), "p" + i));
+        }
+        return sj.toString();
+    }
+
+    private static List<ClassName> classNames(List<String> params) {
+        List<ClassName> names = new ArrayList<>();
+        for (String param : params) {
+            names.add(ClassName.of(param));
+        }
+        return names;
+    }
+
+    private void addMethod(String source) {
+        try {
+            dispatcher.addMethod(CtNewMethod.make(source, dispatcher));
+        } catch (CannotCompileException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Makes sure the dispatcher can be invoked from the start of the given method, as {@code invoke(clazz, method,
+     * instance, $1, $2, ...)}.
+     */
+    void addInvocation(CtMethod m) {
+        List<String> params = erasedParameters(m);
+        String declaration = declareParameters(params);
+        if (invocationShapes.add(declaration)) {
+            boolean specializable = PrimitiveSpecialization.isInvocationSpecializable(classNames(params));
+            StringBuilder body = new StringBuilder("public static void invoke(" + declaration + ") {\n");
+            body.append("if (!").append(globalGuard).append("()) return;\n");
+            if (!specializable || !invocationCallbacks.stream().allMatch(PrimitiveMethodInvocationCallback.class::isInstance))
+                body.append(arguments(params));
+            for (int i = 0; i < invocationCallbacks.size(); i++) {
+                body.append("if (").append(invocationGuards.get(i)).append("()) ");
+                if (specializable && invocationCallbacks.get(i) instanceof PrimitiveMethodInvocationCallback) {
+                    body.append(invocationFields.get(i)).append(".call(").append(passParameters(params.size()))
+                            .append(");\n");
+                } else {
+                    body.append(invocationFields.get(i)).append(".call(" + COMMON_ARGS + ", args);\n");
+                }
+            }
+            addMethod(body.append("}").toString());
+        }
+    }
+
+    /**
+     * Makes sure the dispatcher can be invoked before the given method returns, as {@code ret(clazz, method, instance,
+     * $1, $2, ..., $_)}, or without {@code $_} if the method is void.
+     */
+    void addReturn(CtMethod m) {
+        List<String> params = erasedParameters(m);
+        String returnType;
+        try {
+            returnType = erase(m.getReturnType());
+        } catch (NotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        boolean isVoid = returnType.equals("void");
+        String declaration = declareParameters(params) + (isVoid ? "" : ", " + returnType + " returned");
+        if (returnShapes.add(returnType + " " + declaration)) {
+            boolean specializable = PrimitiveSpecialization.isReturnSpecializable(classNames(params),
+                    ClassName.of(returnType));
+            StringBuilder body = new StringBuilder("public static " + returnType + " ret(" + declaration + ") {\n");
+            body.append("if (!").append(globalGuard).append("()) ").append(isVoid ? "return;\n" : "return returned;\n");
+            if (!specializable || !returnCallbacks.stream().allMatch(PrimitiveMethodReturnCallback.class::isInstance))
+                body.append(arguments(params));
+            for (int i = 0; i < returnCallbacks.size(); i++) {
+                String field = returnFields.get(i);
+                body.append("if (").append(returnGuards.get(i)).append("()) ");
+                if (specializable && returnCallbacks.get(i) instanceof PrimitiveMethodReturnCallback) {
+                    body.append("returned = ").append(field).append(".call(").append(passParameters(params.size()))
+                            .append(", returned);\n");
+                } else if (isVoid) {
+                    body.append(field).append(".call(" + COMMON_ARGS + ", args, null);\n");
+                } else if (wrappers.containsKey(returnType)) { //Null keeps the original return value
+                    body.append("{\njava.lang.Object result = ").append(field).append(".call(" + COMMON_ARGS
+                            + ", args, ").append(box(returnType, "returned")).append(");\n");
+                    body.append("if (result != null) returned = ").append(unbox(returnType, "result"))
+                            .append(";\n}\n");
+                } else {
+                    body.append("returned = ").append(unbox(returnType, field + ".call(" + COMMON_ARGS + ", args, "
+                            + box(returnType, "returned") + ")")).append(";\n");
+                }
+            }
+            body.append(isVoid ? "}" : "return returned;\n}");
+            addMethod(body.toString());
+        }
+    }
+
+    /**
+     * Makes sure the dispatcher can be invoked from a handler of any exception thrown out of the given method, as
+     * {@code <name>(clazz, method, $e)}. Every enabled callback is handed the exception, and the value returned by the
+     * last one replaces it. If none is enabled, the exception is rethrown.
+     *
+     * @return The name of the method to invoke, which depends on the return type as the parameters do not.
+     */
+    String addException(CtMethod m) {
+        String returnType;
+        try {
+            returnType = erase(m.getReturnType());
+        } catch (NotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        String simpleName = returnType.substring(returnType.lastIndexOf('.') + 1);
+        String name = "thrown" + Character.toUpperCase(simpleName.charAt(0)) + simpleName.substring(1);
+        if (exceptionShapes.add(returnType)) {
+            StringBuilder body = new StringBuilder("public static " + returnType + " " + name
+                    + "(syringe.info.ClassInfo clazz, syringe.info.MethodInfo method, java.lang.Throwable t) "
+                    + "throws java.lang.Throwable {\n");
+            body.append("java.lang.Object result = null;\n");
+            body.append("boolean handled = false;\n");
+            body.append("if (").append(globalGuard).append("()) {\n");
+            for (int i = 0; i < exceptionFields.size(); i++) {
+                body.append("if (").append(exceptionGuards.get(i)).append("()) {\n");
+                body.append("result = ").append(exceptionFields.get(i)).append(".exceptionThrown(clazz, method, t);\n");
+                body.append("handled = true;\n");
+                body.append("}\n");
+            }
+            body.append("}\n");
+            body.append("if (!handled) throw t;\n");
+            body.append(returnType.equals("void") ? "}" : "return " + unbox(returnType, "result") + ";\n}");
+            addMethod(body.toString());
+        }
+        return name;
+    }
+}
@@ -19,46 +19,78 @@ package syringe.javassist;
 
 import javassist.*;
 import javassist.bytecode.AccessFlag;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.AttributeInfo;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
 import javassist.bytecode.Descriptor;
+import javassist.bytecode.Opcode;
 import syringe.Syringe;
+import syringe.access.AccessorTable;
 import syringe.callbacks.clazz.ClassInitializerCallback;
 import syringe.callbacks.clazz.FieldDefinitionCallback;
 import syringe.callbacks.clazz.MethodDefinitionCallback;
-import syringe.callbacks.method.ExceptionThrownCallback;
-import syringe.callbacks.method.MethodInvocationCallback;
-import syringe.callbacks.method.MethodReturnCallback;
 import syringe.info.*;
 import syringe.javassist.util.InitializerRepository;
 import syringe.javassist.util.SyringeHelper;
 import syringe.javassist.util.TemplatingEngine;
 import syringe.javassist.util.ThrowingFunction;
 import syringe.util.CallbackCollector;
+import syringe.util.ClassFiles;
+import syringe.util.ClassHeader;
 import syringe.util.ClassName;
+import syringe.util.ClassWeave;
+import syringe.util.InstrumentationSwitch;
+import syringe.util.InstrumentationSwitches;
 import syringe.util.Lazy;
-import syringe.util.RandomNameGenerator;
+import syringe.util.MethodCallbacks;
+import syringe.util.RegistryRecipes;
+import syringe.util.SyntheticNames;
+import syringe.util.WeaveCache;
+import syringe.util.WeaveMetrics;
+import syringe.util.WeavingPolicy;
 import syringe.visitor.ClassVisitor;
 import syringe.visitor.MethodVisitor;
 
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class JavassistSyringe implements Syringe {
 
-    private static final String stackBuilder = readResource("StackBuilder.java");
-    private static final String fieldWrapper = readResource("FieldWrapper.java");
-    private static final String methodWrapper = readResource("MethodWrapper.java");
+    private static final String selfInfoResolution = readResource("SelfInfoResolution.java");
+    private static final String accessorsResolution = readResource("AccessorsResolution.java");
+    private static final String classInitializerCall = readResource("ClassInitializerCall.java");
     private static final String methodCallAndReturn = readResource("MethodCallAndReturn.java");
     private static final String methodCall = readResource("MethodCall.java");
     private static final String methodBeforeInsertion = readResource("MethodBeforeInsertion.java");
     private static final String methodAfterInsertion = readResource("MethodAfterInsertion.java");
+    private static final String methodInfoResolution = readResource("MethodInfoResolution.java");
+    private static final String voidMethodAfterInsertion = readResource("VoidMethodAfterInsertion.java");
     private static final String catchHandler = readResource("CatchHandler.java");
+    private static final String voidCatchHandler = readResource("VoidCatchHandler.java");
 
-    private final Set<ClassVisitor> classVisitors = new HashSet<>();
-    private final Set<MethodVisitor> methodVisitors = new HashSet<>();
+    private final Set<ClassVisitor> classVisitors = new LinkedHashSet<>();
+    private final Set<MethodVisitor> methodVisitors = new LinkedHashSet<>();
+    private final InstrumentationSwitches switches = new InstrumentationSwitches();
+    private final WeaveMetrics metrics = new WeaveMetrics();
+    private volatile WeavingPolicy policy = new WeavingPolicy();
+    private volatile WeaveCache cache;
+    private volatile String cacheVersion = "";
+    private final Set<Path> classpath = new LinkedHashSet<>();
 
     private static final String readResource(String address) {
         InputStream stream = JavassistSyringe.class.getResourceAsStream("templates/" + address);
@@ -94,8 +126,65 @@ public class JavassistSyringe implements Syringe {
         }
     }
 
-    private Iterable<CtClass> scanClasses(ClassPool cp) {
-        throw new RuntimeException("Runtime scanning not currently implemented!"); //TODO
+    /**
+     * @return An initializer taking the value of the field from the {@link InitializerRepository}, unboxed for a
+     * primitive field.
+     */
+    static CtField.Initializer fromRepository(CtField field, String key) throws NotFoundException {
+        String value = InitializerRepository.class.getName() + ".getAndRemove(\"" + key + "\")";
+        CtClass type = field.getType();
+        if (type.isPrimitive()) {
+            CtPrimitiveType primitive = (CtPrimitiveType) type;
+            return CtField.Initializer.byExpr("((" + primitive.getWrapperName() + ") " + value + ")."
+                    + primitive.getGetMethodName() + "()");
+        }
+        return CtField.Initializer.byExpr("(" + type.getName() + ") " + value);
+    }
+
+    /**
+     * @return The description of a class of the pool as it currently is, whose members cannot be accessed.
+     */
+    private static ClassInfo classInfo(CtClass c) {
+        return SyringeHelper.buildClass(c, (cm) -> SyringeHelper.buildMethod(cm, (args) -> {
+            throw new RuntimeException("Method is not accessible form this context!");
+        }).get(), (cf) -> SyringeHelper.buildField(cf, () -> {
+            throw new RuntimeException("Field is not accessible from this context!");
+        }).get()).get();
+    }
+
+    /**
+     * @return The classes of the classpath which any visitor applies to. The others are told apart from the header of
+     * their class file, and never make it into the {@link ClassPool}.
+     */
+    private Map<CtClass, ClassWeave> scanClasses(ClassPool cp, CallbackCollector cc) {
+        Map<CtClass, ClassWeave> candidates = new LinkedHashMap<>();
+        Set<String> seen = new HashSet<>();
+        for (Path root : classpath) {
+            try {
+                cp.appendClassPath(root.toString()); //To resolve the types the candidates refer to
+            } catch (NotFoundException e) {
+                throw new RuntimeException(e);
+            }
+            ClassFiles.read(root, (name, classfile) -> {
+                if (!seen.add(name))
+                    return;
+                long start = System.nanoTime();
+                ClassHeader header = ClassHeader.read(classfile);
+                if (header == null || !cc.appliesTo(header.getName(), header.getModifiers(),
+                        header.getAnnotationTypes())) {
+                    metrics.skipped();
+                    return;
+                }
+                try {
+                    ClassWeave record = new ClassWeave(name, classfile.length, start);
+                    candidates.put(cp.makeClass(new ByteArrayInputStream(classfile)), record);
+                    record.lap(WeaveMetrics.Phase.PARSING);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        return candidates;
     }
 
     private static String uniqueSignature(MethodInfo mi) {
@@ -111,7 +200,7 @@ public class JavassistSyringe implements Syringe {
         StringBuilder sb = new StringBuilder(cm.getName()).append('(');
         try {
             for (CtClass pt : cm.getParameterTypes()) {
-                sb.append(new ClassName(pt.getName()).getAsInternalTypeName());
+                sb.append(ClassName.of(pt.getName()).getAsInternalTypeName());
             }
         } catch (NotFoundException e) {
             throw new RuntimeException(e);
@@ -120,14 +209,86 @@ public class JavassistSyringe implements Syringe {
         return sb.toString();
     }
 
-    private void hook(CallbackCollector cc, ClassPool cp, CtClass c) {
-        Function<CtClass, ClassInfo> updatingClassInfoGenerator = (ctClass) -> {
-            return SyringeHelper.buildClass(ctClass, (cm) -> SyringeHelper.buildMethod(cm, (args) -> {
-                throw new RuntimeException("Method is not accessible form this context!");
-            }).get(), (cf) -> SyringeHelper.buildField(cf, () -> {
-                throw new RuntimeException("Field is not accessible from this context!");
-            }).get()).get();
-        };
+    private static boolean isWoven(CtMethod m) {
+        return (((AccessFlag.SYNTHETIC | AccessFlag.BRIDGE) & m.getModifiers()) == 0) && !m.getName().contains("<");
+    }
+
+    private static Set<ClassName> annotationTypes(@Nullable AttributeInfo visible, @Nullable AttributeInfo invisible) {
+        Set<ClassName> types = new HashSet<>();
+        for (AttributeInfo attribute : new AttributeInfo[]{visible, invisible}) {
+            if (attribute instanceof AnnotationsAttribute) {
+                for (javassist.bytecode.annotation.Annotation a : ((AnnotationsAttribute) attribute).getAnnotations()) {
+                    types.add(ClassName.of(a.getTypeName()));
+                }
+            }
+        }
+        return types;
+    }
+
+    /**
+     * @return The callbacks to weave into each method of the class, omitting methods which are left untouched.
+     */
+    private Map<CtMethod, MethodCallbacks> methodCallbacks(CallbackCollector cc, CtClass c) {
+        Map<CtMethod, MethodCallbacks> callbacks = new LinkedHashMap<>();
+        ClassName owner = ClassName.of(c.getName());
+        for (CtMethod m : c.getDeclaredMethods()) {
+            if (!isWoven(m))
+                continue;
+            javassist.bytecode.MethodInfo info = m.getMethodInfo();
+            MethodCallbacks mc = cc.forMethod(owner, info.getName(), info.getDescriptor(), info.getAccessFlags(),
+                    annotationTypes(info.getAttribute(AnnotationsAttribute.visibleTag),
+                            info.getAttribute(AnnotationsAttribute.invisibleTag)));
+            if (!mc.isEmpty())
+                mc = applyPolicy(owner, info, mc);
+            if (!mc.isEmpty())
+                callbacks.put(m, mc);
+        }
+        return callbacks;
+    }
+
+    /**
+     * @return The callbacks the {@link WeavingPolicy} allows to be woven into the method, given its size and shape.
+     */
+    private MethodCallbacks applyPolicy(ClassName owner, javassist.bytecode.MethodInfo info, MethodCallbacks callbacks) {
+        CodeAttribute code = info.getCodeAttribute();
+        if (code == null)
+            return callbacks;
+        int returnSites = 0;
+        try {
+            CodeIterator iterator = code.iterator();
+            while (iterator.hasNext()) {
+                int opcode = iterator.byteAt(iterator.next());
+                if (opcode >= Opcode.IRETURN && opcode <= Opcode.RETURN)
+                    returnSites++;
+            }
+        } catch (BadBytecode e) {
+            throw new RuntimeException(e);
+        }
+        switch (policy.decide(owner, info.getName(), info.getDescriptor(), code.getCodeLength(), returnSites,
+                callbacks)) {
+            case SKIP:
+                return new MethodCallbacks(Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+            case ENTRY_ONLY:
+                return callbacks.entryOnly();
+            default:
+                return callbacks;
+        }
+    }
+
+    /**
+     * @return The classes generated to support the woven class, which must be written (or loaded) before it.
+     */
+    private List<CtClass> hook(CallbackCollector allCallbacks, ClassPool cp, CtClass c, ClassWeave record,
+                               String namespace, Registrations registrations) {
+        javassist.bytecode.ClassFile classFile = c.getClassFile();
+        long start = System.nanoTime();
+        CallbackCollector cc = allCallbacks.forClass(ClassName.of(c.getName()), classFile.getAccessFlags(),
+                annotationTypes(classFile.getAttribute(AnnotationsAttribute.visibleTag),
+                        classFile.getAttribute(AnnotationsAttribute.invisibleTag)));
+        record.add(WeaveMetrics.Phase.CALLBACK_COLLECTION, System.nanoTime() - start);
+        SyntheticNames names = new SyntheticNames(c.getName(), namespace);
+
+        Function<CtClass, ClassInfo> updatingClassInfoGenerator = JavassistSyringe::classInfo;
 
         //FieldDefinitionCallback
         List<FieldInfo> fields = new ArrayList<>();
@@ -146,16 +307,13 @@ public class JavassistSyringe implements Syringe {
                     CtField field = new CtField(ctFromName(cp, f.getType()), f.getName(), c);
                     field.setModifiers(f.getModifiers());
                     //TODO: annotations?
-                    String loc = RandomNameGenerator.generate() + field.getName();
-                    c.addField(field, CtField.Initializer.byCall(
-                            cp.getCtClass(new ClassName(InitializerRepository.class).getAsInternalTypeName()),
-                            "getAndRemove",
-                            new String[]{loc}));
+                    String loc;
                     try {
-                        InitializerRepository.put(loc, f.getAccessor().get());
+                        loc = registrations.put(names.key(field.getName()), f.getAccessor().get());
                     } catch (Throwable t) {
-                        InitializerRepository.put(loc, null); //TODO: handle primitive defaults
+                        loc = registrations.put(names.key(field.getName()), null); //TODO: handle primitive defaults
                     }
+                    c.addField(field, fromRepository(field, loc));
                 } catch (CannotCompileException | NotFoundException e) {
                     throw new RuntimeException(e);
                 }
@@ -178,13 +336,13 @@ public class JavassistSyringe implements Syringe {
         for (MethodDefinitionCallback mdc : cc.getMethodDefinitionCallbacks()) {
             List<MethodInfo> newMethods = mdc.methods(updatingClassInfoGenerator.apply(c), methods);
             for (MethodInfo mi : newMethods) {
-                String name = RandomNameGenerator.generate(Function.class) + "bridge";
+                String name = names.next("bridge");
                 CtField bridge;
                 try {
-                    bridge = new CtField(cp.getCtClass(new ClassName(ThrowingFunction.class).getAsInternalTypeName()), name, c);
+                    bridge = new CtField(cp.get(ThrowingFunction.class.getName()), name, c);
                     bridge.setModifiers(AccessFlag.SYNTHETIC | AccessFlag.PROTECTED | AccessFlag.STATIC);
-                    c.addField(bridge, CtField.Initializer.byCall(cp.getCtClass(new ClassName(InitializerRepository.class).getAsInternalTypeName()), "getAndRemove", new String[]{name}));
-                    InitializerRepository.put(name, (ThrowingFunction<Object[], Object>) objects -> mi.getAccessor().invoke(objects));
+                    String key = registrations.put(names.key(name), (ThrowingFunction<Object[], Object>) objects -> mi.getAccessor().invoke(objects));
+                    c.addField(bridge, fromRepository(bridge, key));
                 } catch (CannotCompileException | NotFoundException e) {
                     throw new RuntimeException(e);
                 } //TODO: more extensive new method support?
@@ -192,14 +350,14 @@ public class JavassistSyringe implements Syringe {
                 for (int i = 0; i < params.length; i++) {
                     params[i] = ctFromName(cp, mi.getParams().get(i).getType());
                 }
-                CtClass[] throwTypes = new CtClass[] {ctFromName(cp, new ClassName(Throwable.class))};
+                CtClass[] throwTypes = new CtClass[] {ctFromName(cp, ClassName.of(Throwable.class))};
                 try {
                     CtMethod ctMethod = CtNewMethod.make(mi.getModifiers(),
                             ctFromName(cp, mi.getReturnType()),
                             mi.getName(),
                             params,
                             throwTypes,
-                            mi.getReturnType().equals(new ClassName("void")) ? "{return;}" : "return null;", //FIXME: better default value support
+                            mi.getReturnType().equals(ClassName.of("void")) ? "{return;}" : "return null;", //FIXME: better default value support
                             c);
                     c.addMethod(ctMethod);
                 } catch (CannotCompileException e) {
@@ -210,6 +368,7 @@ public class JavassistSyringe implements Syringe {
         }
 
         //ClassDefinitionCallback
+        start = System.nanoTime();
         cc.getClassDefinitionCallbacks().forEach(cdc -> cdc.construction(updatingClassInfoGenerator.apply(c)));
 
         //ClassAnnotationCallback
@@ -217,6 +376,7 @@ public class JavassistSyringe implements Syringe {
             ClassInfo clazz = updatingClassInfoGenerator.apply(c);
             cac.annotations(clazz, clazz.getAnnotations().stream().map(Lazy::get).collect(Collectors.toList()));
         });
+        record.add(WeaveMetrics.Phase.CLASS_DEFINITION_CALLBACKS, System.nanoTime() - start);
 
         //TODO: Add constructor/initializer if it doesn't exist
         //ClassInitializerCallback
@@ -228,117 +388,96 @@ public class JavassistSyringe implements Syringe {
                 throw new RuntimeException(e);
             }
         }
-        StringBuilder staticFieldInit = new StringBuilder();
-        StringBuilder instanceFieldInit = new StringBuilder();
-        for (FieldInfo fi : fields) {
-            if (Modifier.isStatic(fi.getModifiers())) {
-                staticFieldInit.append(TemplatingEngine.template(fieldWrapper, Map.of("field_name", fi.getName()))).append("\n");
-            } else {
-                instanceFieldInit.append(TemplatingEngine.template(fieldWrapper, Map.of("field_name", fi.getName()))).append("\n");
-            }
-        }
-        StringBuilder staticMethodInit = new StringBuilder();
-        StringBuilder instanceMethodInit = new StringBuilder();
-        for (MethodInfo mi : methods) {
-            List<String> argList = new ArrayList<>();
-            List<ParameterInfo> params = mi.getParams();
-            for (int i = 0; i < params.size(); i++) {
-                argList.add("args[" + i + "]");
-            }
-            String invocation = c.getSimpleName() + ".";
-            if (Modifier.isStatic(mi.getModifiers())) {
-                staticMethodInit.append(TemplatingEngine.template(methodWrapper,
-                        Map.of("method_name", uniqueSignature(mi),
-                                "invocation_statement", invocation
-                                        + mi.getName()
-                                        + "("
-                                        + String.join(",", argList)
-                                        + ");"))).append("\n");
-            } else {
-                invocation += "this.";
-                instanceMethodInit.append(TemplatingEngine.template(methodWrapper,
-                        Map.of("method_name", uniqueSignature(mi),
-                                "invocation_statement", invocation
-                                        + mi.getName()
-                                        + "("
-                                        + String.join(",", argList)
-                                        + ");"))).append("\n");
-            }
-        }
-
-        String selfInfoHolder = RandomNameGenerator.generate() + "SelfInfo";
+        String selfInfoHolder = names.next("SelfInfo");
         try {
-            CtField f = new CtField(ctFromName(cp, new ClassName(ClassInfo.class)), selfInfoHolder, c);
+            CtField f = new CtField(ctFromName(cp, ClassName.of(ClassInfo.class)), selfInfoHolder, c);
             f.setModifiers(Modifier.STATIC);
             c.addField(f);
         } catch (CannotCompileException e) {
             throw new RuntimeException(e);
         }
 
-        String callbackHolder = RandomNameGenerator.generate() + "Holder";
-        InitializerRepository.put(callbackHolder, cc.getClassInitializerCallbacks().toArray(new ClassInitializerCallback[0]));
-        try {
-            CtField f = new CtField(ctFromName(cp, new ClassName(ClassInitializerCallback[].class)), callbackHolder, c);
-            f.setModifiers(Modifier.STATIC);
-            c.addField(f, CtField.Initializer.byCall(cp.getCtClass(new ClassName(InitializerRepository.class).getAsInternalTypeName()), "getAndRemove", new String[]{callbackHolder}));
-        } catch (CannotCompileException | NotFoundException e) {
-            throw new RuntimeException(e);
-        }
-
-        String stmt = TemplatingEngine.template(stackBuilder, Map.of("populate_static_field_map", staticFieldInit.toString(),
-                "populate_instance_field_map", instanceFieldInit.toString(),
-                "populate_static_method_map", staticMethodInit.toString(),
-                "populate_instance_method_map", instanceMethodInit.toString(),
-                "is_static_context", "%s",
-                "callbacks_field", callbackHolder,
-                "self_info_field", selfInfoHolder + "_%s",
-                "class_name", c.getSimpleName(),
-                "class_modifiers", Integer.toString(c.getModifiers())));
-        try {
-            clinit.insertAfter(String.format(stmt, "true", "static"), true);
-        } catch (CannotCompileException e) {
-            throw new RuntimeException(e);
-        }
-        for (CtConstructor init : c.getDeclaredConstructors()) {
+        //Each woven method gets a constant MethodInfo, resolved once the ClassInfo is built
+        start = System.nanoTime();
+        Map<CtMethod, MethodCallbacks> methodCallbacks = methodCallbacks(cc, c);
+        record.add(WeaveMetrics.Phase.CALLBACK_COLLECTION, System.nanoTime() - start);
+        methodCallbacks.keySet().forEach(m -> record.methodInstrumented());
+        Map<CtMethod, String> methodInfoHolders = new LinkedHashMap<>();
+        StringBuilder methodInfoInit = new StringBuilder();
+        for (CtMethod m : methodCallbacks.keySet()) {
+            String methodInfoHolder = names.next("MethodInfo");
             try {
-                if (init.callsSuper()) {
-                    init.insertAfter(String.format(stmt, "false", "instance"), true);
-                }
+                CtField f = new CtField(ctFromName(cp, ClassName.of(MethodInfo.class)), methodInfoHolder, c);
+                f.setModifiers(Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL);
+                c.addField(f);
             } catch (CannotCompileException e) {
                 throw new RuntimeException(e);
             }
+            methodInfoHolders.put(m, methodInfoHolder);
+            methodInfoInit.append(TemplatingEngine.template(methodInfoResolution,
+                    Map.of("method_info_field", methodInfoHolder,
+                            "self_info_field", selfInfoHolder,
+                            "method_key", uniqueSignature(m)))).append("\n");
         }
+        StringBuilder classInit = new StringBuilder(TemplatingEngine.template(selfInfoResolution,
+                Map.of("self_info_field", selfInfoHolder,
+                        "resolve_method_infos", methodInfoInit.toString())));
+
+        //The class initializer callbacks get accessors to the members, in the static context then for each instance
+        if (!cc.getClassInitializerCallbacks().isEmpty()) {
+            String callbackHolder = names.next("Holder");
+            String callbackKey = registrations.put(names.key(callbackHolder),
+                    cc.getClassInitializerCallbacks().toArray(new ClassInitializerCallback[0]));
+            //The global switch first, then the switch of each class initializer callback's visitor
+            String switchHolder = names.next("Switches");
+            List<InstrumentationSwitch> classInitializerSwitches = new ArrayList<>();
+            classInitializerSwitches.add(switches.global());
+            cc.getClassInitializerCallbacks().forEach(cic ->
+                    classInitializerSwitches.add(switches.forVisitor(cc.getVisitor(cic))));
+            String switchKey = registrations.put(names.key(switchHolder),
+                    classInitializerSwitches.toArray(new InstrumentationSwitch[0]));
+            String accessorsHolder = names.next("Accessors");
+            try {
+                CtField f = new CtField(ctFromName(cp, ClassName.of(ClassInitializerCallback[].class)),
+                        callbackHolder, c);
+                f.setModifiers(Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL);
+                c.addField(f, fromRepository(f, callbackKey));
+                f = new CtField(ctFromName(cp, ClassName.of(InstrumentationSwitch[].class)), switchHolder, c);
+                f.setModifiers(Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL);
+                c.addField(f, fromRepository(f, switchKey));
+                f = new CtField(ctFromName(cp, ClassName.of(AccessorTable.class)), accessorsHolder, c);
+                f.setModifiers(Modifier.PRIVATE | Modifier.STATIC);
+                c.addField(f);
+            } catch (CannotCompileException | NotFoundException e) {
+                throw new RuntimeException(e);
+            }
 
-        //Method callbacks
-        String exceptionThrownHolder = RandomNameGenerator.generate() + "ExceptionThrownHolder";
-        InitializerRepository.put(exceptionThrownHolder, cc.getExceptionThrownCallbacks().toArray(new ExceptionThrownCallback[0]));
-        try {
-            CtField f = new CtField(ctFromName(cp, new ClassName(ExceptionThrownCallback[].class)), exceptionThrownHolder, c);
-            f.setModifiers(Modifier.STATIC);
-            c.addField(f, CtField.Initializer.byCall(cp.getCtClass(new ClassName(InitializerRepository.class).getAsInternalTypeName()), "getAndRemove", new String[]{exceptionThrownHolder}));
-        } catch (CannotCompileException | NotFoundException e) {
-            throw new RuntimeException(e);
+            Map<String, String> classInitArgs = new HashMap<>(Map.of("self_info_field", selfInfoHolder,
+                    "accessors_field", accessorsHolder,
+                    "callbacks_field", callbackHolder,
+                    "switches_field", switchHolder));
+            classInitArgs.put("instance", "null");
+            classInit.append(TemplatingEngine.template(accessorsResolution, classInitArgs)).append("\n");
+            classInit.append(TemplatingEngine.template(classInitializerCall, classInitArgs)).append("\n");
+            classInitArgs.put("instance", "this");
+            String instanceInit = TemplatingEngine.template(classInitializerCall, classInitArgs);
+            for (CtConstructor init : c.getDeclaredConstructors()) {
+                try {
+                    if (init.callsSuper())
+                        init.insertAfter(instanceInit, true);
+                } catch (CannotCompileException e) {
+                    throw new RuntimeException(e);
+                }
+            }
         }
-
-        String methodInvocationHolder = RandomNameGenerator.generate() + "MethodInvocationHolder";
-        InitializerRepository.put(methodInvocationHolder, cc.getMethodInvocationCallbacks().toArray(new MethodInvocationCallback[0]));
         try {
-            CtField f = new CtField(ctFromName(cp, new ClassName(MethodInvocationCallback[].class)), methodInvocationHolder, c);
-            f.setModifiers(Modifier.STATIC);
-            c.addField(f, CtField.Initializer.byCall(cp.getCtClass(new ClassName(InitializerRepository.class).getAsInternalTypeName()), "getAndRemove", new String[]{methodInvocationHolder}));
-        } catch (CannotCompileException | NotFoundException e) {
+            clinit.insertAfter("{" + classInit + "}", true);
+        } catch (CannotCompileException e) {
             throw new RuntimeException(e);
         }
 
-        String methodReturnHolder = RandomNameGenerator.generate() + "MethodReturnHolder";
-        InitializerRepository.put(methodReturnHolder, cc.getMethodReturnCallbacks().toArray(new MethodReturnCallback[0]));
-        try {
-            CtField f = new CtField(ctFromName(cp, new ClassName(MethodReturnCallback[].class)), methodReturnHolder, c);
-            f.setModifiers(Modifier.STATIC);
-            c.addField(f, CtField.Initializer.byCall(cp.getCtClass(new ClassName(InitializerRepository.class).getAsInternalTypeName()), "getAndRemove", new String[]{methodReturnHolder}));
-        } catch (CannotCompileException | NotFoundException e) {
-            throw new RuntimeException(e);
-        }
+        //Method callbacks, methods woven with the same callbacks share a dispatcher
+        Map<MethodCallbacks, CompositeDispatcher> methodDispatchers = new LinkedHashMap<>();
 
         ClassInfo currSelf = updatingClassInfoGenerator.apply(c);
         currSelf.getMethods().keys().forEach(mk -> {
@@ -349,93 +488,289 @@ public class JavassistSyringe implements Syringe {
             });
         });
 
-        for (CtMethod m : c.getDeclaredMethods()) {
-            if ((((AccessFlag.SYNTHETIC | AccessFlag.BRIDGE) & m.getModifiers()) != 0) || m.getName().contains("<"))
-                continue;
-
-            StringBuilder before = new StringBuilder();
-            for (int i = 0; i < cc.getMethodInvocationCallbacks().size(); i++) {
-                before.append(TemplatingEngine.template(methodBeforeInsertion,
-                        Map.of("self_info_field", selfInfoHolder + "_" + (Modifier.isStatic(m.getModifiers()) ?
-                                        "static" : "instance"),
-                                "callback_field", methodInvocationHolder + "[" + i + "]",
-                                "static_context", Modifier.isStatic(m.getModifiers()) ? "true" : "false",
-                                "method_key", uniqueSignature(m))));
-            }
-            if (before.length() > 0) {
+        for (Map.Entry<CtMethod, MethodCallbacks> entry : methodCallbacks.entrySet()) {
+            CtMethod m = entry.getKey();
+            MethodCallbacks callbacks = entry.getValue();
+            String methodInfoHolder = methodInfoHolders.get(m);
+
+            if (!callbacks.isEmpty()) {
+                CompositeDispatcher methodDispatcher = methodDispatchers.computeIfAbsent(callbacks,
+                        mc -> {
+                            String name = c.getName() + "$SyringeDispatcher"
+                                    + (methodDispatchers.isEmpty() ? "" : methodDispatchers.size());
+                            return new CompositeDispatcher(cp, name, names.forOwner(name), cc, mc, switches,
+                                    registrations);
+                        });
+                boolean isStatic = Modifier.isStatic(m.getModifiers());
+                CtClass returnType;
+                StringBuilder params = new StringBuilder();
                 try {
-                    m.insertBefore(before.toString());
-                } catch (CannotCompileException e) {
+                    for (int i = 1; i <= m.getParameterTypes().length; i++) {
+                        params.append(", $").append(i);
+                    }
+                    returnType = m.getReturnType();
+                } catch (NotFoundException e) {
                     throw new RuntimeException(e);
                 }
-            }
+                boolean isVoid = returnType == CtClass.voidType;
+                Map<String, String> insertionArgs = Map.of("dispatcher", methodDispatcher.getName(),
+                        "self_info_field", selfInfoHolder,
+                        "method_info_field", methodInfoHolder,
+                        "instance", isStatic ? "null" : "this",
+                        "params", params.toString(),
+                        "return_type", returnType.getName());
+
+                //Added first, so the handler does not cover the invocation and return dispatch
+                if (methodDispatcher.hasExceptionCallbacks()) {
+                    Map<String, String> catchArgs = new HashMap<>(insertionArgs);
+                    catchArgs.put("thrown", methodDispatcher.addException(m));
+                    try {
+                        m.addCatch(TemplatingEngine.template(isVoid ? voidCatchHandler : catchHandler, catchArgs),
+                                ctFromName(cp, ClassName.of(Throwable.class)));
+                    } catch (CannotCompileException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
 
-            StringBuilder after = new StringBuilder();
-            for (int i = 0; i < cc.getMethodReturnCallbacks().size(); i++) {
-                after.append(TemplatingEngine.template(methodAfterInsertion,
-                        Map.of("self_info_field", selfInfoHolder + "_" + (Modifier.isStatic(m.getModifiers()) ?
-                                        "static" : "instance"),
-                                "callback_field", methodReturnHolder + "[" + i + "]",
-                                "static_context", Modifier.isStatic(m.getModifiers()) ? "true" : "false",
-                                "method_key", uniqueSignature(m))));
-            }
-            if (after.length() > 0) {
-                after.append("\n{return ($r) $_;}");
-                try {
-                    m.insertAfter(after.toString());
-                } catch (CannotCompileException e) {
-                    throw new RuntimeException(e);
+                if (methodDispatcher.hasInvocationCallbacks()) {
+                    methodDispatcher.addInvocation(m);
+                    try {
+                        m.insertBefore(TemplatingEngine.template(methodBeforeInsertion, insertionArgs));
+                    } catch (CannotCompileException e) {
+                        throw new RuntimeException(e);
+                    }
                 }
-            }
 
-            StringBuilder exception = new StringBuilder();
-            for (int i = 0; i < cc.getMethodInvocationCallbacks().size(); i++) {
-                exception.append(TemplatingEngine.template(catchHandler,
-                        Map.of("self_info_field", selfInfoHolder + "_" + (Modifier.isStatic(m.getModifiers()) ?
-                                        "static" : "instance"),
-                                "callback_field", methodReturnHolder + "[" + i + "]",
-                                "method_key", uniqueSignature(m))));
-            }
-            if (exception.length() > 0) {
-                exception.append("\n{return ($r) $_;}");
-                try {
-                    m.addCatch(exception.toString(), ctFromName(cp, new ClassName(Throwable.class)));
-                } catch (CannotCompileException e) {
-                    throw new RuntimeException(e);
+                if (methodDispatcher.hasReturnCallbacks()) {
+                    methodDispatcher.addReturn(m);
+                    try {
+                        m.insertAfter(TemplatingEngine.template(isVoid ? voidMethodAfterInsertion : methodAfterInsertion,
+                                insertionArgs));
+                    } catch (CannotCompileException e) {
+                        throw new RuntimeException(e);
+                    }
                 }
             }
         }
+
+        List<CtClass> generated = new ArrayList<>();
+        for (CompositeDispatcher methodDispatcher : methodDispatchers.values()) {
+            generated.add(methodDispatcher.getCtClass());
+        }
+        return generated;
     }
 
     @Override
     public void inject() {
         CallbackCollector cc = new CallbackCollector(classVisitors, methodVisitors);
         ClassPool cp = ClassPool.getDefault();
-        for (CtClass clazz : scanClasses(cp)) {
+        for (Map.Entry<CtClass, ClassWeave> candidate : scanClasses(cp, cc).entrySet()) {
+            CtClass clazz = candidate.getKey();
+            ClassWeave record = candidate.getValue();
+            record.resume();
             try {
-                hook(cc, cp, clazz);
-                clazz.writeFile();
-                clazz.detach();
-            } catch (NotFoundException | IOException | CannotCompileException e) {
+                List<CtClass> generated = hook(cc, cp, clazz, record, namespace(clazz), new Registrations());
+                List<byte[]> woven = new ArrayList<>();
+                for (CtClass g : generated) {
+                    woven.add(g.toBytecode());
+                }
+                woven.add(clazz.toBytecode());
+                record.lap(WeaveMetrics.Phase.CODE_EMISSION);
+                generated.add(clazz);
+                int size = 0;
+                for (int i = 0; i < generated.size(); i++) {
+                    write(generated.get(i), woven.get(i));
+                    generated.get(i).detach();
+                    size += woven.get(i).length;
+                }
+                record.lap(WeaveMetrics.Phase.CLASS_DEFINITION);
+                record.setBytesAfter(size);
+                metrics.woven(record);
+            } catch (IOException | CannotCompileException e) {
                 throw new RuntimeException(e);
             }
         }
     }
 
+    /**
+     * @return What decides the outcome of a weave besides the class itself.
+     */
+    private String configuration() {
+        return "javassist;" + policy + ';' + cacheVersion + WeaveCache.fingerprint(classVisitors, methodVisitors);
+    }
+
+    /**
+     * @return The namespace of the keys of a class of the pool, which is not woven yet.
+     */
+    private String namespace(CtClass c) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        c.getClassFile().write(new DataOutputStream(out));
+        return SyntheticNames.namespace(out.toByteArray(), configuration());
+    }
+
+    /**
+     * Writes a class file to the working directory, as {@link CtClass#writeFile()} does.
+     */
+    private static void write(CtClass c, byte[] bytecode) throws IOException {
+        Path file = Paths.get(c.getName().replace('.', File.separatorChar) + ".class");
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        Files.write(file, bytecode);
+    }
+
     @Override
     public <T> Class<? extends T> inject(Class<? extends T> clazz) {
         ClassPool cp = ClassPool.getDefault();
+        long start = System.nanoTime();
         try {
-            CtClass cc = cp.get(clazz.getName());
-            hook(new CallbackCollector(classVisitors, methodVisitors), cp, cc);
-            cc.writeFile();
+            URL url = cp.find(clazz.getName());
+            if (url == null)
+                throw new NotFoundException(clazz.getName());
+            byte[] classfile;
+            try (InputStream in = url.openStream()) {
+                classfile = in.readAllBytes();
+            }
+            ClassWeave record = new ClassWeave(clazz.getName(), classfile.length, start);
+            CtClass cc = cp.makeClass(new ByteArrayInputStream(classfile));
+            record.lap(WeaveMetrics.Phase.PARSING);
+            List<CtClass> generated = hook(new CallbackCollector(classVisitors, methodVisitors), cp, cc, record,
+                    SyntheticNames.namespace(classfile, configuration()), new Registrations());
+            List<byte[]> woven = new ArrayList<>();
+            for (CtClass g : generated) {
+                woven.add(g.toBytecode());
+            }
+            byte[] bytecode = cc.toBytecode();
+            record.lap(WeaveMetrics.Phase.CODE_EMISSION);
+            int size = bytecode.length;
+            for (int i = 0; i < generated.size(); i++) {
+                generated.get(i).toClass();
+                generated.get(i).detach();
+                size += woven.get(i).length;
+            }
+            write(cc, bytecode);
             cc.detach();
-            return (Class<? extends T>) cc.toClass();
+            Class<? extends T> injected = (Class<? extends T>) cc.toClass();
+            record.lap(WeaveMetrics.Phase.CLASS_DEFINITION);
+            record.setBytesAfter(size);
+            metrics.woven(record);
+            return injected;
         } catch (NotFoundException | CannotCompileException | IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Weaves a class file with the visitors added so far, without defining or writing any class. It is woven in a pool
+     * of its own on top of the default one, so classes may be woven concurrently. If a {@link WeaveCache} is set and
+     * holds the outcome, the woven classes are copied from it, and only the values they expect in the
+     * {@link InitializerRepository} are put again. Classes given values which cannot be put again, such as the initial
+     * values of new fields, are not cached.
+     *
+     * @return The woven class and the classes generated for it by binary name, in the order they must be defined.
+     */
+    public Map<String, byte[]> weave(byte[] classfile) {
+        return weave(classfile, new ArrayList<>());
+    }
+
+    /**
+     * Weaves a class file as {@link #weave(byte[])} does, collecting the keys of the values the woven classes pick up
+     * from the {@link InitializerRepository}. Each must be taken out with {@link InitializerRepository#getAndRemove}
+     * if the classes are never initialized, or the values are kept for good.
+     */
+    public Map<String, byte[]> weave(byte[] classfile, Collection<String> keys) {
+        long start = System.nanoTime();
+        WeaveCache cache = this.cache;
+        List<ClassVisitor> cvs = new ArrayList<>(classVisitors);
+        List<MethodVisitor> mvs = new ArrayList<>(methodVisitors);
+        RegistryRecipes recipes = new RegistryRecipes(cvs, mvs, switches);
+        String key = WeaveCache.key(classfile, configuration());
+        if (cache != null) {
+            WeaveCache.checkFingerprints(cvs, mvs);
+            WeaveCache.Entry entry = cache.get(key);
+            if (entry != null && restore(classfile, entry, recipes, keys, start))
+                return entry.getClasses();
+        }
+
+        ClassPool cp = new ClassPool(ClassPool.getDefault());
+        cp.childFirstLookup = true; //Finds the class being woven rather than the default pool's copy
+        Map<String, byte[]> woven = new LinkedHashMap<>();
+        Registrations registrations = new Registrations();
+        try {
+            CtClass cc = cp.makeClass(new ByteArrayInputStream(classfile));
+            ClassWeave record = new ClassWeave(cc.getName(), classfile.length, start);
+            record.lap(WeaveMetrics.Phase.PARSING);
+            for (CtClass generated : hook(new CallbackCollector(cvs, mvs), cp, cc, record, key.substring(0, 16),
+                    registrations)) {
+                woven.put(generated.getName(), generated.toBytecode());
+            }
+            woven.put(cc.getName(), cc.toBytecode());
+            record.lap(WeaveMetrics.Phase.CODE_EMISSION);
+            record(record, woven);
+        } catch (IOException | CannotCompileException e) {
+            throw new RuntimeException(e);
+        }
+
+        keys.addAll(registrations.getValues().keySet());
+        if (cache != null) {
+            byte[] metadata = recipes.describe(registrations.getValues());
+            if (metadata != null)
+                cache.put(key, new WeaveCache.Entry(woven, metadata));
+        }
+        return woven;
+    }
+
+    private void record(ClassWeave record, Map<String, byte[]> classes) {
+        int size = 0;
+        for (byte[] bytecode : classes.values()) {
+            size += bytecode.length;
+        }
+        record.setBytesAfter(size);
+        metrics.woven(record);
+    }
+
+    /**
+     * Puts the values a cached class expects, and runs the callbacks which would have been called while weaving it.
+     *
+     * @param keys Collects the keys the values are put under.
+     * @param start When weaving the class started, from {@link System#nanoTime()}.
+     * @return Whether the cached classes can be used.
+     */
+    private boolean restore(byte[] classfile, WeaveCache.Entry entry, RegistryRecipes recipes, Collection<String> keys,
+                            long start) {
+        ClassPool cp = new ClassPool(ClassPool.getDefault());
+        cp.childFirstLookup = true;
+        CtClass c;
+        try {
+            c = cp.makeClass(new ByteArrayInputStream(classfile));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        ClassWeave record = new ClassWeave(c.getName(), classfile.length, start);
+        record.lap(WeaveMetrics.Phase.PARSING);
+        Map<String, Object> values = recipes.resolve(entry.getMetadata(), () -> classInfo(c));
+        if (values == null)
+            return false;
+        values.forEach(InitializerRepository::put);
+        keys.addAll(values.keySet());
+
+        javassist.bytecode.ClassFile classFile = c.getClassFile();
+        CallbackCollector scoped = new CallbackCollector(classVisitors, methodVisitors).forClass(
+                ClassName.of(c.getName()), classFile.getAccessFlags(),
+                annotationTypes(classFile.getAttribute(AnnotationsAttribute.visibleTag),
+                        classFile.getAttribute(AnnotationsAttribute.invisibleTag)));
+        record.lap(WeaveMetrics.Phase.CALLBACK_COLLECTION);
+        if (!scoped.getClassDefinitionCallbacks().isEmpty() || !scoped.getClassAnnotationCallbacks().isEmpty()) {
+            ClassInfo info = classInfo(c);
+            scoped.getClassDefinitionCallbacks().forEach(cdc -> cdc.construction(info));
+            List<AnnotationInfo> annotations = info.getAnnotations().stream().map(Lazy::get)
+                    .collect(Collectors.toList());
+            scoped.getClassAnnotationCallbacks().forEach(cac -> cac.annotations(info, annotations));
+        }
+        record.lap(WeaveMetrics.Phase.CLASS_DEFINITION_CALLBACKS);
+        record(record, entry.getClasses());
+        return true;
+    }
+
     @Override
     public void addVisitor(ClassVisitor cv) {
         classVisitors.add(cv);
@@ -445,4 +780,73 @@ public class JavassistSyringe implements Syringe {
     public void addVisitor(MethodVisitor mv) {
         methodVisitors.add(mv);
     }
+
+    /**
+     * Adds a directory or jar to the classes {@link #inject()} weaves.
+     */
+    public void addClasspath(Path root) {
+        classpath.add(root);
+    }
+
+    /**
+     * Sets the policy deciding which methods are too small to weave, see {@link WeavingPolicy}.
+     */
+    public void setWeavingPolicy(WeavingPolicy policy) {
+        this.policy = policy;
+    }
+
+    public WeavingPolicy getWeavingPolicy() {
+        return policy;
+    }
+
+    /**
+     * Sets the cache to reuse woven classes from, see {@link #weave(byte[])}. Entries are only reused for visitors
+     * with the same {@link ClassVisitor#fingerprint() fingerprints}, in the same order, and the same version.
+     *
+     * @param version Must change whenever the visitors would weave a class differently under the same fingerprints.
+     */
+    public void setCache(@Nullable WeaveCache cache, String version) {
+        this.cacheVersion = version;
+        this.cache = cache;
+    }
+
+    @Nullable
+    public WeaveCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        switches.global().setEnabled(enabled);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return switches.global().isEnabled();
+    }
+
+    @Override
+    public void setEnabled(ClassVisitor cv, boolean enabled) {
+        switches.forVisitor(cv).setEnabled(enabled);
+    }
+
+    @Override
+    public void setEnabled(MethodVisitor mv, boolean enabled) {
+        switches.forVisitor(mv).setEnabled(enabled);
+    }
+
+    @Override
+    public boolean isEnabled(ClassVisitor cv) {
+        return switches.forVisitor(cv).isEnabled();
+    }
+
+    @Override
+    public boolean isEnabled(MethodVisitor mv) {
+        return switches.forVisitor(mv).isEnabled();
+    }
+
+    @Override
+    public WeaveMetrics getMetrics() {
+        return metrics;
+    }
 }
@@ -0,0 +1,51 @@
+/*
+ * This file is part of Syringe.
+ *
+ * Syringe is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Syringe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Syringe.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package syringe.javassist;
+
+import syringe.javassist.util.InitializerRepository;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Puts the values a woven class picks up from the {@link InitializerRepository}, keeping track of them so they can be
+ * put again for a cached copy of the class.
+ */
+final class Registrations {
+
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    /**
+     * @return The key the value was put under.
+     * @see InitializerRepository#put(String, Object)
+     */
+    String put(String key, @Nullable Object value) {
+        InitializerRepository.put(key, value);
+        values.put(key, value);
+        return key;
+    }
+
+    /**
+     * @return The values put by key, in the order they were put.
+     */
+    Map<String, Object> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+}
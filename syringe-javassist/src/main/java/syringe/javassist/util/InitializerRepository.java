@@ -18,21 +18,51 @@
 package syringe.javassist.util;
 
 import javax.annotation.Nullable;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Hands values to the field initializers of woven classes by key. Keys are qualified by a hash of the class file and
+ * of what it was woven with (see {@link syringe.util.SyntheticNames}), so values put under the same key stand for the
+ * same thing. Every put is counted, so each copy of a class which is defined more than once picks its values up, and
+ * the last value put under a key is the one handed out.
+ */
 public final class InitializerRepository {
 
-    private final static Map<String, Object> repo = new HashMap<>();
+    private final static ConcurrentMap<String, Put> repo = new ConcurrentHashMap<>();
 
     private InitializerRepository() {}
 
-    public static void put(String k, @Nullable Object o) {
-        repo.put(k, o);
+    /**
+     * @return The key the object was put under.
+     */
+    public static String put(String k, @Nullable Object o) {
+        repo.compute(k, (key, put) -> new Put(o, put == null ? 1 : put.count + 1));
+        return k;
     }
 
+    /**
+     * Retrieves an object for one of its puts, removing it once every put has been.
+     */
     @Nullable
     public static Object getAndRemove(String k) {
-        return repo.remove(k);
+        Object[] value = new Object[1];
+        repo.computeIfPresent(k, (key, put) -> {
+            value[0] = put.value;
+            return put.count == 1 ? null : new Put(put.value, put.count - 1);
+        });
+        return value[0];
+    }
+
+    private static final class Put {
+
+        @Nullable
+        final Object value;
+        final int count;
+
+        Put(@Nullable Object value, int count) {
+            this.value = value;
+            this.count = count;
+        }
     }
 }
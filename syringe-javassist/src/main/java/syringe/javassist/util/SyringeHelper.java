@@ -18,7 +18,11 @@
 package syringe.javassist.util;
 
 import javassist.*;
+import syringe.access.AccessorTable;
 import syringe.access.FieldAccessor;
+import syringe.access.MemberAccess;
+import syringe.callbacks.clazz.ClassInitializerCallback;
+import syringe.util.InstrumentationSwitch;
 import syringe.util.LazyMap;
 import syringe.access.MethodAccessor;
 import syringe.info.*;
@@ -29,7 +33,10 @@ import javax.annotation.Nullable;
 import java.lang.annotation.Annotation;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
 import java.util.*;
 import java.util.function.Function;
 
@@ -74,7 +81,7 @@ public final class SyringeHelper {
             for (Annotation a : type.getAnnotations()) {
                 annotations.add(annotationFromObject(a));
             }
-            return new AnnotationInfo(new ClassName(type), fields, annotations, new Lazy<>((Annotation) o));
+            return new AnnotationInfo(ClassName.of(type), fields, annotations, new Lazy<>((Annotation) o));
         });
     }
 
@@ -84,7 +91,7 @@ public final class SyringeHelper {
             int modifiers = method.getModifiers();
             ClassName returns;
             try {
-                returns = new ClassName(method.getReturnType().getName());
+                returns = ClassName.of(method.getReturnType().getName());
             } catch (NotFoundException e) {
                 e.printStackTrace();
                 return null;
@@ -115,7 +122,7 @@ public final class SyringeHelper {
                 }
                 params.add(new ParameterInfo("param" + i, // Can't get this
                         0, // Can't get this
-                        new ClassName(param.getName()),
+                        ClassName.of(param.getName()),
                         paramAnnotations));
             }
             return new MethodInfo(name, modifiers, returns, annotations, params, accessor);
@@ -128,7 +135,7 @@ public final class SyringeHelper {
             int modifiers = field.getModifiers();
             ClassName type;
             try {
-                type = new ClassName(field.getType().getName());
+                type = ClassName.of(field.getType().getName());
             } catch (NotFoundException e) {
                 e.printStackTrace();
                 return null;
@@ -146,7 +153,7 @@ public final class SyringeHelper {
                                              Function<CtMethod, MethodInfo> methodBuilder,
                                              Function<CtField, FieldInfo> fieldBuilder) {
         return new Lazy<>(() -> {
-            ClassName name = new ClassName(clazz.getName());
+            ClassName name = ClassName.of(clazz.getName());
             int modifiers = clazz.getModifiers();
             Map<String, FieldInfo> fields = new HashMap<>();
             Arrays.stream(clazz.getDeclaredFields()).forEach(f -> {
@@ -166,14 +173,14 @@ public final class SyringeHelper {
             List<ClassName> extendsList = new ArrayList<>();
             try {
                 for (CtClass e : clazz.getInterfaces()) {
-                    extendsList.add(new ClassName(e.getName()));
+                    extendsList.add(ClassName.of(e.getName()));
                 }
             } catch (NotFoundException e) {
                 e.printStackTrace();
                 return null;
             }
             try {
-                extendsList.add(new ClassName(clazz.getSuperclass().getName()));
+                extendsList.add(ClassName.of(clazz.getSuperclass().getName()));
             } catch (NotFoundException e) {
                 e.printStackTrace();
                 return null;
@@ -189,4 +196,134 @@ public final class SyringeHelper {
             return new ClassInfo(name, modifiers, lazyFields, lazyMethods, annotations, extendsList, transformed);
         });
     }
+
+    /**
+     * Describes a woven class from its declared members as it is initialized. Its methods are keyed as the woven code
+     * looks their {@link MethodInfo} up, by name and parameter descriptors.
+     *
+     * @param lookup The lookup of the woven class.
+     */
+    public static ClassInfo classInfo(MethodHandles.Lookup lookup) {
+        Class<?> clazz = lookup.lookupClass();
+        Map<String, FieldInfo> fields = new HashMap<>();
+        for (Field f : members(clazz.getDeclaredFields())) {
+            fields.put(f.getName(), new FieldInfo(f.getName(), f.getModifiers(), ClassName.of(f.getType()),
+                    annotations(f.getDeclaredAnnotations()), () -> {
+                throw new RuntimeException("Field is not accessible from this context!");
+            }, new Lazy<>(f)));
+        }
+        Map<String, MethodInfo> methods = new HashMap<>();
+        for (Method m : members(clazz.getDeclaredMethods())) {
+            List<ParameterInfo> params = new ArrayList<>();
+            for (Parameter p : m.getParameters()) {
+                params.add(new ParameterInfo(p.getName(), p.getModifiers(), ClassName.of(p.getType()),
+                        annotations(p.getDeclaredAnnotations()), new Lazy<>(p)));
+            }
+            methods.put(methodKey(m), new MethodInfo(m.getName(), m.getModifiers(), ClassName.of(m.getReturnType()),
+                    annotations(m.getDeclaredAnnotations()), params, args -> {
+                throw new RuntimeException("Method is not accessible from this context!");
+            }, new Lazy<>(m)));
+        }
+        List<ClassName> extendsList = new ArrayList<>();
+        for (Class<?> i : clazz.getInterfaces()) {
+            extendsList.add(ClassName.of(i));
+        }
+        if (clazz.getSuperclass() != null)
+            extendsList.add(ClassName.of(clazz.getSuperclass()));
+        return new ClassInfo(ClassName.of(clazz), clazz.getModifiers(), new LazyMap<>(fields), new LazyMap<>(methods),
+                annotations(clazz.getDeclaredAnnotations()), extendsList, new Lazy<>(clazz));
+    }
+
+    /**
+     * @param lookup The lookup of the woven class, which may read its private members.
+     * @return The accessors of the declared members of a woven class, keyed as in {@link #classInfo}.
+     */
+    public static AccessorTable accessors(MethodHandles.Lookup lookup) {
+        Class<?> clazz = lookup.lookupClass();
+        List<Field> fields = members(clazz.getDeclaredFields());
+        List<Method> methods = members(clazz.getDeclaredMethods());
+        String[] fieldNames = new String[fields.size()];
+        MethodHandle[] getters = new MethodHandle[fields.size()];
+        String[] methodKeys = new String[methods.size()];
+        MethodHandle[] invokers = new MethodHandle[methods.size()];
+        try {
+            for (int i = 0; i < getters.length; i++) {
+                Field f = fields.get(i);
+                fieldNames[i] = f.getName();
+                MethodHandle getter = lookup.unreflectGetter(f);
+                if (java.lang.reflect.Modifier.isStatic(f.getModifiers()))
+                    getter = MethodHandles.dropArguments(getter, 0, Object.class);
+                getters[i] = getter.asType(MethodType.methodType(Object.class, Object.class));
+            }
+            for (int i = 0; i < invokers.length; i++) {
+                Method m = methods.get(i);
+                methodKeys[i] = methodKey(m);
+                MethodHandle invoker = lookup.unreflect(m);
+                if (java.lang.reflect.Modifier.isStatic(m.getModifiers()))
+                    invoker = MethodHandles.dropArguments(invoker, 0, Object.class);
+                invokers[i] = invoker.asType(MethodType.genericMethodType(m.getParameterCount() + 1))
+                        .asSpreader(Object[].class, m.getParameterCount());
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        return new AccessorTable(fieldNames, methodKeys, new MemberAccess() {
+            @Nullable
+            @Override
+            public Object get(int index, @Nullable Object receiver) {
+                try {
+                    return getters[index].invokeExact(receiver);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+            }
+
+            @Nullable
+            @Override
+            public Object invoke(int index, @Nullable Object receiver, @Nullable Object[] args) throws Throwable {
+                Object[] arguments = args == null ? new Object[0] : args; //Typed as an array for the exact call
+                return invokers[index].invokeExact(receiver, arguments);
+            }
+        });
+    }
+
+    /**
+     * Runs the class initializer callbacks of a woven class which are enabled.
+     *
+     * @param instance The instance being constructed, or null in the static context.
+     * @param switches The global switch, then the switch of each callback.
+     */
+    public static void classInit(ClassInfo clazz, AccessorTable accessors, @Nullable Object instance,
+                                 ClassInitializerCallback[] callbacks, InstrumentationSwitch[] switches) {
+        for (int i = 0; i < callbacks.length; i++) {
+            if (switches[0].isEnabled() && switches[i + 1].isEnabled())
+                callbacks[i].classInit(clazz, instance == null, accessors.fields(instance),
+                        accessors.methods(instance));
+        }
+    }
+
+    /**
+     * @return The members declared in the source of the class, leaving out those added by the compiler or a weaver.
+     */
+    private static <T extends java.lang.reflect.Member> List<T> members(T[] members) {
+        List<T> declared = new ArrayList<>();
+        for (T member : members) {
+            if (!member.isSynthetic() && !member.getName().contains("$"))
+                declared.add(member);
+        }
+        return declared;
+    }
+
+    private static String methodKey(Method m) {
+        String descriptor = MethodType.methodType(void.class, m.getParameterTypes()).toMethodDescriptorString();
+        return m.getName() + descriptor.substring(0, descriptor.indexOf(')') + 1);
+    }
+
+    private static List<Lazy<AnnotationInfo>> annotations(Annotation[] annotations) {
+        List<Lazy<AnnotationInfo>> infos = new ArrayList<>();
+        for (Annotation a : annotations) {
+            infos.add(annotationFromObject(a));
+        }
+        return infos;
+    }
 }
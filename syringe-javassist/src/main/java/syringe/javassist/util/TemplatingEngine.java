@@ -62,10 +62,10 @@ public final class TemplatingEngine {
     private TemplatingEngine() {}
 
     private static final Pattern[] patterns = new Pattern[] {
-            Pattern.compile("(/{2}\\s*[{]{2}\\s*)([a-zA-Z0-9]+)(\\s*[}]{2})"), // // {{ something }}
-            Pattern.compile("(/\\*\\s*[{]{2}\\s*)([a-zA-Z0-9]+)(\\s*[}]{2}\\s*\\*/)"), // /* {{ something }} */
-            Pattern.compile("([{]{2}\\s*)([a-zA-Z0-9]+)(\\s*[}]{2})"), // {{ something }}
-            Pattern.compile("((?:(?:syringe\\.javassist\\.)?Dummy\\.)?syringe_template\\(\")([a-zA-Z0-9]+)(\"\\);?)") // Dummy.syringe_template("something");
+            Pattern.compile("(/{2}\\s*[{]{2}\\s*)([a-zA-Z0-9_]+)(\\s*[}]{2})"), // // {{ something }}
+            Pattern.compile("(/\\*\\s*[{]{2}\\s*)([a-zA-Z0-9_]+)(\\s*[}]{2}\\s*\\*/)"), // /* {{ something }} */
+            Pattern.compile("([{]{2}\\s*)([a-zA-Z0-9_]+)(\\s*[}]{2})"), // {{ something }}
+            Pattern.compile("((?:(?:syringe\\.javassist\\.)?Dummy\\.)?syringe_template\\(\")([a-zA-Z0-9_]+)(\"\\);?)") // Dummy.syringe_template("something");
     };
 
     public static String template(String contents, TemplateVisitor visitor) {
@@ -83,7 +83,7 @@ public final class TemplatingEngine {
                             line = matcher.replaceAll(r -> {
                                 String key = r.group(2); //1-indexed
                                 String replacement = visitor.visitSubstitution(key);
-                                return replacement == null ? "" : replacement;
+                                return replacement == null ? "" : Matcher.quoteReplacement(replacement);
                             });
                         }
                     }
@@ -0,0 +1 @@
+{{ accessors_field }} = syringe.javassist.util.SyringeHelper.accessors(java.lang.invoke.MethodHandles.lookup());
\ No newline at end of file
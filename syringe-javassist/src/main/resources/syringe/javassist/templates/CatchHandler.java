@@ -0,0 +1,3 @@
+{
+    return ({{ return_type }}) {{ dispatcher }}.{{ thrown }}({{ self_info_field }}, {{ method_info_field }}, $e);
+}
\ No newline at end of file
@@ -0,0 +1,2 @@
+syringe.javassist.util.SyringeHelper.classInit({{ self_info_field }}, {{ accessors_field }}, {{ instance }},
+        {{ callbacks_field }}, {{ switches_field }});
\ No newline at end of file
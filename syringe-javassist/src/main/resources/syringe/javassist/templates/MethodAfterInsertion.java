@@ -0,0 +1,3 @@
+{
+    $_ = ($r) {{ dispatcher }}.ret({{ self_info_field }}, {{ method_info_field }}, {{ instance }}{{ params }}, $_);
+}
\ No newline at end of file
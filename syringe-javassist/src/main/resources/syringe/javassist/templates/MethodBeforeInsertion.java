@@ -0,0 +1,3 @@
+{
+    {{ dispatcher }}.invoke({{ self_info_field }}, {{ method_info_field }}, {{ instance }}{{ params }});
+}
\ No newline at end of file
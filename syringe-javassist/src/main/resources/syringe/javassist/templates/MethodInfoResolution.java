@@ -0,0 +1 @@
+{{ method_info_field }} = (syringe.info.MethodInfo) {{ self_info_field }}.getMethods().get("{{ method_key }}");
\ No newline at end of file
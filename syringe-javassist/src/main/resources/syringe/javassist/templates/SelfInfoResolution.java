@@ -0,0 +1,4 @@
+{
+    {{ self_info_field }} = syringe.javassist.util.SyringeHelper.classInfo(java.lang.invoke.MethodHandles.lookup());
+    {{ resolve_method_infos }}
+}
\ No newline at end of file
@@ -0,0 +1,4 @@
+{
+    {{ dispatcher }}.{{ thrown }}({{ self_info_field }}, {{ method_info_field }}, $e);
+    return;
+}
\ No newline at end of file